@@ -0,0 +1,503 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.codelibs.core.lang.StringUtil;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Extracts fields from a JSON or XML column with a streaming parser.
+ * Only the configured paths are read, and the parser skips the other parts of the document
+ * without building an object tree, so the cost depends on what is extracted.
+ * All paths of a column are extracted in a single pass.
+ *
+ * <p>Paths of JSON columns are set by "column_json.[label].[field]", such as "user.name",
+ * "items[0].id" or "tags[]", where "[]" selects all elements of an array. Numbers and booleans keep their types,
+ * and objects and arrays become maps and lists.
+ * Paths of XML columns are set by "column_xml.[label].[field]", such as "/book/title" or "/book/@id".
+ * A path matches every element at that position, "*" matches any element name, and the value is
+ * the text of the element or the value of the attribute.</p>
+ *
+ * <p>A path that selects all elements yields a list. Other paths yield the value, or a list if
+ * several elements match.</p>
+ */
+public class ColumnPathExtractor {
+
+    /** Prefix of the paths of JSON columns. */
+    public static final String JSON_PREFIX = "column_json.";
+
+    /** Prefix of the paths of XML columns. */
+    public static final String XML_PREFIX = "column_xml.";
+
+    private static final int ALL = -1;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    /** Formats of structured columns. */
+    public enum Format {
+        /** JSON documents. */
+        JSON,
+        /** XML documents. */
+        XML
+    }
+
+    private final String column;
+
+    private final Format format;
+
+    private final List<FieldPath> paths = new ArrayList<>();
+
+    /**
+     * Creates an extractor of a column.
+     *
+     * @param column the column label
+     * @param format the format of the column values
+     */
+    public ColumnPathExtractor(final String column, final Format format) {
+        this.column = column;
+        this.format = format;
+    }
+
+    /**
+     * Creates the extractors of the columns configured in the data store parameters.
+     *
+     * @param paramMap the data store parameters
+     * @return the map of column labels to extractors
+     */
+    public static Map<String, ColumnPathExtractor> create(final Map<String, Object> paramMap) {
+        final Map<String, ColumnPathExtractor> extractorMap = new LinkedHashMap<>();
+        for (final Map.Entry<String, Object> entry : paramMap.entrySet()) {
+            final String key = entry.getKey();
+            final Format format;
+            final String name;
+            if (key.startsWith(JSON_PREFIX)) {
+                format = Format.JSON;
+                name = key.substring(JSON_PREFIX.length());
+            } else if (key.startsWith(XML_PREFIX)) {
+                format = Format.XML;
+                name = key.substring(XML_PREFIX.length());
+            } else {
+                continue;
+            }
+            final int pos = name.indexOf('.');
+            final String path = entry.getValue() != null ? entry.getValue().toString() : null;
+            if (pos <= 0 || pos == name.length() - 1 || StringUtil.isBlank(path)) {
+                continue;
+            }
+            final String label = name.substring(0, pos);
+            final ColumnPathExtractor extractor = extractorMap.computeIfAbsent(label, k -> new ColumnPathExtractor(k, format));
+            if (extractor.format != format) {
+                throw new IllegalArgumentException(label + " is configured as both JSON and XML.");
+            }
+            extractor.addPath(name.substring(pos + 1), path.trim());
+        }
+        return extractorMap;
+    }
+
+    /**
+     * Adds a path to extract.
+     *
+     * @param field the field name of the extracted value
+     * @param path the path in the document
+     * @return this extractor
+     */
+    public ColumnPathExtractor addPath(final String field, final String path) {
+        paths.add(format == Format.JSON ? parseJsonPath(field, path) : parseXmlPath(field, path));
+        return this;
+    }
+
+    /**
+     * Returns the column label.
+     *
+     * @return the column label
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    /**
+     * Extracts the fields from a column value.
+     *
+     * @param text the column value
+     * @return the map of field names to values; fields whose path is not found are not included
+     * @throws IOException if the value cannot be parsed
+     */
+    public Map<String, Object> extract(final String text) throws IOException {
+        final List<List<Object>> results = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            results.add(new ArrayList<>());
+        }
+        if (StringUtil.isNotBlank(text)) {
+            if (format == Format.JSON) {
+                extractJson(text, results);
+            } else {
+                extractXml(text, results);
+            }
+        }
+
+        final Map<String, Object> fieldMap = new LinkedHashMap<>();
+        for (int i = 0; i < paths.size(); i++) {
+            final FieldPath path = paths.get(i);
+            final List<Object> values = results.get(i);
+            if (path.multiple || values.size() > 1) {
+                fieldMap.put(path.field, values);
+            } else if (!values.isEmpty()) {
+                fieldMap.put(path.field, values.get(0));
+            }
+        }
+        return fieldMap;
+    }
+
+    private void extractJson(final String text, final List<List<Object>> results) throws IOException {
+        final List<Cursor> cursors = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            cursors.add(new Cursor(i, 0));
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(text)) {
+            if (parser.nextToken() != null) {
+                readJson(parser, cursors, results);
+            }
+        }
+    }
+
+    private void readJson(final JsonParser parser, final List<Cursor> cursors, final List<List<Object>> results) throws IOException {
+        final List<Cursor> completed = new ArrayList<>();
+        final List<Cursor> pending = new ArrayList<>();
+        for (final Cursor cursor : cursors) {
+            if (cursor.depth == paths.get(cursor.index).steps.size()) {
+                completed.add(cursor);
+            } else {
+                pending.add(cursor);
+            }
+        }
+        if (!completed.isEmpty()) {
+            // the value is needed as a whole, so deeper paths are selected from it in memory
+            final Object value = readJsonValue(parser);
+            for (final Cursor cursor : completed) {
+                results.get(cursor.index).add(value);
+            }
+            for (final Cursor cursor : pending) {
+                select(value, cursor.index, cursor.depth, results);
+            }
+            return;
+        }
+
+        final JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                final List<Cursor> next = new ArrayList<>();
+                for (final Cursor cursor : pending) {
+                    if (name.equals(paths.get(cursor.index).steps.get(cursor.depth))) {
+                        next.add(new Cursor(cursor.index, cursor.depth + 1));
+                    }
+                }
+                if (next.isEmpty()) {
+                    parser.skipChildren();
+                } else {
+                    readJson(parser, next, results);
+                }
+            }
+        } else if (token == JsonToken.START_ARRAY) {
+            int position = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                final List<Cursor> next = new ArrayList<>();
+                for (final Cursor cursor : pending) {
+                    if (paths.get(cursor.index).steps.get(cursor.depth) instanceof final Integer index
+                            && (index == ALL || index == position)) {
+                        next.add(new Cursor(cursor.index, cursor.depth + 1));
+                    }
+                }
+                if (next.isEmpty()) {
+                    parser.skipChildren();
+                } else {
+                    readJson(parser, next, results);
+                }
+                position++;
+            }
+        }
+    }
+
+    private void select(final Object value, final int pathIndex, final int depth, final List<List<Object>> results) {
+        final List<Object> steps = paths.get(pathIndex).steps;
+        if (depth == steps.size()) {
+            results.get(pathIndex).add(value);
+            return;
+        }
+        final Object step = steps.get(depth);
+        if (step instanceof final String name && value instanceof final Map<?, ?> map) {
+            if (map.containsKey(name)) {
+                select(map.get(name), pathIndex, depth + 1, results);
+            }
+        } else if (step instanceof final Integer index && value instanceof final List<?> list) {
+            if (index == ALL) {
+                for (final Object element : list) {
+                    select(element, pathIndex, depth + 1, results);
+                }
+            } else if (index < list.size()) {
+                select(list.get(index), pathIndex, depth + 1, results);
+            }
+        }
+    }
+
+    private static Object readJsonValue(final JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+        case START_OBJECT: {
+            final Map<String, Object> map = new LinkedHashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                map.put(name, readJsonValue(parser));
+            }
+            return map;
+        }
+        case START_ARRAY: {
+            final List<Object> list = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                list.add(readJsonValue(parser));
+            }
+            return list;
+        }
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+            return parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER ? parser.getBigIntegerValue() : parser.getLongValue();
+        case VALUE_NUMBER_FLOAT:
+            return parser.getDoubleValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        default:
+            return null;
+        }
+    }
+
+    private void extractXml(final String text, final List<List<Object>> results) throws IOException {
+        final List<String> stack = new ArrayList<>();
+        final int[] captureDepths = new int[paths.size()];
+        final StringBuilder[] buffers = new StringBuilder[paths.size()];
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(text));
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    stack.add(reader.getLocalName());
+                    boolean relevant = false;
+                    for (int i = 0; i < paths.size(); i++) {
+                        final FieldPath path = paths.get(i);
+                        if (captureDepths[i] > 0) {
+                            relevant = true;
+                        } else if (matchesXmlPath(path.steps, stack, true)) {
+                            relevant = true;
+                            if (path.attribute != null) {
+                                final String value = reader.getAttributeValue(null, path.attribute);
+                                if (value != null) {
+                                    results.get(i).add(value);
+                                }
+                            } else {
+                                captureDepths[i] = stack.size();
+                                buffers[i] = new StringBuilder();
+                            }
+                        } else if (stack.size() < path.steps.size() && matchesXmlPath(path.steps, stack, false)) {
+                            relevant = true;
+                        }
+                    }
+                    if (!relevant) {
+                        skipXmlElement(reader);
+                        stack.remove(stack.size() - 1);
+                    }
+                    break;
+                }
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    for (int i = 0; i < paths.size(); i++) {
+                        if (captureDepths[i] > 0) {
+                            buffers[i].append(reader.getText());
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    for (int i = 0; i < paths.size(); i++) {
+                        if (captureDepths[i] == stack.size()) {
+                            results.get(i).add(buffers[i].toString().trim());
+                            captureDepths[i] = 0;
+                            buffers[i] = null;
+                        }
+                    }
+                    stack.remove(stack.size() - 1);
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (final XMLStreamException e) {
+            throw new IOException("Failed to parse XML in " + column + ".", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final XMLStreamException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static boolean matchesXmlPath(final List<Object> steps, final List<String> stack, final boolean exact) {
+        if (exact ? steps.size() != stack.size() : steps.size() < stack.size()) {
+            return false;
+        }
+        for (int i = 0; i < stack.size(); i++) {
+            final Object step = steps.get(i);
+            if (!"*".equals(step) && !step.equals(stack.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skipXmlElement(final XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static FieldPath parseJsonPath(final String field, final String path) {
+        String value = path;
+        if (value.startsWith("$")) {
+            value = value.substring(1);
+        }
+        final List<Object> steps = new ArrayList<>();
+        boolean multiple = false;
+        for (final String token : value.split("\\.")) {
+            int pos = token.indexOf('[');
+            final String name = pos >= 0 ? token.substring(0, pos) : token;
+            if (!name.isEmpty()) {
+                steps.add(name);
+            }
+            while (pos >= 0) {
+                final int end = token.indexOf(']', pos);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Invalid JSON path: " + path);
+                }
+                final String index = token.substring(pos + 1, end).trim();
+                if (index.isEmpty() || "*".equals(index)) {
+                    steps.add(ALL);
+                    multiple = true;
+                } else {
+                    try {
+                        steps.add(Integer.valueOf(index));
+                    } catch (final NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid JSON path: " + path, e);
+                    }
+                }
+                pos = token.indexOf('[', end);
+            }
+        }
+        return new FieldPath(field, steps, null, multiple);
+    }
+
+    private static FieldPath parseXmlPath(final String field, final String path) {
+        final List<Object> steps = new ArrayList<>();
+        String attribute = null;
+        for (final String token : path.split("/")) {
+            final String name = token.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (name.startsWith("@")) {
+                attribute = name.substring(1);
+                break;
+            }
+            steps.add(name);
+        }
+        if (steps.isEmpty()) {
+            throw new IllegalArgumentException("Invalid XML path: " + path);
+        }
+        return new FieldPath(field, steps, attribute, false);
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    @Override
+    public String toString() {
+        final List<String> fields = new ArrayList<>();
+        for (final FieldPath path : paths) {
+            fields.add(path.field);
+        }
+        return "ColumnPathExtractor [column=" + column + ", format=" + format + ", fields=" + fields + "]";
+    }
+
+    private static class FieldPath {
+        final String field;
+
+        final List<Object> steps;
+
+        final String attribute;
+
+        final boolean multiple;
+
+        FieldPath(final String field, final List<Object> steps, final String attribute, final boolean multiple) {
+            this.field = field;
+            this.steps = steps;
+            this.attribute = attribute;
+            this.multiple = multiple;
+        }
+    }
+
+    private static class Cursor {
+        final int index;
+
+        final int depth;
+
+        Cursor(final int index, final int depth) {
+            this.index = index;
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Executor for the workers of a database crawl.
+ * Tasks run on virtual threads, on a platform thread pool, or on the calling thread.
+ * The number of concurrent users of each resource, such as database connections,
+ * extractor slots and index callbacks, is bounded by a semaphore per resource.
+ */
+public class CrawlExecutor implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(CrawlExecutor.class);
+
+    /** Resource name for database connections. */
+    public static final String CONNECTION = "connection";
+
+    /** Resource name for content extractors. */
+    public static final String EXTRACTION = "extraction";
+
+    /** Resource name for index update callbacks. */
+    public static final String CALLBACK = "callback";
+
+    private static final long SHUTDOWN_TIMEOUT = 60;
+
+    private static final String EXECUTOR_TYPE_PARAM = "executor_type";
+
+    private static final String EXECUTOR_TYPE_VIRTUAL = "virtual";
+
+    private static final String EXECUTOR_TYPE_PLATFORM = "platform";
+
+    private static final String EXECUTOR_THREADS_PARAM = "executor_threads";
+
+    private static final String MAX_CONCURRENT_CONNECTIONS_PARAM = "max_concurrent_connections";
+
+    private static final String MAX_CONCURRENT_EXTRACTIONS_PARAM = "max_concurrent_extractions";
+
+    private static final String MAX_CONCURRENT_CALLBACKS_PARAM = "max_concurrent_callbacks";
+
+    private static final String REPLAY_THREADS_PARAM = "replay_threads";
+
+    private static final int DEFAULT_VIRTUAL_CALLBACKS = 100;
+
+    private final ExecutorService executorService;
+
+    private final Map<String, Semaphore> semaphoreMap = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> limitMap = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition finished = lock.newCondition();
+
+    private long pendingCount;
+
+    /**
+     * Creates an executor that runs tasks with the given executor service.
+     *
+     * @param executorService the executor service, or null to run tasks on the calling thread
+     */
+    public CrawlExecutor(final ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * Creates an executor that runs tasks on the calling thread.
+     *
+     * @return the executor
+     */
+    public static CrawlExecutor sequential() {
+        return new CrawlExecutor(null);
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread.
+     *
+     * @param name the prefix of the thread names
+     * @return the executor
+     */
+    public static CrawlExecutor virtual(final String name) {
+        return new CrawlExecutor(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory()));
+    }
+
+    /**
+     * Creates an executor that runs tasks on a fixed pool of platform threads.
+     *
+     * @param name the prefix of the thread names
+     * @param threads the number of threads
+     * @return the executor
+     */
+    public static CrawlExecutor platform(final String name, final int threads) {
+        return new CrawlExecutor(Executors.newFixedThreadPool(threads, Thread.ofPlatform().name(name + "-", 0).daemon(true).factory()));
+    }
+
+    /**
+     * Creates an executor for the workers of a crawl from the parameter map.
+     * "executor_type" selects "virtual" threads, a pool of "platform" threads sized by "executor_threads",
+     * or the crawler thread itself by default. "max_concurrent_connections", "max_concurrent_extractions"
+     * and "max_concurrent_callbacks" bound the concurrent users of each resource.
+     *
+     * @param name the prefix of the thread names
+     * @param paramMap the parameter map containing configuration
+     * @return the executor
+     */
+    public static CrawlExecutor create(final String name, final DataStoreParams paramMap) {
+        final String executorType = paramMap.getAsString(EXECUTOR_TYPE_PARAM, StringUtil.EMPTY).trim();
+        final CrawlExecutor executor;
+        int defaultCallbacks = 0;
+        if (EXECUTOR_TYPE_VIRTUAL.equalsIgnoreCase(executorType)) {
+            executor = virtual(name);
+            defaultCallbacks = DEFAULT_VIRTUAL_CALLBACKS;
+        } else if (EXECUTOR_TYPE_PLATFORM.equalsIgnoreCase(executorType)) {
+            final int threads = Math.max(CrawlParams.getAsInt(paramMap, EXECUTOR_THREADS_PARAM, getProcessors()), 1);
+            executor = platform(name, threads);
+            defaultCallbacks = threads * 2;
+        } else {
+            executor = sequential();
+        }
+        return executor.limit(CONNECTION, CrawlParams.getAsInt(paramMap, MAX_CONCURRENT_CONNECTIONS_PARAM, 0))
+                .limit(EXTRACTION, CrawlParams.getAsInt(paramMap, MAX_CONCURRENT_EXTRACTIONS_PARAM, 0))
+                .limit(CALLBACK, CrawlParams.getAsInt(paramMap, MAX_CONCURRENT_CALLBACKS_PARAM, defaultCallbacks));
+    }
+
+    /**
+     * Creates an executor that reads spool files in parallel.
+     * "replay_threads" is the number of readers, which is the number of processors by default.
+     *
+     * @param name the prefix of the thread names
+     * @param paramMap the parameter map containing configuration
+     * @return the executor
+     */
+    public static CrawlExecutor createReplay(final String name, final DataStoreParams paramMap) {
+        return platform(name, Math.max(CrawlParams.getAsInt(paramMap, REPLAY_THREADS_PARAM, getProcessors()), 1));
+    }
+
+    private static int getProcessors() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Bounds the number of concurrent users of a resource.
+     *
+     * @param resource the resource name
+     * @param permits the maximum number of concurrent users, or 0 or less for no limit
+     * @return this executor
+     */
+    public CrawlExecutor limit(final String resource, final int permits) {
+        if (permits > 0) {
+            semaphoreMap.put(resource, new Semaphore(permits));
+            limitMap.put(resource, permits);
+        } else {
+            semaphoreMap.remove(resource);
+            limitMap.remove(resource);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of concurrent users of a resource.
+     *
+     * @param resource the resource name
+     * @return the number of permits, or 0 if not limited
+     */
+    public int getLimit(final String resource) {
+        return limitMap.getOrDefault(resource, 0);
+    }
+
+    /**
+     * Checks if tasks run on threads other than the calling thread.
+     *
+     * @return true if tasks run in parallel
+     */
+    public boolean isParallel() {
+        return executorService != null;
+    }
+
+    /**
+     * Acquires a permit of a resource, blocking until one is available.
+     *
+     * @param resource the resource name
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void acquire(final String resource) throws InterruptedException {
+        final Semaphore semaphore = semaphoreMap.get(resource);
+        if (semaphore != null) {
+            semaphore.acquire();
+        }
+    }
+
+    /**
+     * Releases a permit of a resource.
+     *
+     * @param resource the resource name
+     */
+    public void release(final String resource) {
+        final Semaphore semaphore = semaphoreMap.get(resource);
+        if (semaphore != null) {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Runs a task while holding a permit of a resource.
+     * The permit is acquired on the calling thread, so callers are blocked while the resource is busy.
+     *
+     * @param resource the resource name
+     * @param task the task
+     * @throws InterruptedException if the current thread is interrupted while waiting for a permit
+     */
+    public void execute(final String resource, final Runnable task) throws InterruptedException {
+        acquire(resource);
+        if (executorService == null) {
+            try {
+                task.run();
+            } finally {
+                release(resource);
+            }
+            return;
+        }
+
+        updatePendingCount(1);
+        try {
+            executorService.execute(() -> {
+                try {
+                    task.run();
+                } catch (final Throwable t) {
+                    logger.warn("Failed to run a task for {}.", resource, t);
+                } finally {
+                    release(resource);
+                    updatePendingCount(-1);
+                }
+            });
+        } catch (final RuntimeException e) {
+            release(resource);
+            updatePendingCount(-1);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until all submitted tasks are finished.
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        lock.lock();
+        try {
+            while (pendingCount > 0) {
+                finished.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of submitted tasks that are not finished.
+     *
+     * @return the number of pending tasks
+     */
+    public long getPendingCount() {
+        lock.lock();
+        try {
+            return pendingCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updatePendingCount(final long delta) {
+        lock.lock();
+        try {
+            pendingCount += delta;
+            if (pendingCount <= 0) {
+                finished.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executorService == null) {
+            return;
+        }
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                logger.warn("Crawl workers did not finish in {} seconds.", SHUTDOWN_TIMEOUT);
+                executorService.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Parses values of data store parameters.
+ * Each component of a crawl reads its own parameters with these methods in its create method,
+ * and an invalid value falls back to the default.
+ */
+public final class CrawlParams {
+    private static final Logger logger = LogManager.getLogger(CrawlParams.class);
+
+    private CrawlParams() {
+    }
+
+    /**
+     * Retrieves a long value from the parameter map.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param key the parameter name
+     * @param defaultValue the value returned if the parameter is not specified or invalid
+     * @return the long value
+     */
+    public static long getAsLong(final DataStoreParams paramMap, final String key, final long defaultValue) {
+        final String value = paramMap.getAsString(key);
+        if (StringUtil.isNotBlank(value)) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (final NumberFormatException e) {
+                logger.debug("Failed to parse {}={}", key, value, e);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Retrieves an int value from the parameter map. A value out of the range of int is capped.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param key the parameter name
+     * @param defaultValue the value returned if the parameter is not specified or invalid
+     * @return the int value
+     */
+    public static int getAsInt(final DataStoreParams paramMap, final String key, final int defaultValue) {
+        return (int) Math.max(Math.min(getAsLong(paramMap, key, defaultValue), Integer.MAX_VALUE), Integer.MIN_VALUE);
+    }
+
+    /**
+     * Retrieves a double value from the parameter map.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param key the parameter name
+     * @param defaultValue the value returned if the parameter is not specified or invalid
+     * @return the double value
+     */
+    public static double getAsDouble(final DataStoreParams paramMap, final String key, final double defaultValue) {
+        final String value = paramMap.getAsString(key);
+        if (StringUtil.isNotBlank(value)) {
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (final NumberFormatException e) {
+                logger.debug("Failed to parse {}={}", key, value, e);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Retrieves a boolean value from the parameter map.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param key the parameter name
+     * @return true if the parameter is "true", ignoring case
+     */
+    public static boolean getAsBoolean(final DataStoreParams paramMap, final String key) {
+        final String value = paramMap.getAsString(key);
+        return value != null && Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Retrieves a trimmed string value from the parameter map.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param key the parameter name
+     * @return the trimmed value, or null if the parameter is not specified or blank
+     */
+    public static String getAsTrimmedString(final DataStoreParams paramMap, final String key) {
+        final String value = paramMap.getAsString(key);
+        return StringUtil.isNotBlank(value) ? value.trim() : null;
+    }
+
+    /**
+     * Splits a comma-separated parameter value.
+     *
+     * @param value the parameter value
+     * @return the trimmed, non-empty values
+     */
+    public static List<String> split(final String value) {
+        final List<String> list = new ArrayList<>();
+        if (StringUtil.isNotBlank(value)) {
+            for (final String s : value.split(",")) {
+                if (StringUtil.isNotBlank(s)) {
+                    list.add(s.trim());
+                }
+            }
+        }
+        return list;
+    }
+}
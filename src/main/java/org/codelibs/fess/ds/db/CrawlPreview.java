@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Settings of a preview crawl, which is a dry run over the first rows or a sample of the query
+ * to check the field mapping before a full crawl.
+ * A preview is set by "preview_rows", "preview_sample_percent" or "preview_time".
+ */
+public class CrawlPreview {
+
+    /** The number of first documents of a preview crawl that are traced. */
+    public static final long TRACE_ROWS = 5L;
+
+    private static final String PREVIEW_ROWS_PARAM = "preview_rows";
+
+    private static final String PREVIEW_SAMPLE_PERCENT_PARAM = "preview_sample_percent";
+
+    private static final String PREVIEW_TIME_PARAM = "preview_time";
+
+    private final long rows;
+
+    private final double samplePercent;
+
+    private final long time;
+
+    /**
+     * Creates preview settings.
+     *
+     * @param rows the number of rows to read, or 0 or less for no limit
+     * @param samplePercent the percentage of rows to sample, or 0 or less for no sampling
+     * @param time the time to read in milliseconds, or 0 or less for no limit
+     */
+    public CrawlPreview(final long rows, final double samplePercent, final long time) {
+        this.rows = Math.max(rows, 0);
+        this.samplePercent = Math.min(Math.max(samplePercent, 0), 100);
+        this.time = Math.max(time, 0);
+    }
+
+    /**
+     * Creates preview settings from the parameter map.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the preview settings
+     */
+    public static CrawlPreview create(final DataStoreParams paramMap) {
+        return new CrawlPreview(CrawlParams.getAsLong(paramMap, PREVIEW_ROWS_PARAM, 0L),
+                CrawlParams.getAsDouble(paramMap, PREVIEW_SAMPLE_PERCENT_PARAM, 0),
+                CrawlParams.getAsLong(paramMap, PREVIEW_TIME_PARAM, 0L));
+    }
+
+    /**
+     * Checks if the crawl is a preview crawl.
+     *
+     * @return true for a preview crawl
+     */
+    public boolean isEnabled() {
+        return rows > 0 || samplePercent > 0 || time > 0;
+    }
+
+    /**
+     * Returns the number of rows read by the preview.
+     *
+     * @return the number of rows, or 0 for no limit
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the percentage of rows sampled by the preview.
+     *
+     * @return the percentage between 0 and 100, or 0 for no sampling
+     */
+    public double getSamplePercent() {
+        return samplePercent;
+    }
+
+    /**
+     * Returns the time the preview reads rows.
+     *
+     * @return the time in milliseconds, or 0 for no limit
+     */
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "CrawlPreview [rows=" + rows + ", samplePercent=" + samplePercent + ", time=" + time + "]";
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.codelibs.fess.entity.DataStoreParams;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Collects the cost of each column and field mapping script in a dry run of a database crawl.
+ * The report shows the JDBC type and the Java class of each column, the decoded size,
+ * the decode time and the extraction time, and the evaluation time of each target field,
+ * so expensive columns can be dropped or cast in the SQL query.
+ */
+public class CrawlProfiler {
+
+    private static final String PROFILE_PARAM = "profile";
+
+    private static final String PROFILE_ROWS_PARAM = "profile_rows";
+
+    private static final String PROFILE_TIME_PARAM = "profile_time";
+
+    private static final String PROFILE_OUTPUT_PARAM = "profile_output";
+
+    private static final long DEFAULT_PROFILE_ROWS = 1000L;
+
+    private final long maxRows;
+
+    private final long maxTime;
+
+    private final long startTime;
+
+    private final Map<String, ColumnStats> columnMap = new LinkedHashMap<>();
+
+    private final Map<String, TimeStats> scriptMap = new LinkedHashMap<>();
+
+    private long rowCount;
+
+    /**
+     * Creates a profiler.
+     *
+     * @param maxRows the number of rows to sample, or 0 or less for no limit
+     * @param maxTime the time to sample in milliseconds, or 0 or less for no limit
+     */
+    public CrawlProfiler(final long maxRows, final long maxTime) {
+        this.maxRows = maxRows;
+        this.maxTime = maxTime;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Creates a profiler for a dry run from the parameter map.
+     * With "profile=true", documents are not indexed and the crawl ends after "profile_rows" rows
+     * or "profile_time" milliseconds. A preview crawl is a dry run that ends after "preview_rows" rows
+     * or "preview_time" milliseconds, or reads the whole sample if neither is set.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the profiler, or null if profiling is not enabled
+     */
+    public static CrawlProfiler create(final DataStoreParams paramMap) {
+        final CrawlPreview preview = CrawlPreview.create(paramMap);
+        if (preview.isEnabled()) {
+            return new CrawlProfiler(CrawlParams.getAsLong(paramMap, PROFILE_ROWS_PARAM, preview.getRows()),
+                    CrawlParams.getAsLong(paramMap, PROFILE_TIME_PARAM, preview.getTime()));
+        }
+        if (!CrawlParams.getAsBoolean(paramMap, PROFILE_PARAM)) {
+            return null;
+        }
+        return new CrawlProfiler(CrawlParams.getAsLong(paramMap, PROFILE_ROWS_PARAM, DEFAULT_PROFILE_ROWS),
+                CrawlParams.getAsLong(paramMap, PROFILE_TIME_PARAM, 0L));
+    }
+
+    /**
+     * Returns the file the report is written to, specified by "profile_output".
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the file, or null if the report is logged
+     */
+    public static Path getOutput(final DataStoreParams paramMap) {
+        final String output = CrawlParams.getAsTrimmedString(paramMap, PROFILE_OUTPUT_PARAM);
+        return output != null ? Path.of(output) : null;
+    }
+
+    /**
+     * Records a row and checks if the sample is complete.
+     *
+     * @return true if enough rows are sampled or the sampling time is over
+     */
+    public synchronized boolean recordRow() {
+        rowCount++;
+        return isComplete();
+    }
+
+    /**
+     * Checks if the sample is complete.
+     *
+     * @return true if enough rows are sampled or the sampling time is over
+     */
+    public synchronized boolean isComplete() {
+        return maxRows > 0 && rowCount >= maxRows || maxTime > 0 && System.nanoTime() - startTime >= maxTime * 1_000_000L;
+    }
+
+    /**
+     * Records a decoded column value.
+     *
+     * @param label the column label
+     * @param jdbcType the JDBC type name of the column
+     * @param javaClass the class returned by the driver, or null for SQL NULL
+     * @param size the size of the decoded value in characters
+     * @param nanos the decode time in nanoseconds, including the extraction time
+     */
+    public synchronized void recordColumn(final String label, final String jdbcType, final Class<?> javaClass, final long size,
+            final long nanos) {
+        final ColumnStats stats = columnMap.computeIfAbsent(label, k -> new ColumnStats());
+        stats.jdbcType = jdbcType;
+        if (javaClass != null) {
+            stats.javaClasses.add(javaClass.getName());
+        } else {
+            stats.nullCount++;
+        }
+        stats.totalSize += size;
+        stats.maxSize = Math.max(stats.maxSize, size);
+        stats.decode.add(nanos);
+    }
+
+    /**
+     * Records the time to extract text from binary content of a column.
+     *
+     * @param label the column label
+     * @param nanos the extraction time in nanoseconds
+     */
+    public synchronized void recordExtraction(final String label, final long nanos) {
+        columnMap.computeIfAbsent(label, k -> new ColumnStats()).extraction.add(nanos);
+    }
+
+    /**
+     * Records the time to evaluate the script of a target field.
+     *
+     * @param field the target field
+     * @param nanos the evaluation time in nanoseconds
+     */
+    public synchronized void recordScript(final String field, final long nanos) {
+        scriptMap.computeIfAbsent(field, k -> new TimeStats()).add(nanos);
+    }
+
+    /**
+     * Returns the number of sampled rows.
+     *
+     * @return the row count
+     */
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Writes the report as JSON.
+     * Columns and fields are listed in the order they were first seen, and times are in milliseconds.
+     *
+     * @return the report
+     */
+    public synchronized String toJson() {
+        final StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(writer)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeNumberField("rows", rowCount);
+            generator.writeNumberField("elapsed_ms", toMillis(System.nanoTime() - startTime));
+            generator.writeObjectFieldStart("columns");
+            for (final Map.Entry<String, ColumnStats> entry : columnMap.entrySet()) {
+                final ColumnStats stats = entry.getValue();
+                generator.writeObjectFieldStart(entry.getKey());
+                generator.writeStringField("jdbc_type", stats.jdbcType);
+                generator.writeArrayFieldStart("java_class");
+                for (final String javaClass : stats.javaClasses) {
+                    generator.writeString(javaClass);
+                }
+                generator.writeEndArray();
+                generator.writeNumberField("nulls", stats.nullCount);
+                generator.writeNumberField("avg_size", stats.decode.count == 0 ? 0 : stats.totalSize / stats.decode.count);
+                generator.writeNumberField("max_size", stats.maxSize);
+                writeTime(generator, "decode", stats.decode);
+                if (stats.extraction.count > 0) {
+                    writeTime(generator, "extraction", stats.extraction);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("scripts");
+            for (final Map.Entry<String, TimeStats> entry : scriptMap.entrySet()) {
+                writeTime(generator, entry.getKey(), entry.getValue());
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    private static void writeTime(final JsonGenerator generator, final String name, final TimeStats stats) throws IOException {
+        generator.writeObjectFieldStart(name);
+        generator.writeNumberField("count", stats.count);
+        generator.writeNumberField("total_ms", toMillis(stats.totalNanos));
+        generator.writeNumberField("avg_ms", stats.count == 0 ? 0 : toMillis(stats.totalNanos / stats.count));
+        generator.writeNumberField("max_ms", toMillis(stats.maxNanos));
+        generator.writeEndObject();
+    }
+
+    private static double toMillis(final long nanos) {
+        return nanos / 1000 / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private static class ColumnStats {
+        private String jdbcType;
+
+        private final TreeSet<String> javaClasses = new TreeSet<>();
+
+        private long nullCount;
+
+        private long totalSize;
+
+        private long maxSize;
+
+        private final TimeStats decode = new TimeStats();
+
+        private final TimeStats extraction = new TimeStats();
+    }
+
+    private static class TimeStats {
+        private long count;
+
+        private long totalNanos;
+
+        private long maxNanos;
+
+        void add(final long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+}
@@ -0,0 +1,621 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.codelibs.fess.ds.callback.IndexUpdateCallback;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.helper.CrawlerStatsHelper;
+import org.codelibs.fess.opensearch.config.exentity.DataConfig;
+
+/**
+ * State of a single database crawl.
+ * It holds the configuration and the components shared by the reader and the workers of the crawl.
+ */
+public class CrawlSession {
+
+    private final DataConfig config;
+
+    private final IndexUpdateCallback callback;
+
+    private final DataStoreParams paramMap;
+
+    private final Map<String, String> scriptMap;
+
+    private final Map<String, Object> defaultDataMap;
+
+    private final String scriptType;
+
+    private final MappingPlan mappingPlan;
+
+    private final CrawlerStatsHelper crawlerStatsHelper;
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private String sql;
+
+    private CrawlExecutor executor;
+
+    private RateLimiter rateLimiter;
+
+    private IngestMonitor ingestMonitor;
+
+    private ExtractedContentCache extractedContentCache;
+
+    private FailureRecorder failureRecorder;
+
+    private volatile Statement statement;
+
+    private CrawlProfiler profiler;
+
+    private SpoolWriter spoolWriter;
+
+    private MemoryBudget memoryBudget;
+
+    private List<MappingProfile> mappingProfiles;
+
+    private DatabaseSnapshot snapshot;
+
+    private DocumentKeyFilter documentKeyFilter;
+
+    private DatabaseDataStore.DecodedRow pendingRow;
+
+    private RowStats rowStats;
+
+    private RowTracer rowTracer = RowTracer.NONE;
+
+    private Map<String, ColumnPathExtractor> columnExtractors = Collections.emptyMap();
+
+    private int lobSpoolThreshold = -1;
+
+    private double samplePercent;
+
+    private final CrawlSession parent;
+
+    private final String shardId;
+
+    private final List<CrawlSession> shards = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a crawl session.
+     *
+     * @param config the data configuration
+     * @param callback the callback for index updates
+     * @param paramMap the data store parameters
+     * @param scriptMap the script map for field mapping
+     * @param defaultDataMap the default values of documents
+     * @param scriptType the script type
+     * @param crawlerStatsHelper the crawler stats helper
+     */
+    public CrawlSession(final DataConfig config, final IndexUpdateCallback callback, final DataStoreParams paramMap,
+            final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap, final String scriptType,
+            final CrawlerStatsHelper crawlerStatsHelper) {
+        this(config, callback, paramMap, scriptMap, defaultDataMap, scriptType, crawlerStatsHelper, null, null);
+    }
+
+    private CrawlSession(final DataConfig config, final IndexUpdateCallback callback, final DataStoreParams paramMap,
+            final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap, final String scriptType,
+            final CrawlerStatsHelper crawlerStatsHelper, final CrawlSession parent, final String shardId) {
+        this.parent = parent;
+        this.shardId = shardId;
+        this.config = config;
+        this.callback = callback;
+        this.paramMap = paramMap;
+        this.scriptMap = scriptMap;
+        this.defaultDataMap = defaultDataMap;
+        this.mappingPlan = parent != null ? parent.mappingPlan : new MappingPlan(scriptMap, defaultDataMap);
+        this.scriptType = scriptType;
+        this.crawlerStatsHelper = crawlerStatsHelper;
+        this.rowStats = new RowStats(crawlerStatsHelper, config != null ? config.getId() : null, 1, 0L);
+    }
+
+    /**
+     * Creates the session of a shard of this crawl.
+     * The shard shares the components of this session, such as the executor, the rate limiter, the ingest monitor and the spool writer,
+     * and stops when this session is aborted. The failure recorder, the row stats and the snapshot are set per shard.
+     *
+     * @param shardId the shard ID
+     * @param shardParamMap the data store parameters of the shard
+     * @return the shard session
+     */
+    public CrawlSession newShard(final String shardId, final DataStoreParams shardParamMap) {
+        final CrawlSession shard =
+                new CrawlSession(config, callback, shardParamMap, scriptMap, defaultDataMap, scriptType, crawlerStatsHelper, this, shardId);
+        shard.sql = sql;
+        shard.executor = executor;
+        shard.rateLimiter = rateLimiter;
+        shard.ingestMonitor = ingestMonitor;
+        shard.extractedContentCache = extractedContentCache;
+        shard.profiler = profiler;
+        shard.spoolWriter = spoolWriter;
+        shard.memoryBudget = memoryBudget;
+        shard.mappingProfiles = mappingProfiles;
+        shard.documentKeyFilter = documentKeyFilter;
+        shard.rowTracer = rowTracer;
+        shard.columnExtractors = columnExtractors;
+        shard.lobSpoolThreshold = lobSpoolThreshold;
+        shard.samplePercent = samplePercent;
+        shards.add(shard);
+        return shard;
+    }
+
+    /**
+     * Returns the shard ID.
+     *
+     * @return the shard ID, or null if this session is not a shard
+     */
+    public String getShardId() {
+        return shardId;
+    }
+
+    /**
+     * Returns the shard sessions of this crawl.
+     *
+     * @return the shard sessions
+     */
+    public List<CrawlSession> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the identifier of a row used for failure records, which includes the shard ID of a shard.
+     *
+     * @param count the row number
+     * @return the row identifier
+     */
+    public String getRowUrl(final long count) {
+        if (shardId == null) {
+            return sql + ":" + count;
+        }
+        return shardId + ":" + sql + ":" + count;
+    }
+
+    /**
+     * Checks if the crawl should continue.
+     *
+     * @return true if neither this crawl nor its parent is aborted
+     */
+    public boolean isRunning() {
+        return running.get() && (parent == null || parent.isRunning());
+    }
+
+    /**
+     * Aborts the crawl. The reader stops at the next row.
+     */
+    public void abort() {
+        running.set(false);
+    }
+
+    /**
+     * Returns the data configuration.
+     *
+     * @return the data configuration
+     */
+    public DataConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the callback for index updates.
+     *
+     * @return the callback
+     */
+    public IndexUpdateCallback getCallback() {
+        return callback;
+    }
+
+    /**
+     * Returns the data store parameters.
+     *
+     * @return the parameters
+     */
+    public DataStoreParams getParamMap() {
+        return paramMap;
+    }
+
+    /**
+     * Returns the script map for field mapping.
+     *
+     * @return the script map
+     */
+    public Map<String, String> getScriptMap() {
+        return scriptMap;
+    }
+
+    /**
+     * Returns the default values of documents.
+     *
+     * @return the default data map
+     */
+    public Map<String, Object> getDefaultDataMap() {
+        return defaultDataMap;
+    }
+
+    /**
+     * Returns the mapping plan compiled from the script map and the default values.
+     *
+     * @return the mapping plan
+     */
+    public MappingPlan getMappingPlan() {
+        return mappingPlan;
+    }
+
+    /**
+     * Returns the script type.
+     *
+     * @return the script type
+     */
+    public String getScriptType() {
+        return scriptType;
+    }
+
+    /**
+     * Returns the crawler stats helper.
+     *
+     * @return the crawler stats helper
+     */
+    public CrawlerStatsHelper getCrawlerStatsHelper() {
+        return crawlerStatsHelper;
+    }
+
+    /**
+     * Returns the SQL query of the crawl.
+     *
+     * @return the SQL query
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Sets the SQL query of the crawl.
+     *
+     * @param sql the SQL query
+     */
+    public void setSql(final String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * Returns the executor for the workers.
+     *
+     * @return the executor
+     */
+    public CrawlExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor for the workers.
+     *
+     * @param executor the executor
+     */
+    public void setExecutor(final CrawlExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the rate limiter.
+     *
+     * @return the rate limiter
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the rate limiter.
+     *
+     * @param rateLimiter the rate limiter
+     */
+    public void setRateLimiter(final RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Returns the monitor of the index health.
+     *
+     * @return the ingest monitor, or null if reading does not follow the index health
+     */
+    public IngestMonitor getIngestMonitor() {
+        return ingestMonitor;
+    }
+
+    /**
+     * Sets the monitor of the index health.
+     *
+     * @param ingestMonitor the ingest monitor
+     */
+    public void setIngestMonitor(final IngestMonitor ingestMonitor) {
+        this.ingestMonitor = ingestMonitor;
+    }
+
+    /**
+     * Returns the extracted content cache.
+     *
+     * @return the cache, or null if not enabled
+     */
+    public ExtractedContentCache getExtractedContentCache() {
+        return extractedContentCache;
+    }
+
+    /**
+     * Sets the extracted content cache.
+     *
+     * @param extractedContentCache the cache
+     */
+    public void setExtractedContentCache(final ExtractedContentCache extractedContentCache) {
+        this.extractedContentCache = extractedContentCache;
+    }
+
+    /**
+     * Returns the failure recorder.
+     *
+     * @return the failure recorder
+     */
+    public FailureRecorder getFailureRecorder() {
+        return failureRecorder;
+    }
+
+    /**
+     * Sets the failure recorder.
+     *
+     * @param failureRecorder the failure recorder
+     */
+    public void setFailureRecorder(final FailureRecorder failureRecorder) {
+        this.failureRecorder = failureRecorder;
+    }
+
+    /**
+     * Returns the statement of the running query.
+     *
+     * @return the statement, or null if no query is running
+     */
+    public Statement getStatement() {
+        return statement;
+    }
+
+    /**
+     * Sets the statement of the running query.
+     *
+     * @param statement the statement, or null if no query is running
+     */
+    public void setStatement(final Statement statement) {
+        this.statement = statement;
+    }
+
+    /**
+     * Returns the profiler of a dry run.
+     *
+     * @return the profiler, or null if the crawl indexes documents
+     */
+    public CrawlProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Sets the profiler of a dry run.
+     *
+     * @param profiler the profiler
+     */
+    public void setProfiler(final CrawlProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Returns the writer of spool files.
+     *
+     * @return the spool writer, or null if spooling is not enabled
+     */
+    public SpoolWriter getSpoolWriter() {
+        return spoolWriter;
+    }
+
+    /**
+     * Sets the writer of spool files.
+     *
+     * @param spoolWriter the spool writer
+     */
+    public void setSpoolWriter(final SpoolWriter spoolWriter) {
+        this.spoolWriter = spoolWriter;
+    }
+
+    /**
+     * Returns the memory budget shared by crawls in the process.
+     *
+     * @return the memory budget, or null if no budget is set
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory budget shared by crawls in the process.
+     *
+     * @param memoryBudget the memory budget
+     */
+    public void setMemoryBudget(final MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Returns the mapping profiles that produce documents from each row.
+     *
+     * @return the mapping profiles, or null to use only the script map
+     */
+    public List<MappingProfile> getMappingProfiles() {
+        return mappingProfiles;
+    }
+
+    /**
+     * Sets the mapping profiles that produce documents from each row.
+     *
+     * @param mappingProfiles the mapping profiles
+     */
+    public void setMappingProfiles(final List<MappingProfile> mappingProfiles) {
+        this.mappingProfiles = mappingProfiles;
+    }
+
+    /**
+     * Returns the consistent snapshot shared by the connections of the crawl.
+     *
+     * @return the snapshot, or null if not enabled
+     */
+    public DatabaseSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Sets the consistent snapshot shared by the connections of the crawl.
+     *
+     * @param snapshot the snapshot
+     */
+    public void setSnapshot(final DatabaseSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Returns the filter of duplicate rows.
+     *
+     * @return the filter, or null if no document key is specified
+     */
+    public DocumentKeyFilter getDocumentKeyFilter() {
+        return documentKeyFilter;
+    }
+
+    /**
+     * Sets the filter of duplicate rows.
+     *
+     * @param documentKeyFilter the filter
+     */
+    public void setDocumentKeyFilter(final DocumentKeyFilter documentKeyFilter) {
+        this.documentKeyFilter = documentKeyFilter;
+    }
+
+    /**
+     * Returns the row held to merge the following rows of the same document.
+     *
+     * @return the row, or null if no row is held
+     */
+    DatabaseDataStore.DecodedRow getPendingRow() {
+        return pendingRow;
+    }
+
+    /**
+     * Sets the row held to merge the following rows of the same document.
+     *
+     * @param pendingRow the row, or null
+     */
+    void setPendingRow(final DatabaseDataStore.DecodedRow pendingRow) {
+        this.pendingRow = pendingRow;
+    }
+
+    /**
+     * Returns the crawler stats of the rows.
+     *
+     * @return the row stats
+     */
+    public RowStats getRowStats() {
+        return rowStats;
+    }
+
+    /**
+     * Sets the crawler stats of the rows.
+     *
+     * @param rowStats the row stats
+     */
+    public void setRowStats(final RowStats rowStats) {
+        this.rowStats = rowStats;
+    }
+
+    /**
+     * Returns the tracer of rows logged for diagnostics.
+     *
+     * @return the row tracer
+     */
+    public RowTracer getRowTracer() {
+        return rowTracer;
+    }
+
+    /**
+     * Sets the tracer of rows logged for diagnostics.
+     *
+     * @param rowTracer the row tracer
+     */
+    public void setRowTracer(final RowTracer rowTracer) {
+        this.rowTracer = rowTracer;
+    }
+
+    /**
+     * Returns the extractors of fields in JSON and XML columns.
+     *
+     * @return the map of column labels to extractors
+     */
+    public Map<String, ColumnPathExtractor> getColumnExtractors() {
+        return columnExtractors;
+    }
+
+    /**
+     * Sets the extractors of fields in JSON and XML columns.
+     *
+     * @param columnExtractors the map of column labels to extractors
+     */
+    public void setColumnExtractors(final Map<String, ColumnPathExtractor> columnExtractors) {
+        this.columnExtractors = columnExtractors;
+    }
+
+    /**
+     * Returns the memory threshold of LOB values copied by row snapshots.
+     *
+     * @return the memory threshold, or -1 if rows are decoded on the reader thread
+     */
+    public int getLobSpoolThreshold() {
+        return lobSpoolThreshold;
+    }
+
+    /**
+     * Sets the memory threshold of LOB values copied by row snapshots.
+     *
+     * @param lobSpoolThreshold the memory threshold, or -1 to decode rows on the reader thread
+     */
+    public void setLobSpoolThreshold(final int lobSpoolThreshold) {
+        this.lobSpoolThreshold = lobSpoolThreshold;
+    }
+
+    /**
+     * Returns the percentage of rows sampled after they are read.
+     *
+     * @return the percentage, or 0 if every row is crawled
+     */
+    public double getSamplePercent() {
+        return samplePercent;
+    }
+
+    /**
+     * Sets the percentage of rows sampled after they are read.
+     *
+     * @param samplePercent the percentage, or 0 to crawl every row
+     */
+    public void setSamplePercent(final double samplePercent) {
+        this.samplePercent = samplePercent;
+    }
+}
@@ -18,23 +18,50 @@ package org.codelibs.fess.ds.db;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Array;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.NClob;
+import java.sql.PreparedStatement;
 import java.sql.Ref;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
+import java.sql.Struct;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
@@ -93,6 +120,56 @@ public class DatabaseDataStore extends AbstractDataStore {
 
     private static final String COLUMN_LABEL_PREFIX = "column_label.";
 
+    private static final String ARRAY_MAX_ELEMENTS_PARAM = "array_max_elements";
+
+    private static final String ARRAY_MULTIVALUED_PARAM = "array_multivalued";
+
+    private static final int DEFAULT_ARRAY_MAX_ELEMENTS = 10000;
+
+    private static final String COLUMN_BINARY_PREFIX = "column_binary.";
+
+    private static final String COLUMN_CHARSET_PREFIX = "column_charset.";
+
+    private static final int BINARY_CHECK_LENGTH = 8192;
+
+    private static final String SPOOL_MEMORY_THRESHOLD_PARAM = "spool_memory_threshold";
+
+    private static final int DEFAULT_SPOOL_MEMORY_THRESHOLD = 1024 * 1024;
+
+    private static final String QUERY_TIMEOUT_PARAM = "query_timeout";
+
+    private static final String FIRST_ROW_TIMEOUT_PARAM = "first_row_timeout";
+
+    private static final String MAX_CRAWL_TIME_PARAM = "max_crawl_time";
+
+    private static final String DIALECT_PARAM = "dialect";
+
+    private static final String READ_ONLY_PARAM = "read_only";
+
+    private static final String ISOLATION_LEVEL_PARAM = "isolation_level";
+
+    private static final String CONSISTENT_SNAPSHOT_PARAM = "consistent_snapshot";
+
+    private static final String URLS_PARAM = "urls";
+
+    private static final String SHARDS_PARAM = "shards";
+
+    private static final String SHARD_PARAM = "shard";
+
+    private static final String SHARD_PLACEHOLDER = "{shard}";
+
+    private static final String SHARD_CONCURRENCY_PARAM = "shard_concurrency";
+
+    private static final String LOB_SPOOL_PARAM = "lob_spool";
+
+    /** Rate limiters of running crawls, keyed by the data config ID. */
+    protected final Map<String, RateLimiter> rateLimiterMap = new ConcurrentHashMap<>();
+
+    /** Statements of running queries, cancelled when the data store is stopped. */
+    protected final Set<Statement> activeStatements = ConcurrentHashMap.newKeySet();
+
+    private volatile ScheduledExecutorService watchdog;
+
     @Override
     protected String getName() {
         return this.getClass().getSimpleName();
@@ -181,190 +258,1676 @@ public class DatabaseDataStore extends AbstractDataStore {
         return sql;
     }
 
-    @Override
-    protected void storeData(final DataConfig config, final IndexUpdateCallback callback, final DataStoreParams paramMap,
-            final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap) {
+    /**
+     * Creates a rate limiter from the parameter map, as described in {@link RateLimiter#create(DataStoreParams)}.
+     * If no rate is configured, the limiter is disabled and "readInterval" is used instead,
+     * until a rate is set by {@link #setRateLimit(String, double, long)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the rate limiter
+     */
+    protected RateLimiter createRateLimiter(final DataStoreParams paramMap) {
+        return RateLimiter.create(paramMap);
+    }
 
-        final CrawlerStatsHelper crawlerStatsHelper = ComponentUtil.getCrawlerStatsHelper();
-        final long readInterval = getReadInterval(paramMap);
-        final String scriptType = getScriptType(paramMap);
+    /**
+     * Returns the extracted content cache, as described in {@link ExtractedContentCache#create(DataStoreParams)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the cache, or null if not specified
+     */
+    protected ExtractedContentCache getExtractedContentCache(final DataStoreParams paramMap) {
+        return ExtractedContentCache.create(paramMap);
+    }
 
-        Connection con = null;
-        Statement stmt = null;
-        ResultSet rs = null;
-        try {
-            Class.forName(getDriverClass(paramMap));
+    /**
+     * Checks that the content signatures identify the content across rows,
+     * as described in {@link ExtractedContentCache#checkSignatures(DataStoreParams)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @throws DataStoreException if a content signature is specified without a row key
+     */
+    protected void checkContentSignatures(final DataStoreParams paramMap) {
+        ExtractedContentCache.checkSignatures(paramMap);
+    }
 
-            con = getConnection(paramMap);
+    /**
+     * Creates a failure recorder, as described in {@link FailureRecorder#create}.
+     *
+     * @param config the data configuration
+     * @param paramMap the parameter map containing configuration
+     * @return the failure recorder
+     */
+    protected FailureRecorder createFailureRecorder(final DataConfig config, final DataStoreParams paramMap) {
+        return FailureRecorder.create(config, () -> ComponentUtil.getComponent(FailureUrlService.class), paramMap);
+    }
 
-            final String sql = getSql(paramMap);
-            final Integer fetchSize = getFetchSize(paramMap);
-            if (logger.isDebugEnabled()) {
-                logger.debug("sql: {}, fetch_size: {}", sql, fetchSize);
-            }
-            stmt = con.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
-            if (fetchSize != null) {
-                stmt.setFetchSize(fetchSize);
-            }
-            rs = stmt.executeQuery(sql); // SQL generated by an administrator
-            boolean loop = true;
-            int count = 0;
-            while (rs.next() && loop && alive) {
-                count++;
-                final StatsKeyObject statsKey = new StatsKeyObject(config.getId() + "#" + count);
-                paramMap.put(Constants.CRAWLER_STATS_KEY, statsKey);
-                final Map<String, Object> dataMap = new HashMap<>(defaultDataMap);
-                final Map<String, Object> crawlingContext = new HashMap<>();
-                try {
-                    crawlerStatsHelper.begin(statsKey);
-                    crawlingContext.put("doc", dataMap);
-                    final ResultSetParamMap params = new ResultSetParamMap(config, crawlingContext, rs, paramMap);
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("params: {}", params);
-                    }
+    /**
+     * Creates a monitor of the index health, as described in {@link IngestMonitor#create(DataStoreParams)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the ingest monitor, or null if not enabled
+     */
+    protected IngestMonitor createIngestMonitor(final DataStoreParams paramMap) {
+        return IngestMonitor.create(paramMap);
+    }
 
-                    crawlerStatsHelper.record(statsKey, StatsAction.PARSED);
+    /**
+     * Returns the rate limiter of a running crawl.
+     * The budgets of the returned limiter can be changed while the crawl is running.
+     *
+     * @param configId the data config ID
+     * @return the rate limiter, or null if the crawl is not running
+     */
+    public RateLimiter getRateLimiter(final String configId) {
+        return rateLimiterMap.get(configId);
+    }
 
-                    for (final Map.Entry<String, String> entry : scriptMap.entrySet()) {
-                        final Object convertValue = convertValue(scriptType, entry.getValue(), params);
-                        if (logger.isDebugEnabled()) {
-                            logger.debug("{}: {} -> {}", entry.getKey(), entry.getValue(), convertValue);
-                        }
-                        if (convertValue != null) {
-                            dataMap.put(entry.getKey(), convertValue);
-                        }
-                    }
+    /**
+     * Changes the rate limit of a running crawl.
+     *
+     * @param configId the data config ID
+     * @param rowsPerSecond the maximum number of rows per second, or 0 for no limit
+     * @param bytesPerSecond the maximum number of bytes per second, or 0 for no limit
+     * @return true if the crawl is running and the rate limit is changed
+     */
+    public boolean setRateLimit(final String configId, final double rowsPerSecond, final long bytesPerSecond) {
+        final RateLimiter rateLimiter = rateLimiterMap.get(configId);
+        if (rateLimiter == null) {
+            return false;
+        }
+        rateLimiter.setRate(rowsPerSecond, bytesPerSecond);
+        logger.info("Changed rate limit for {}: {}", configId, rateLimiter);
+        return true;
+    }
 
-                    crawlerStatsHelper.record(statsKey, StatsAction.EVALUATED);
+    /**
+     * Returns the memory reserved by a running crawl in the process-wide memory budget.
+     *
+     * @param configId the data config ID
+     * @return the size in bytes
+     */
+    public long getMemoryUsage(final String configId) {
+        return MemoryBudget.getInstance().getUsage(configId);
+    }
 
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("dataMap: {}", dataMap);
+    /**
+     * Returns the process-wide memory budget, as described in {@link MemoryBudget#create(DataStoreParams)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the memory budget, or null if no budget is set
+     */
+    protected MemoryBudget getMemoryBudget(final DataStoreParams paramMap) {
+        return MemoryBudget.create(paramMap);
+    }
+
+    /**
+     * Waits until the rate limiter allows the next row or the crawl is stopped.
+     *
+     * @param session the crawl session
+     * @param rateLimiter the rate limiter
+     * @param bytes the approximate size of the row in bytes
+     */
+    protected void acquireRate(final CrawlSession session, final RateLimiter rateLimiter, final long bytes) {
+        try {
+            rateLimiter.acquire(bytes, () -> session.isRunning() && alive);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataStoreException("Interrupted while waiting for the rate limit.", e);
+        }
+    }
+
+    /**
+     * Waits until the index is ready for the next row.
+     * The fetch size of the result set is scaled with the read rate, so fewer rows are buffered
+     * while the index is under pressure.
+     *
+     * @param session the crawl session
+     * @param ingestMonitor the ingest monitor
+     * @param rs the result set, or null if rows are not read from a result set
+     * @param fetchSize the configured fetch size, or null if not specified
+     */
+    protected void awaitIngest(final CrawlSession session, final IngestMonitor ingestMonitor, final ResultSet rs, final Integer fetchSize) {
+        try {
+            ingestMonitor.await(() -> session.isRunning() && alive);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataStoreException("Interrupted while waiting for the index.", e);
+        }
+        if (fetchSize != null && fetchSize > 1) {
+            final int scaledSize = Math.max((int) (fetchSize * ingestMonitor.getFactor()), 1);
+            try {
+                if (rs.getFetchSize() != scaledSize) {
+                    rs.setFetchSize(scaledSize);
+                }
+            } catch (final SQLException e) {
+                logger.debug("Failed to change the fetch size to {}.", scaledSize, e);
+            }
+        }
+    }
+
+    /**
+     * Stores a document with the index update callback and records the latency and the result for the ingest monitor.
+     *
+     * @param session the crawl session
+     * @param rowParamMap the data store parameters of the row
+     * @param dataMap the document
+     */
+    protected void storeToIndex(final CrawlSession session, final DataStoreParams rowParamMap, final Map<String, Object> dataMap) {
+        final IngestMonitor ingestMonitor = session.getIngestMonitor();
+        if (ingestMonitor == null) {
+            session.getCallback().store(rowParamMap, dataMap);
+            return;
+        }
+        final long startTime = System.nanoTime();
+        try {
+            session.getCallback().store(rowParamMap, dataMap);
+        } catch (final RuntimeException | Error e) {
+            ingestMonitor.recordStore(System.nanoTime() - startTime, e);
+            throw e;
+        }
+        ingestMonitor.recordStore(System.nanoTime() - startTime, null);
+    }
+
+    @Override
+    protected void storeData(final DataConfig config, final IndexUpdateCallback callback, final DataStoreParams paramMap,
+            final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap) {
+
+        final CrawlSession session = new CrawlSession(config, callback, paramMap, scriptMap, defaultDataMap, getScriptType(paramMap),
+                getCrawlerStatsHelper());
+        final RateLimiter rateLimiter = createRateLimiter(paramMap);
+        session.setRateLimiter(rateLimiter);
+        // a crawl without a limit is also registered, so the limit can be set while it is running
+        rateLimiterMap.put(config.getId(), rateLimiter);
+        session.setIngestMonitor(createIngestMonitor(paramMap));
+
+        final Path replayDir = SpoolReader.getReplayDirectory(paramMap);
+        final CrawlExecutor executor = replayDir != null ? createReplayExecutor(paramMap) : createCrawlExecutor(paramMap);
+        session.setExecutor(executor);
+        final FailureRecorder failureRecorder = createFailureRecorder(config, paramMap);
+        session.setFailureRecorder(failureRecorder);
+        session.setMemoryBudget(getMemoryBudget(paramMap));
+        session.setRowStats(createRowStats(config.getId(), paramMap));
+        ScheduledFuture<?> budgetTimer = null;
+        try {
+            // a preview crawl is cancelled at preview_time even if the query returns no row
+            final long maxCrawlTime = CrawlParams.getAsLong(paramMap, MAX_CRAWL_TIME_PARAM, CrawlPreview.create(paramMap).getTime());
+            if (maxCrawlTime > 0) {
+                budgetTimer = getWatchdog().schedule(() -> {
+                    logger.info("The crawl reached max_crawl_time: {}ms", maxCrawlTime);
+                    session.abort();
+                    final Statement stmt = session.getStatement();
+                    if (stmt != null) {
+                        cancel(stmt);
                     }
-                    callback.store(paramMap, dataMap);
-                    crawlerStatsHelper.record(statsKey, StatsAction.FINISHED);
-                } catch (final CrawlingAccessException e) {
-                    logger.warn("Crawling Access Exception at : {}", dataMap, e);
-
-                    Throwable target = e;
-                    if (target instanceof final MultipleCrawlingAccessException ex) {
-                        final Throwable[] causes = ex.getCauses();
-                        if (causes.length > 0) {
-                            target = causes[causes.length - 1];
+                    for (final CrawlSession shard : session.getShards()) {
+                        final Statement shardStmt = shard.getStatement();
+                        if (shardStmt != null) {
+                            cancel(shardStmt);
                         }
                     }
+                }, maxCrawlTime, TimeUnit.MILLISECONDS);
+            }
 
-                    String errorName;
-                    final Throwable cause = target.getCause();
-                    if (cause != null) {
-                        errorName = cause.getClass().getCanonicalName();
-                    } else {
-                        errorName = target.getClass().getCanonicalName();
-                    }
+            session.setColumnExtractors(ColumnPathExtractor.create(paramMap.asMap()));
+            if (replayDir != null) {
+                replay(session, replayDir);
+            } else {
+                Class.forName(getDriverClass(paramMap));
+                checkContentSignatures(paramMap);
+                session.setExtractedContentCache(getExtractedContentCache(paramMap));
+                session.setSql(getSql(paramMap));
+                configurePreview(session);
+                session.setProfiler(createProfiler(paramMap));
+                session.setSpoolWriter(createSpoolWriter(config, paramMap));
+                session.setMappingProfiles(createMappingProfiles(paramMap, scriptMap, defaultDataMap));
+                session.setDocumentKeyFilter(createDocumentKeyFilter(paramMap));
+                session.setRowTracer(createRowTracer(paramMap));
+                session.setLobSpoolThreshold(getLobSpoolThreshold(session));
 
-                    String url;
-                    if (target instanceof final DataStoreCrawlingException dce) {
-                        url = dce.getUrl();
-                        if (dce.aborted()) {
-                            loop = false;
-                        }
-                    } else {
-                        url = sql + ":" + rs.getRow();
-                    }
-                    final FailureUrlService failureUrlService = ComponentUtil.getComponent(FailureUrlService.class);
-                    failureUrlService.store(config, errorName, url, target);
-                    crawlerStatsHelper.record(statsKey, StatsAction.ACCESS_EXCEPTION);
-                } catch (final Throwable t) {
-                    logger.warn("Crawling Access Exception at : {}", dataMap, t);
-                    final String url = sql + ":" + rs.getRow();
-                    final FailureUrlService failureUrlService = ComponentUtil.getComponent(FailureUrlService.class);
-                    failureUrlService.store(config, t.getClass().getCanonicalName(), url, t);
-                    crawlerStatsHelper.record(statsKey, StatsAction.EXCEPTION);
-                } finally {
-                    crawlerStatsHelper.done(statsKey);
+                final Map<String, String> shardUrlMap = getShardUrls(paramMap);
+                if (shardUrlMap.isEmpty()) {
+                    openSnapshot(session);
+                    crawl(session);
+                    flushPendingRow(session);
+                } else {
+                    crawlShards(session, shardUrlMap);
                 }
+            }
 
-                if (readInterval > 0) {
-                    sleep(readInterval);
+            executor.await();
+            if (session.getProfiler() != null) {
+                writeProfile(paramMap, session.getProfiler());
+            }
+            if (session.getExtractedContentCache() != null) {
+                logger.info("Extracted content cache: {}", session.getExtractedContentCache());
+            }
+            if (session.getIngestMonitor() != null) {
+                logger.info("Ingest monitor: {}", session.getIngestMonitor());
+            }
+            if (session.getDocumentKeyFilter() != null) {
+                logger.info("Document keys: {}", session.getDocumentKeyFilter());
+            }
+            logger.info("Row stats: {}", session.getRowStats());
+            for (final CrawlSession shard : session.getShards()) {
+                logger.info("Row stats of shard {}: {}", shard.getShardId(), shard.getRowStats());
+            }
+            if (session.getMemoryBudget() != null && logger.isDebugEnabled()) {
+                logger.debug("Memory budget: {}", session.getMemoryBudget());
+            }
+            if (failureRecorder.isTripped()) {
+                throw new DataStoreException("Aborted the crawl because the failure rate exceeded the limit: "
+                        + failureRecorder.getWindowFailureRate() + "% " + failureRecorder.getFailureCounts());
+            }
+            for (final CrawlSession shard : session.getShards()) {
+                if (shard.getFailureRecorder().isTripped()) {
+                    throw new DataStoreException("Aborted shard " + shard.getShardId() + " because the failure rate exceeded the limit: "
+                            + shard.getFailureRecorder().getWindowFailureRate() + "% " + shard.getFailureRecorder().getFailureCounts());
                 }
             }
+            completeSpoolWriter(session);
         } catch (final Exception e) {
             throw new DataStoreException("Failed to crawl data in DB.", e);
         } finally {
+            if (budgetTimer != null) {
+                budgetTimer.cancel(false);
+            }
+            executor.close();
+            closeSnapshot(session);
+            long droppedFailures = 0;
+            for (final CrawlSession shard : session.getShards()) {
+                closeSnapshot(shard);
+                shard.getFailureRecorder().flush();
+                droppedFailures += shard.getFailureRecorder().getDroppedCount();
+            }
+            closeSpoolWriter(session);
+            failureRecorder.flush();
+            droppedFailures += failureRecorder.getDroppedCount();
+            if (droppedFailures > 0) {
+                logger.info("{} failure URLs are not stored beyond the samples of their signatures.", droppedFailures);
+            }
+            rateLimiterMap.remove(config.getId(), rateLimiter);
+        }
+    }
+
+    /**
+     * Runs the query and reads all rows.
+     * If "retry_count" is set and the query fails with a transient error, the connection is reopened and the query
+     * is resumed after the last processed row, waiting longer before each retry. "retry_count" limits the number
+     * of consecutive retries, "retry_interval" is the first wait and "retry_max_interval" is the longest wait
+     * in milliseconds. With "resume_key", the query is ordered by the key column and resumed from the last value
+     * of the key column by "resume_sql", whose only parameter is bound to that value. Otherwise, the query is run
+     * again and the processed rows are skipped, which requires a deterministic row order, such as an ORDER BY
+     * on a unique column.
+     * If no row is returned within "first_row_timeout" milliseconds, the query is cancelled and the crawl fails.
+     * When the crawl is stopped or its time budget runs out, the query is cancelled and the crawl ends.
+     *
+     * @param session the crawl session
+     * @throws SQLException if a database access error occurs and it is not retried
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    protected void crawl(final CrawlSession session) throws SQLException, InterruptedException {
+        final DataStoreParams paramMap = session.getParamMap();
+        final CrawlExecutor executor = session.getExecutor();
+        final RateLimiter rateLimiter = session.getRateLimiter();
+        final IngestMonitor ingestMonitor = session.getIngestMonitor();
+        final Integer fetchSize = getFetchSize(paramMap);
+        final long readInterval = getReadInterval(paramMap);
+        final RetryPolicy retryPolicy = createRetryPolicy(paramMap);
+        final String resumeKey = retryPolicy.getResumeKey();
+        final long firstRowTimeout = CrawlParams.getAsLong(paramMap, FIRST_ROW_TIMEOUT_PARAM, 0L);
+        final String sql = resumeKey != null ? getOrderedSql(session.getSql(), resumeKey) : session.getSql();
+        int retryCount = 0;
+        int count = 0;
+        // rows read from the result set, including the rows skipped by client-side sampling
+        long readCount = 0;
+        Object lastKey = null;
+        while (true) {
+            Connection con = null;
+            Statement stmt = null;
+            ResultSet rs = null;
+            ScheduledFuture<?> firstRowTimer = null;
+            final AtomicBoolean firstRowTimedOut = new AtomicBoolean(false);
+            long retryInterval = 0;
+            executor.acquire(CrawlExecutor.CONNECTION);
             try {
-                if (rs != null) {
-                    rs.close();
+                con = getConnection(paramMap);
+                configureTransaction(session, con);
+
+                final String querySql;
+                if (count > 0 && resumeKey != null) {
+                    querySql = retryPolicy.getResumeSql(session.getSql(), resumeKey);
+                    logger.info("Resuming the query after {}={}: {}", resumeKey, lastKey, querySql);
+                    final PreparedStatement pstmt = con.prepareStatement(querySql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    pstmt.setObject(1, lastKey);
+                    stmt = pstmt;
+                } else {
+                    querySql = sql;
+                    stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                }
+                configureStatement(paramMap, stmt);
+                session.setStatement(stmt);
+                activeStatements.add(stmt);
+                if (!alive || !session.isRunning()) {
+                    return;
+                }
+                if (firstRowTimeout > 0) {
+                    final Statement target = stmt;
+                    firstRowTimer = getWatchdog().schedule(() -> {
+                        firstRowTimedOut.set(true);
+                        cancel(target);
+                    }, firstRowTimeout, TimeUnit.MILLISECONDS);
+                }
+
+                if (stmt instanceof final PreparedStatement pstmt) {
+                    rs = pstmt.executeQuery(); // SQL generated by an administrator
+                } else {
+                    rs = stmt.executeQuery(querySql); // SQL generated by an administrator
                 }
+                if (readCount > 0 && resumeKey == null) {
+                    logger.info("Resuming the query by skipping {} rows.", readCount);
+                    for (long i = 0; i < readCount && rs.next(); i++) {
+                        // skip processed rows
+                    }
+                }
+
+                final double samplePercent = session.getSamplePercent();
+                long fetchTime = System.nanoTime();
+                while (rs.next() && session.isRunning() && alive) {
+                    if (firstRowTimer != null) {
+                        firstRowTimer.cancel(false);
+                        firstRowTimer = null;
+                    }
+                    rateLimiter.recordLatency(System.nanoTime() - fetchTime);
+                    readCount++;
+                    if (samplePercent > 0 && ThreadLocalRandom.current().nextDouble() * 100 >= samplePercent) {
+                        fetchTime = System.nanoTime();
+                        continue;
+                    }
+                    count++;
+                    final long rowSize = readRow(session, rs, count);
+                    if (resumeKey != null) {
+                        lastKey = rs.getObject(resumeKey);
+                    }
+                    retryCount = 0;
+
+                    if (rateLimiter.isEnabled()) {
+                        acquireRate(session, rateLimiter, rowSize);
+                    } else if (readInterval > 0) {
+                        sleep(readInterval);
+                    }
+                    if (ingestMonitor != null) {
+                        awaitIngest(session, ingestMonitor, rs, fetchSize);
+                    }
+                    fetchTime = System.nanoTime();
+                }
+                return;
             } catch (final SQLException e) {
-                logger.warn("Failed to close a result set.", e);
+                if (firstRowTimedOut.get()) {
+                    throw new SQLTimeoutException("No row was returned within " + firstRowTimeout + "ms.", e);
+                }
+                if (!alive || !session.isRunning()) {
+                    logger.info("The query is cancelled after {} rows.", count);
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("The query is cancelled.", e);
+                    }
+                    return;
+                }
+                if (retryCount >= retryPolicy.getMaxRetries() || !retryPolicy.isTransient(e)) {
+                    throw e;
+                }
+                retryCount++;
+                retryInterval = retryPolicy.getInterval(retryCount);
+                logger.warn("Transient database error after {} rows. Retrying in {}ms ({}/{}).", count, retryInterval, retryCount,
+                        retryPolicy.getMaxRetries(), e);
             } finally {
+                if (firstRowTimer != null) {
+                    firstRowTimer.cancel(false);
+                }
+                if (stmt != null) {
+                    activeStatements.remove(stmt);
+                    session.setStatement(null);
+                }
+                executor.release(CrawlExecutor.CONNECTION);
+                close(rs, stmt, con);
+            }
+            sleep(retryInterval);
+        }
+    }
+
+    /**
+     * Returns the JDBC URLs of the shards of a crawl.
+     * "urls" lists the URLs one per line, and the shards are numbered from 0. Otherwise, "url" is a template
+     * that contains "{shard}" and "shards" lists the shard IDs, such as "0-15" or "east,west".
+     * A range keeps the zero padding of its first ID, so "00-15" yields "00" to "15".
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the map of shard IDs to JDBC URLs, or an empty map if the crawl has no shards
+     */
+    protected Map<String, String> getShardUrls(final DataStoreParams paramMap) {
+        final Map<String, String> shardUrlMap = new LinkedHashMap<>();
+        final String urls = paramMap.getAsString(URLS_PARAM);
+        if (StringUtil.isNotBlank(urls)) {
+            for (final String url : urls.split("\\r?\\n")) {
+                if (StringUtil.isNotBlank(url)) {
+                    shardUrlMap.put(String.valueOf(shardUrlMap.size()), url.trim());
+                }
+            }
+            return shardUrlMap;
+        }
+        final String template = getUrl(paramMap);
+        if (template == null || !template.contains(SHARD_PLACEHOLDER)) {
+            return shardUrlMap;
+        }
+        for (final String value : CrawlParams.split(paramMap.getAsString(SHARDS_PARAM))) {
+            final int index = value.indexOf('-', 1);
+            if (index > 0) {
                 try {
-                    if (stmt != null) {
-                        stmt.close();
-                    }
-                } catch (final SQLException e) {
-                    logger.warn("Failed to close a statement.", e);
-                } finally {
-                    try {
-                        if (con != null) {
-                            con.close();
-                        }
-                    } catch (final SQLException e) {
-                        logger.warn("Failed to close a db connection.", e);
+                    final String start = value.substring(0, index).trim();
+                    final int end = Integer.parseInt(value.substring(index + 1).trim());
+                    final String format = start.length() > 1 && start.startsWith("0") ? "%0" + start.length() + "d" : "%d";
+                    for (int i = Integer.parseInt(start); i <= end; i++) {
+                        final String shardId = String.format(format, i);
+                        shardUrlMap.put(shardId, template.replace(SHARD_PLACEHOLDER, shardId));
                     }
+                    continue;
+                } catch (final NumberFormatException e) {
+                    logger.debug("{} is not a range of shards.", value, e);
                 }
             }
+            shardUrlMap.put(value, template.replace(SHARD_PLACEHOLDER, value));
+        }
+        if (shardUrlMap.isEmpty()) {
+            throw new DataStoreException(URL_PARAM + " contains " + SHARD_PLACEHOLDER + ", but " + SHARDS_PARAM + " is empty.");
+        }
+        return shardUrlMap;
+    }
+
+    /**
+     * Runs the query against each shard at the same time.
+     * Each shard is read on its own thread with its own connection, failure recorder, row stats and resume position,
+     * and the workers, the rate limit and "max_concurrent_connections" are shared by all shards.
+     * "shard_concurrency" limits the number of shards read at the same time. A shard that fails does not stop
+     * the others, and the crawl fails after all shards are finished.
+     * The shard ID is available to scripts as "shard".
+     *
+     * @param session the crawl session
+     * @param shardUrlMap the map of shard IDs to JDBC URLs
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    protected void crawlShards(final CrawlSession session, final Map<String, String> shardUrlMap) throws InterruptedException {
+        final DataStoreParams paramMap = session.getParamMap();
+        final String configId = session.getConfig().getId();
+        final List<CrawlSession> shards = new ArrayList<>();
+        for (final Map.Entry<String, String> entry : shardUrlMap.entrySet()) {
+            final DataStoreParams shardParamMap = paramMap.newInstance();
+            shardParamMap.put(URL_PARAM, entry.getValue());
+            shardParamMap.put(SHARD_PARAM, entry.getKey());
+            final CrawlSession shard = session.newShard(entry.getKey(), shardParamMap);
+            shard.setFailureRecorder(createFailureRecorder(session.getConfig(), shardParamMap));
+            shard.setRowStats(createRowStats(configId + "/" + entry.getKey(), shardParamMap));
+            shards.add(shard);
+        }
+        int concurrency = (int) Math.min(CrawlParams.getAsLong(paramMap, SHARD_CONCURRENCY_PARAM, shards.size()), shards.size());
+        final int maxConnections = session.getExecutor().getLimit(CrawlExecutor.CONNECTION);
+        if (maxConnections > 0 && Boolean.parseBoolean(paramMap.getAsString(CONSISTENT_SNAPSHOT_PARAM))) {
+            // a shard uses a snapshot connection and a reader connection
+            concurrency = Math.min(concurrency, Math.max(maxConnections / 2, 1));
+        }
+        logger.info("Crawling {} shards with {} at a time.", shards.size(), concurrency);
 
+        final Semaphore semaphore = new Semaphore(Math.max(concurrency, 1));
+        final Map<String, Exception> errorMap = new ConcurrentHashMap<>();
+        try (ExecutorService shardExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("dbcrawl-shard-", 0).factory())) {
+            for (final CrawlSession shard : shards) {
+                semaphore.acquire();
+                if (!session.isRunning() || !alive) {
+                    semaphore.release();
+                    break;
+                }
+                shardExecutor.execute(() -> {
+                    try {
+                        openSnapshot(shard);
+                        crawl(shard);
+                        flushPendingRow(shard);
+                    } catch (final Exception e) {
+                        logger.warn("Failed to crawl shard {}.", shard.getShardId(), e);
+                        errorMap.put(shard.getShardId(), e);
+                    } finally {
+                        closeSnapshot(shard);
+                        semaphore.release();
+                    }
+                });
+            }
+        }
+        if (!errorMap.isEmpty()) {
+            final DataStoreException e = new DataStoreException("Failed to crawl shards: " + new TreeSet<>(errorMap.keySet()));
+            errorMap.values().forEach(e::addSuppressed);
+            throw e;
         }
     }
 
     /**
-     * Creates a database connection using the parameters specified in the parameter map.
-     * Supports connection properties with "info." prefix for additional JDBC connection properties.
+     * Starts the consistent snapshot of a crawl session.
+     * The connection that holds the snapshot takes a permit of "max_concurrent_connections" until the snapshot
+     * is closed, so the limit must leave a permit for the reader connection.
      *
-     * @param paramMap the parameter map containing database connection configuration
-     * @return a database connection
+     * @param session the crawl session
      * @throws SQLException if a database access error occurs
+     * @throws InterruptedException if the current thread is interrupted while waiting for a permit
      */
-    protected Connection getConnection(final DataStoreParams paramMap) throws SQLException {
-        final String jdbcUrl = getUrl(paramMap);
-
-        final String username = getUsername(paramMap);
-        if (logger.isDebugEnabled()) {
-            logger.debug("jdbc: {} : {}", jdbcUrl, username);
+    protected void openSnapshot(final CrawlSession session) throws SQLException, InterruptedException {
+        final DataStoreParams paramMap = session.getParamMap();
+        if (!Boolean.parseBoolean(paramMap.getAsString(CONSISTENT_SNAPSHOT_PARAM))) {
+            return;
+        }
+        final CrawlExecutor executor = session.getExecutor();
+        if (executor.getLimit(CrawlExecutor.CONNECTION) == 1) {
+            throw new DataStoreException("max_concurrent_connections must be 2 or more with consistent_snapshot.");
+        }
+        executor.acquire(CrawlExecutor.CONNECTION);
+        DatabaseSnapshot snapshot = null;
+        try {
+            snapshot = createSnapshot(paramMap);
+        } finally {
+            // the connection is closed if the snapshot cannot be shared
+            if (snapshot == null || snapshot.getSnapshotId() == null) {
+                executor.release(CrawlExecutor.CONNECTION);
+            }
         }
+        session.setSnapshot(snapshot);
+    }
 
-        final Properties info = new Properties();
-        if (username != null) {
-            info.put("user", username);
+    /**
+     * Closes the consistent snapshot of a crawl session and releases the permit of its connection.
+     *
+     * @param session the crawl session
+     */
+    protected void closeSnapshot(final CrawlSession session) {
+        final DatabaseSnapshot snapshot = session.getSnapshot();
+        if (snapshot == null) {
+            return;
         }
+        session.setSnapshot(null);
+        snapshot.close();
+        if (snapshot.getSnapshotId() != null) {
+            session.getExecutor().release(CrawlExecutor.CONNECTION);
+        }
+    }
 
-        final String password = getPassword(paramMap);
-        if (password != null) {
-            info.put("password", password);
+    /**
+     * Starts a consistent snapshot shared by the connections of a crawl if "consistent_snapshot" is true.
+     * PostgreSQL exports a snapshot and Oracle uses a flashback query at the current SCN, which requires
+     * the EXECUTE privilege on DBMS_FLASHBACK. MySQL, MariaDB and SQL Server cannot share a snapshot,
+     * so each connection reads its own snapshot.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the snapshot, or null if not enabled
+     * @throws SQLException if a database access error occurs
+     */
+    protected DatabaseSnapshot createSnapshot(final DataStoreParams paramMap) throws SQLException {
+        if (!Boolean.parseBoolean(paramMap.getAsString(CONSISTENT_SNAPSHOT_PARAM))) {
+            return null;
         }
+        final DatabaseSnapshot snapshot = DatabaseSnapshot.export(getDialect(paramMap), getConnection(paramMap));
+        if (snapshot.getSnapshotId() == null) {
+            logger.info("{} cannot share a snapshot between connections. Each connection reads its own snapshot.",
+                    getDialect(paramMap).getName());
+        }
+        return snapshot;
+    }
 
-        for (final String key : paramMap.asMap().keySet()) {
-            if (key.startsWith(INFO_PREFIX)) {
-                final String k = key.substring(INFO_PREFIX.length());
-                final Object v = paramMap.get(key);
-                if (logger.isDebugEnabled()) {
-                    logger.debug("jdbc: info: {}={}", k, v);
-                }
-                info.put(k, v);
+    /**
+     * Applies the transaction settings to a connection for a query.
+     * "read_only" and "isolation_level", such as "read_committed", "repeatable_read" or "snapshot",
+     * override the defaults of the driver and the dialect, and the snapshot of the session is applied last.
+     *
+     * @param session the crawl session
+     * @param con the connection
+     * @throws SQLException if a database access error occurs
+     */
+    protected void configureTransaction(final CrawlSession session, final Connection con) throws SQLException {
+        final DataStoreParams paramMap = session.getParamMap();
+        final String readOnly = paramMap.getAsString(READ_ONLY_PARAM);
+        if (StringUtil.isNotBlank(readOnly)) {
+            con.setReadOnly(Boolean.parseBoolean(readOnly.trim()));
+        }
+        final String isolationLevel = paramMap.getAsString(ISOLATION_LEVEL_PARAM);
+        if (StringUtil.isNotBlank(isolationLevel)) {
+            final int level = DatabaseDialect.parseIsolationLevel(isolationLevel);
+            if (level >= 0) {
+                con.setTransactionIsolation(level);
+            } else {
+                logger.warn("Invalid isolation_level: {}", isolationLevel);
             }
         }
+        final DatabaseSnapshot snapshot = session.getSnapshot();
+        if (snapshot != null && !snapshot.apply(con)) {
+            logger.warn("Consistent snapshots are not supported by {}.", getDialect(paramMap).getName());
+        }
+    }
 
-        return DriverManager.getConnection(jdbcUrl, info);
+    /**
+     * Applies the fetch size, the query timeout and the row limit of a preview crawl to a statement.
+     * Without "fetch_size", the fetch size that makes the driver of the dialect stream rows is used
+     * if "dialect" is set.
+     * "query_timeout" is in milliseconds and rounded up to seconds for the JDBC driver.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param stmt the statement
+     * @throws SQLException if a database access error occurs
+     */
+    protected void configureStatement(final DataStoreParams paramMap, final Statement stmt) throws SQLException {
+        Integer fetchSize = getFetchSize(paramMap);
+        if (fetchSize == null) {
+            final int defaultFetchSize = getStreamingDialect(paramMap).getDefaultFetchSize();
+            if (defaultFetchSize != 0) {
+                fetchSize = defaultFetchSize;
+            }
+        }
+        if (fetchSize != null) {
+            stmt.setFetchSize(fetchSize);
+        }
+        final long queryTimeout = CrawlParams.getAsLong(paramMap, QUERY_TIMEOUT_PARAM, 0L);
+        if (queryTimeout > 0) {
+            stmt.setQueryTimeout((int) Math.min((queryTimeout + 999) / 1000, Integer.MAX_VALUE));
+        }
+        final long previewRows = CrawlPreview.create(paramMap).getRows();
+        if (previewRows > 0) {
+            stmt.setMaxRows((int) Math.min(previewRows, Integer.MAX_VALUE));
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("fetch_size: {}, query_timeout: {}", fetchSize, queryTimeout);
+        }
     }
 
     /**
-     * A Map implementation that wraps ResultSet data for script processing.
-     * This class provides access to database column values and metadata, making them available
-     * for script evaluation during the data extraction process.
+     * Stops running crawls and cancels their queries, so database sessions are released immediately.
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        for (final Statement stmt : activeStatements) {
+            cancel(stmt);
+        }
+    }
+
+    /**
+     * Cancels a running statement.
+     *
+     * @param stmt the statement
+     */
+    protected void cancel(final Statement stmt) {
+        try {
+            stmt.cancel();
+        } catch (final SQLException | RuntimeException e) {
+            logger.debug("Failed to cancel a statement.", e);
+        }
+    }
+
+    /**
+     * Returns the scheduler for query timers.
+     *
+     * @return the scheduler
+     */
+    protected ScheduledExecutorService getWatchdog() {
+        ScheduledExecutorService service = watchdog;
+        if (service == null) {
+            synchronized (this) {
+                service = watchdog;
+                if (service == null) {
+                    final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                            Thread.ofPlatform().name("DatabaseDataStore-watchdog").daemon(true).factory());
+                    executor.setRemoveOnCancelPolicy(true);
+                    service = executor;
+                    watchdog = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * Returns the SQL query ordered by the key column, so that the last processed key is the largest key
+     * read so far and the query can be resumed after it.
+     *
+     * @param sql the SQL query
+     * @param resumeKey the key column
+     * @return the ordered SQL query
+     */
+    protected String getOrderedSql(final String sql, final String resumeKey) {
+        return "SELECT * FROM (" + sql + ") fess_resume ORDER BY " + resumeKey;
+    }
+
+    /**
+     * Creates the policy of retries and resumes of a failed query, as described in {@link RetryPolicy#create(DataStoreParams)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the retry policy
+     */
+    protected RetryPolicy createRetryPolicy(final DataStoreParams paramMap) {
+        return RetryPolicy.create(paramMap);
+    }
+
+    /**
+     * Closes a result set, a statement and a connection, logging failures.
+     *
+     * @param rs the result set, or null
+     * @param stmt the statement, or null
+     * @param con the connection, or null
+     */
+    protected void close(final ResultSet rs, final Statement stmt, final Connection con) {
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+        } catch (final SQLException e) {
+            logger.warn("Failed to close a result set.", e);
+        } finally {
+            try {
+                if (stmt != null) {
+                    stmt.close();
+                }
+            } catch (final SQLException e) {
+                logger.warn("Failed to close a statement.", e);
+            } finally {
+                try {
+                    if (con != null) {
+                        con.close();
+                    }
+                } catch (final SQLException e) {
+                    logger.warn("Failed to close a db connection.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the current row of the result set and hands it to a worker.
+     * Column values are decoded on the calling thread because the result set is bound to it,
+     * and field mapping and index updates run on the executor of the session.
+     * With a document key filter, rows whose key is already seen are skipped before decoding,
+     * or merged into the previous row if it has the same key.
+     *
+     * @param session the crawl session
+     * @param rs the result set positioned on the row
+     * @param count the row number in this crawl
+     * @return the approximate size of the row
+     * @throws SQLException if a database access error occurs
+     * @throws InterruptedException if the current thread is interrupted while waiting for a worker
+     */
+    protected long readRow(final CrawlSession session, final ResultSet rs, final int count) throws SQLException, InterruptedException {
+        final DocumentKeyFilter keyFilter = session.getDocumentKeyFilter();
+        if (keyFilter == null) {
+            final DecodedRow row = decodeRow(session, rs, count);
+            if (row == null) {
+                return 0;
+            }
+            submitRow(session, row);
+            return row.getDataSize();
+        }
+
+        final DocumentKeyFilter.Key key = keyFilter.computeKey(rs);
+        final DecodedRow pendingRow = session.getPendingRow();
+        if (pendingRow != null && key.equals(pendingRow.key)) {
+            final DecodedRow row = decodeRow(session, rs, count);
+            if (row == null) {
+                return 0;
+            }
+            pendingRow.params.mergeRow(row.params);
+            keyFilter.recordMerged();
+            session.getRowStats().recordMerged(row.statsKey);
+            session.getRowStats().done(row.statsKey, row.startTime, row.url);
+            return row.params.getDataSize();
+        }
+        if (!keyFilter.add(key)) {
+            keyFilter.recordDuplicate();
+            session.getRowStats().recordDuplicate();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Skipped a duplicate row: {}", count);
+            }
+            return 0;
+        }
+
+        final DecodedRow row = decodeRow(session, rs, count);
+        if (row == null) {
+            return 0;
+        }
+        row.key = key;
+        if (keyFilter.getPolicy() == DocumentKeyFilter.Policy.MERGE) {
+            // the row is stored when a row with another key is read
+            session.setPendingRow(row);
+            if (pendingRow != null) {
+                submitRow(session, pendingRow);
+            }
+        } else {
+            submitRow(session, row);
+        }
+        return row.getDataSize();
+    }
+
+    /**
+     * Decodes the current row of the result set.
+     *
+     * @param session the crawl session
+     * @param rs the result set positioned on the row
+     * @param count the row number in this crawl
+     * @return the decoded row, or null if the row cannot be decoded
+     */
+    protected DecodedRow decodeRow(final CrawlSession session, final ResultSet rs, final int count) {
+        final RowStats rowStats = session.getRowStats();
+        final long startTime = System.nanoTime();
+        final StatsKeyObject statsKey = rowStats.begin(count);
+        final DataStoreParams rowParamMap = getRowParamMap(session, statsKey);
+        final Map<String, Object> dataMap = session.getMappingPlan().newDocument();
+        final Map<String, Object> crawlingContext = new HashMap<>();
+        final String url = session.getRowUrl(count);
+        ResultSetParamMap params = null;
+        try {
+            if (session.getLobSpoolThreshold() >= 0) {
+                // LOB values are copied while the cursor is on the row, and the row is decoded by a worker
+                final DecodedRow row = new DecodedRow(rowParamMap, null, dataMap, statsKey, url, startTime);
+                row.traced = session.getRowTracer().isTraced(count, rs);
+                row.snapshot = RowSnapshot.capture(rs, session.getLobSpoolThreshold());
+                if (session.getProfiler() != null && session.getProfiler().recordRow()) {
+                    session.abort();
+                }
+                return row;
+            }
+            crawlingContext.put("doc", dataMap);
+            params = new ResultSetParamMap(session.getConfig(), crawlingContext, rs, rowParamMap, session);
+            if (session.getRowTracer().isTraced(count, rs)) {
+                params.setTraced(true);
+                session.getRowTracer().trace(url, "params", params.getColumnValues());
+            }
+
+            rowStats.record(statsKey, StatsAction.PARSED);
+            if (session.getProfiler() != null && session.getProfiler().recordRow()) {
+                session.abort();
+            }
+            return new DecodedRow(rowParamMap, params, dataMap, statsKey, url, startTime);
+        } catch (final Throwable t) {
+            if (params != null) {
+                params.releaseReserved();
+            }
+            try {
+                handleFailure(session, statsKey, dataMap, url, t);
+            } finally {
+                rowStats.done(statsKey, startTime, url);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a row from its snapshot on the worker thread, and deletes the spooled LOB values.
+     *
+     * @param session the crawl session
+     * @param row the row read with a snapshot
+     * @return true if the row is decoded, or false if the failure is recorded
+     */
+    protected boolean decodeSnapshot(final CrawlSession session, final DecodedRow row) {
+        try (RowSnapshot snapshot = row.snapshot) {
+            final Map<String, Object> crawlingContext = new HashMap<>();
+            crawlingContext.put("doc", row.dataMap);
+            final ResultSetParamMap params =
+                    new ResultSetParamMap(session.getConfig(), crawlingContext, snapshot.getResultSet(), row.rowParamMap, session);
+            if (row.traced) {
+                params.setTraced(true);
+                session.getRowTracer().trace(row.url, "params", params.getColumnValues());
+            }
+            row.params = params;
+            session.getRowStats().record(row.statsKey, StatsAction.PARSED);
+            return true;
+        } catch (final Throwable t) {
+            handleFailure(session, row.statsKey, row.dataMap, row.url, t);
+            return false;
+        } finally {
+            row.snapshot = null;
+        }
+    }
+
+    /**
+     * Returns the memory threshold of LOB values copied by row snapshots.
+     * With "lob_spool=true", BLOB and CLOB values are read while the cursor is on the row, and larger binary values
+     * than "spool_memory_threshold" are spooled to temporary files, so rows are decoded and their text is extracted
+     * by the workers in parallel, and drivers whose LOB locators are invalidated by moving the cursor are supported.
+     * Snapshots are used only with a parallel executor and without the merge policy of document keys.
+     * LOB prefetching of a driver is set by "info.*" connection properties.
+     *
+     * @param session the crawl session
+     * @return the memory threshold, or -1 if rows are decoded on the reader thread
+     */
+    protected int getLobSpoolThreshold(final CrawlSession session) {
+        final DataStoreParams paramMap = session.getParamMap();
+        if (!Boolean.parseBoolean(paramMap.getAsString(LOB_SPOOL_PARAM))) {
+            return -1;
+        }
+        final DocumentKeyFilter keyFilter = session.getDocumentKeyFilter();
+        if (!session.getExecutor().isParallel() || keyFilter != null && keyFilter.getPolicy() == DocumentKeyFilter.Policy.MERGE) {
+            logger.info("{} is ignored because rows are decoded on the reader thread.", LOB_SPOOL_PARAM);
+            return -1;
+        }
+        return CrawlParams.getAsInt(paramMap, SPOOL_MEMORY_THRESHOLD_PARAM, DEFAULT_SPOOL_MEMORY_THRESHOLD);
+    }
+
+    /**
+     * Returns the data store parameters passed to the callback for a row.
+     * The parameter map of the session is shared by rows, so the stats key is set to it only if
+     * rows are stored one by one on the reader thread. Otherwise a sampled row gets its own copy,
+     * and unsampled rows share the parameter map without a stats key.
+     *
+     * @param session the crawl session
+     * @param statsKey the stats key of the row, or null if the row is not sampled
+     * @return the parameter map for the row
+     */
+    protected DataStoreParams getRowParamMap(final CrawlSession session, final StatsKeyObject statsKey) {
+        final DocumentKeyFilter keyFilter = session.getDocumentKeyFilter();
+        final boolean deferred =
+                session.getExecutor().isParallel() || keyFilter != null && keyFilter.getPolicy() == DocumentKeyFilter.Policy.MERGE;
+        if (!deferred) {
+            session.getParamMap().put(Constants.CRAWLER_STATS_KEY, statsKey);
+            return session.getParamMap();
+        }
+        if (statsKey == null) {
+            return session.getParamMap();
+        }
+        final DataStoreParams rowParamMap = session.getParamMap().newInstance();
+        rowParamMap.put(Constants.CRAWLER_STATS_KEY, statsKey);
+        return rowParamMap;
+    }
+
+    /**
+     * Returns the crawler stats helper that records the rows of crawls.
+     *
+     * @return the crawler stats helper
+     */
+    protected CrawlerStatsHelper getCrawlerStatsHelper() {
+        return ComponentUtil.getCrawlerStatsHelper();
+    }
+
+    /**
+     * Creates the crawler stats of rows, as described in {@link RowStats#create(CrawlerStatsHelper, String, DataStoreParams)}.
+     *
+     * @param statsId the prefix of stats keys, such as the data config ID
+     * @param paramMap the parameter map containing configuration
+     * @return the row stats
+     */
+    protected RowStats createRowStats(final String statsId, final DataStoreParams paramMap) {
+        return RowStats.create(getCrawlerStatsHelper(), statsId, paramMap);
+    }
+
+    /**
+     * Creates the tracer of rows logged for diagnostics, as described in {@link RowTracer#create(DataStoreParams, boolean)}.
+     * If no row is selected and debug logging is enabled, every row is traced.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the row tracer
+     */
+    protected RowTracer createRowTracer(final DataStoreParams paramMap) {
+        final RowTracer rowTracer = RowTracer.create(paramMap, logger.isDebugEnabled());
+        if (rowTracer.isEnabled()) {
+            logger.info("Row tracer: {}", rowTracer);
+        }
+        return rowTracer;
+    }
+
+    /**
+     * Hands a decoded row to a worker, reserving its size in the memory budget until it is stored.
+     * The memory reserved for large columns before they are read is part of the reservation of the row.
+     *
+     * @param session the crawl session
+     * @param row the decoded row
+     * @throws InterruptedException if the current thread is interrupted while waiting for a worker
+     */
+    protected void submitRow(final CrawlSession session, final DecodedRow row) throws InterruptedException {
+        final CrawlExecutor executor = session.getExecutor();
+        final MemoryBudget memoryBudget = session.getMemoryBudget();
+        if (memoryBudget == null) {
+            boolean submitted = false;
+            try {
+                executor.execute(CrawlExecutor.CALLBACK, () -> processRow(session, row));
+                submitted = true;
+            } finally {
+                if (!submitted) {
+                    row.close();
+                }
+            }
+            return;
+        }
+
+        // decoded strings are held as UTF-16 until the document is stored
+        final String jobId = session.getConfig().getId();
+        final long held = row.getReservedSize();
+        final long reserved = Math.max(row.getDataSize() * 2 - held, 0);
+        if (!memoryBudget.acquire(jobId, reserved, held, () -> session.isRunning() && alive)) {
+            row.close();
+            session.getRowStats().done(row.statsKey, row.startTime, row.url);
+            return;
+        }
+        boolean submitted = false;
+        try {
+            executor.execute(CrawlExecutor.CALLBACK, () -> {
+                try {
+                    processRow(session, row);
+                } finally {
+                    memoryBudget.release(jobId, reserved);
+                    row.releaseReserved();
+                }
+            });
+            submitted = true;
+        } finally {
+            if (!submitted) {
+                row.close();
+                memoryBudget.release(jobId, reserved);
+            }
+        }
+    }
+
+    /**
+     * Stores the row held for merging, if any.
+     *
+     * @param session the crawl session
+     * @throws InterruptedException if the current thread is interrupted while waiting for a worker
+     */
+    protected void flushPendingRow(final CrawlSession session) throws InterruptedException {
+        final DecodedRow pendingRow = session.getPendingRow();
+        if (pendingRow != null) {
+            session.setPendingRow(null);
+            submitRow(session, pendingRow);
+        }
+    }
+
+    /**
+     * Creates a filter of duplicate rows, as described in {@link DocumentKeyFilter#create(DataStoreParams)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the filter, or null if no key columns are specified
+     */
+    protected DocumentKeyFilter createDocumentKeyFilter(final DataStoreParams paramMap) {
+        return DocumentKeyFilter.create(paramMap);
+    }
+
+    /**
+     * Evaluates the field mapping scripts for a row and stores the documents.
+     * A document is stored for each mapping profile of the session, and a failure of a profile
+     * does not prevent the other profiles from being stored.
+     *
+     * @param session the crawl session
+     * @param row the decoded row
+     */
+    protected void processRow(final CrawlSession session, final DecodedRow row) {
+        final DataStoreParams rowParamMap = row.rowParamMap;
+        final StatsKeyObject statsKey = row.statsKey;
+        final String url = row.url;
+        try {
+            if (row.snapshot != null && !decodeSnapshot(session, row)) {
+                return;
+            }
+            final ResultSetParamMap params = row.params;
+            final List<MappingProfile> profiles = session.getMappingProfiles();
+            if (profiles == null) {
+                storeDocument(session, rowParamMap, params, session.getMappingPlan(), row.dataMap, statsKey, url);
+                return;
+            }
+            for (final MappingProfile profile : profiles) {
+                if (profile.isBase()) {
+                    storeDocument(session, rowParamMap, params, profile.getPlan(), row.dataMap, statsKey, url);
+                    continue;
+                }
+                final Map<String, Object> profileDataMap = profile.getPlan().newDocument();
+                if (params.get("crawlingContext") instanceof final Map<?, ?> crawlingContext) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> context = (Map<String, Object>) crawlingContext;
+                    context.put("doc", profileDataMap);
+                }
+                storeDocument(session, rowParamMap, params, profile.getPlan(), profileDataMap, statsKey,
+                        url + "#" + profile.getName());
+            }
+        } finally {
+            session.getRowStats().done(statsKey, row.startTime, url);
+        }
+    }
+
+    /**
+     * Evaluates field mapping scripts for a row and stores the document.
+     *
+     * @param session the crawl session
+     * @param rowParamMap the data store parameters for the row
+     * @param params the column values of the row
+     * @param plan the mapping plan of the field mapping scripts
+     * @param dataMap the document to store
+     * @param statsKey the stats key of the row, or null if the row is not sampled
+     * @param url the identifier of the document used for failure records
+     */
+    protected void storeDocument(final CrawlSession session, final DataStoreParams rowParamMap, final ResultSetParamMap params,
+            final MappingPlan plan, final Map<String, Object> dataMap, final StatsKeyObject statsKey, final String url) {
+        final RowStats rowStats = session.getRowStats();
+        final CrawlProfiler profiler = session.getProfiler();
+        final String scriptType = session.getScriptType();
+        final boolean traced = params.isTraced();
+        try {
+            for (int i = 0; i < plan.size(); i++) {
+                final String field = plan.getField(i);
+                final long startTime = profiler != null ? System.nanoTime() : 0L;
+                final Object convertValue = convertValue(scriptType, plan.getScript(i), params);
+                if (profiler != null) {
+                    profiler.recordScript(field, System.nanoTime() - startTime);
+                }
+                if (traced) {
+                    session.getRowTracer().trace(url, field, convertValue);
+                }
+                if (convertValue != null) {
+                    dataMap.put(field, convertValue);
+                }
+            }
+
+            rowStats.record(statsKey, StatsAction.EVALUATED);
+
+            if (params.isTraced()) {
+                session.getRowTracer().trace(url, "dataMap", dataMap);
+            }
+            if (session.getSpoolWriter() != null) {
+                session.getSpoolWriter().write(dataMap);
+            }
+            if (profiler == null) {
+                storeToIndex(session, rowParamMap, dataMap);
+                plan.recordSize(dataMap.size());
+            }
+            rowStats.record(statsKey, StatsAction.FINISHED);
+            session.getFailureRecorder().recordSuccess();
+        } catch (final Throwable t) {
+            handleFailure(session, statsKey, dataMap, url, t);
+        }
+    }
+
+    /**
+     * Creates the mapping profiles of a crawl from the parameter map.
+     * "fanout.[name].script.[field]" defines a fan-out profile, and "fanout_base=false" skips the document
+     * of the base scripts.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param scriptMap the base field mapping scripts
+     * @param defaultDataMap the default values of documents
+     * @return the mapping profiles, or null if no fan-out profile is defined
+     */
+    protected List<MappingProfile> createMappingProfiles(final DataStoreParams paramMap, final Map<String, String> scriptMap,
+            final Map<String, Object> defaultDataMap) {
+        final List<MappingProfile> profiles = MappingProfile.create(paramMap, scriptMap, defaultDataMap);
+        if (profiles.size() == 1 && profiles.get(0).isBase()) {
+            return null;
+        }
+        logger.info("Mapping profiles: {}", profiles);
+        return profiles;
+    }
+
+    /**
+     * Records a failure of a row.
+     * Failures are buffered by the failure recorder of the session and written in bulk.
+     * The crawl is stopped if the failure is a {@link DataStoreCrawlingException} that requests an abort,
+     * or if the circuit breaker of the failure recorder is tripped.
+     *
+     * @param session the crawl session
+     * @param statsKey the stats key of the row, or null if the row is not sampled
+     * @param dataMap the document of the row
+     * @param url the identifier of the row used for failure records
+     * @param t the failure
+     */
+    protected void handleFailure(final CrawlSession session, final StatsKeyObject statsKey, final Map<String, Object> dataMap,
+            final String url, final Throwable t) {
+        final RowStats rowStats = session.getRowStats();
+        final FailureRecorder failureRecorder = session.getFailureRecorder();
+        if (t instanceof final CrawlingAccessException e) {
+            Throwable target = e;
+            if (target instanceof final MultipleCrawlingAccessException ex) {
+                final Throwable[] causes = ex.getCauses();
+                if (causes.length > 0) {
+                    target = causes[causes.length - 1];
+                }
+            }
+
+            String errorName;
+            final Throwable cause = target.getCause();
+            if (cause != null) {
+                errorName = cause.getClass().getCanonicalName();
+            } else {
+                errorName = target.getClass().getCanonicalName();
+            }
+
+            String failureUrl;
+            if (target instanceof final DataStoreCrawlingException dce) {
+                failureUrl = dce.getUrl();
+                if (dce.aborted()) {
+                    session.abort();
+                }
+            } else {
+                failureUrl = url;
+            }
+            if (failureRecorder.recordFailure(errorName, failureUrl, target)) {
+                logger.warn("Crawling Access Exception at : {}", session.getRowTracer().render(dataMap), e);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("Crawling Access Exception at : {}", session.getRowTracer().render(dataMap), e);
+            }
+            rowStats.record(statsKey, StatsAction.ACCESS_EXCEPTION);
+        } else {
+            if (failureRecorder.recordFailure(t.getClass().getCanonicalName(), url, t)) {
+                logger.warn("Crawling Access Exception at : {}", session.getRowTracer().render(dataMap), t);
+            } else if (logger.isDebugEnabled()) {
+                logger.debug("Crawling Access Exception at : {}", session.getRowTracer().render(dataMap), t);
+            }
+            rowStats.record(statsKey, StatsAction.EXCEPTION);
+        }
+        if (failureRecorder.isTripped()) {
+            session.abort();
+        }
+    }
+
+    /**
+     * Creates a writer of spool files, as described in {@link SpoolWriter#create(DataStoreParams, String)}.
+     * Each crawl writes to its own run directory named after the data config ID.
+     *
+     * @param config the data configuration
+     * @param paramMap the parameter map containing configuration
+     * @return the spool writer, or null if spooling is not enabled
+     * @throws IOException if the spool directory cannot be created
+     */
+    protected SpoolWriter createSpoolWriter(final DataConfig config, final DataStoreParams paramMap) throws IOException {
+        return SpoolWriter.create(paramMap, config.getId());
+    }
+
+    /**
+     * Marks the spool run of a crawl as complete, so it can be replayed and older runs are deleted.
+     * A stopped crawl and a preview crawl leave their run incomplete.
+     *
+     * @param session the crawl session
+     * @throws IOException if the run cannot be marked as complete
+     */
+    protected void completeSpoolWriter(final CrawlSession session) throws IOException {
+        if (session.getSpoolWriter() == null || !session.isRunning() || !alive || isPreview(session.getParamMap())) {
+            return;
+        }
+        session.getSpoolWriter().complete();
+    }
+
+    private void closeSpoolWriter(final CrawlSession session) {
+        if (session.getSpoolWriter() != null) {
+            try {
+                session.getSpoolWriter().close();
+            } catch (final IOException e) {
+                logger.warn("Failed to close the spool writer.", e);
+            }
+        }
+    }
+
+    /**
+     * Creates an executor that reads spool files in parallel, as described in
+     * {@link CrawlExecutor#createReplay(String, DataStoreParams)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the executor
+     */
+    protected CrawlExecutor createReplayExecutor(final DataStoreParams paramMap) {
+        return CrawlExecutor.createReplay("DatabaseDataStore-replay", paramMap);
+    }
+
+    /**
+     * Stores the documents in spool files instead of reading the database.
+     * Each chunk file is read by a worker of the session, and field mapping scripts are not evaluated again.
+     * If the directory has run directories, only the latest complete run of the data config is replayed.
+     *
+     * @param session the crawl session
+     * @param spoolDir the spool directory, or a run directory
+     * @throws IOException if the spool directory cannot be read
+     * @throws InterruptedException if the current thread is interrupted while waiting for a worker
+     */
+    protected void replay(final CrawlSession session, final Path spoolDir) throws IOException, InterruptedException {
+        Path runDir = spoolDir;
+        List<Path> chunkFiles = SpoolReader.listChunks(spoolDir);
+        // chunk files directly in the directory are a run directory or spool files written before run directories
+        if (!SpoolReader.isComplete(spoolDir) && chunkFiles.isEmpty()) {
+            runDir = SpoolReader.findLatestRun(spoolDir, session.getConfig().getId());
+            if (runDir == null) {
+                logger.warn("No complete spool run of {} in {}", session.getConfig().getId(), spoolDir);
+                return;
+            }
+            chunkFiles = SpoolReader.listChunks(runDir);
+        }
+        logger.info("Replaying {} spool files in {}", chunkFiles.size(), runDir);
+        for (final Path chunkFile : chunkFiles) {
+            if (!session.isRunning() || !alive) {
+                break;
+            }
+            session.getExecutor().execute(CrawlExecutor.CALLBACK, () -> replayChunk(session, chunkFile));
+        }
+    }
+
+    /**
+     * Stores the documents in a spool file.
+     *
+     * @param session the crawl session
+     * @param chunkFile the spool file
+     */
+    protected void replayChunk(final CrawlSession session, final Path chunkFile) {
+        final RowStats rowStats = session.getRowStats();
+        final long[] count = { 0 };
+        try {
+            SpoolReader.read(chunkFile, dataMap -> {
+                count[0]++;
+                final String url = chunkFile + ":" + count[0];
+                final long startTime = System.nanoTime();
+                final StatsKeyObject statsKey = rowStats.begin(chunkFile.getFileName() + ":" + count[0], count[0]);
+                final DataStoreParams rowParamMap = getRowParamMap(session, statsKey);
+                try {
+                    storeToIndex(session, rowParamMap, dataMap);
+                    rowStats.record(statsKey, StatsAction.FINISHED);
+                    session.getFailureRecorder().recordSuccess();
+                } catch (final Throwable t) {
+                    handleFailure(session, statsKey, dataMap, url, t);
+                } finally {
+                    rowStats.done(statsKey, startTime, url);
+                }
+                if (session.getIngestMonitor() != null) {
+                    awaitIngest(session, session.getIngestMonitor(), null, null);
+                }
+                return session.isRunning() && alive;
+            });
+        } catch (final IOException e) {
+            session.getFailureRecorder().recordFailure(e.getClass().getCanonicalName(), chunkFile.toString(), e);
+            logger.warn("Failed to read {} after {} documents.", chunkFile, count[0], e);
+        }
+    }
+
+    /**
+     * Creates a profiler for a dry run, as described in {@link CrawlProfiler#create(DataStoreParams)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the profiler, or null if profiling is not enabled
+     */
+    protected CrawlProfiler createProfiler(final DataStoreParams paramMap) {
+        return CrawlProfiler.create(paramMap);
+    }
+
+    /**
+     * Checks if the crawl is a preview crawl, as described in {@link CrawlPreview}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return true for a preview crawl
+     */
+    protected boolean isPreview(final DataStoreParams paramMap) {
+        return CrawlPreview.create(paramMap).isEnabled();
+    }
+
+    /**
+     * Rewrites the query of the session for a preview crawl.
+     * "preview_rows" wraps the query to return its first N rows in the syntax of the dialect, and
+     * "preview_sample_percent" samples X% of the rows with the table sampling of the dialect at "{sample}"
+     * in the query, such as "SELECT * FROM doc {sample}", or with a random filter over the query.
+     * If the dialect supports neither, rows are sampled after they are read. "{sample}" is removed
+     * from the query of a crawl that is not sampled.
+     *
+     * @param session the crawl session
+     */
+    protected void configurePreview(final CrawlSession session) {
+        final DataStoreParams paramMap = session.getParamMap();
+        String sql = session.getSql();
+        final CrawlPreview preview = CrawlPreview.create(paramMap);
+        final double samplePercent = preview.getSamplePercent();
+        final long previewRows = preview.getRows();
+        if (samplePercent <= 0 && previewRows <= 0) {
+            session.setSql(sql.replace(DatabaseDialect.SAMPLE_PLACEHOLDER, StringUtil.EMPTY));
+            return;
+        }
+
+        sql = sql.trim();
+        while (sql.endsWith(";")) {
+            sql = sql.substring(0, sql.length() - 1).trim();
+        }
+        final DatabaseDialect dialect = getDialect(paramMap);
+        if (samplePercent > 0 && samplePercent < 100) {
+            final String sampledSql = dialect.sampleRows(sql, samplePercent);
+            if (sampledSql != null) {
+                sql = sampledSql;
+            } else {
+                logger.info("{} has no SQL sampling. {}% of the rows are sampled after they are read.", dialect.getName(), samplePercent);
+                session.setSamplePercent(samplePercent);
+            }
+        }
+        sql = sql.replace(DatabaseDialect.SAMPLE_PLACEHOLDER, StringUtil.EMPTY).trim();
+        // rows sampled after they are read cannot be limited in the query
+        if (previewRows > 0 && session.getSamplePercent() == 0) {
+            final String limitedSql = dialect.limitRows(sql, previewRows);
+            if (limitedSql != null) {
+                sql = limitedSql;
+            }
+        }
+        logger.info("Preview query: {}", sql);
+        session.setSql(sql);
+    }
+
+    /**
+     * Writes the profile report to the file specified by "profile_output", or to the log.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param profiler the profiler
+     */
+    protected void writeProfile(final DataStoreParams paramMap, final CrawlProfiler profiler) {
+        final String report = profiler.toJson();
+        final Path output = CrawlProfiler.getOutput(paramMap);
+        if (output != null) {
+            try {
+                Files.writeString(output, report, StandardCharsets.UTF_8);
+                logger.info("Profiled {} rows: {}", profiler.getRowCount(), output);
+                return;
+            } catch (final IOException e) {
+                logger.warn("Failed to write the profile to {}.", output, e);
+            }
+        }
+        logger.info("Profiled {} rows: {}", profiler.getRowCount(), report);
+    }
+
+    /**
+     * Creates an executor for the workers of a crawl, as described in {@link CrawlExecutor#create(String, DataStoreParams)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the executor
+     */
+    protected CrawlExecutor createCrawlExecutor(final DataStoreParams paramMap) {
+        return CrawlExecutor.create("DatabaseDataStore", paramMap);
+    }
+
+    /**
+     * Returns the dialect of the database, which provides the SQL syntax of previews, sampling and snapshots.
+     * "dialect" selects a dialect by name, such as "postgresql", or "none" for no vendor settings,
+     * and the dialect is detected from the JDBC URL and driver if it is not set or "auto".
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the dialect
+     */
+    protected DatabaseDialect getDialect(final DataStoreParams paramMap) {
+        final String name = paramMap.getAsString(DIALECT_PARAM);
+        if (StringUtil.isNotBlank(name) && !"auto".equalsIgnoreCase(name.trim())) {
+            final DatabaseDialect dialect = DatabaseDialect.of(name);
+            if (dialect != null) {
+                return dialect;
+            }
+            logger.warn("Unknown dialect: {}", name);
+        }
+        return DatabaseDialect.detect(getUrl(paramMap), paramMap.getAsString(DRIVER_PARAM));
+    }
+
+    /**
+     * Returns the dialect whose streaming settings are applied to connections and statements.
+     * The settings change how the driver reads rows, such as turning off auto-commit on PostgreSQL,
+     * so they are applied only if "dialect" is set, to "auto" for the detected dialect or to a dialect name.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the dialect, or {@link DatabaseDialect#GENERIC} if "dialect" is not set
+     */
+    protected DatabaseDialect getStreamingDialect(final DataStoreParams paramMap) {
+        if (StringUtil.isBlank(paramMap.getAsString(DIALECT_PARAM))) {
+            return DatabaseDialect.GENERIC;
+        }
+        return getDialect(paramMap);
+    }
+
+    /**
+     * Creates a database connection using the parameters specified in the parameter map.
+     * The streaming settings of the dialect specified by "dialect" are applied to the new connection.
+     *
+     * @param paramMap the parameter map containing database connection configuration
+     * @return a database connection
+     * @throws SQLException if a database access error occurs
+     */
+    protected Connection getConnection(final DataStoreParams paramMap) throws SQLException {
+        final String jdbcUrl = getUrl(paramMap);
+        if (logger.isDebugEnabled()) {
+            logger.debug("jdbc: {} : {}", jdbcUrl, getUsername(paramMap));
+        }
+
+        final DatabaseDialect dialect = getStreamingDialect(paramMap);
+        if (logger.isDebugEnabled()) {
+            logger.debug("jdbc: dialect: {}", dialect.getName());
+        }
+
+        final Connection con = DriverManager.getConnection(jdbcUrl, getConnectionProperties(paramMap));
+        try {
+            dialect.configureConnection(con);
+        } catch (final SQLException | RuntimeException e) {
+            try {
+                con.close();
+            } catch (final SQLException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+        return con;
+    }
+
+    /**
+     * Returns the JDBC connection properties.
+     * Supports connection properties with "info." prefix for additional JDBC connection properties.
+     * The streaming settings of the dialect specified by "dialect" are applied to properties that are not specified.
+     *
+     * @param paramMap the parameter map containing database connection configuration
+     * @return the connection properties
+     */
+    protected Properties getConnectionProperties(final DataStoreParams paramMap) {
+        final String username = getUsername(paramMap);
+        final Properties info = new Properties();
+        if (username != null) {
+            info.put("user", username);
+        }
+
+        final String password = getPassword(paramMap);
+        if (password != null) {
+            info.put("password", password);
+        }
+
+        for (final String key : paramMap.asMap().keySet()) {
+            if (key.startsWith(INFO_PREFIX)) {
+                final String k = key.substring(INFO_PREFIX.length());
+                final Object v = paramMap.get(key);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("jdbc: info: {}={}", k, v);
+                }
+                info.put(k, v);
+            }
+        }
+
+        getStreamingDialect(paramMap).configureProperties(info);
+        return info;
+    }
+
+    /**
+     * Column values merged from rows of the same document.
+     */
+    protected static class MergedValues extends ArrayList<Object> {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A row decoded on the reader thread and waiting to be stored.
+     * A row read with a snapshot is decoded by the worker that stores it.
+     */
+    protected static class DecodedRow {
+        final DataStoreParams rowParamMap;
+
+        ResultSetParamMap params;
+
+        RowSnapshot snapshot;
+
+        boolean traced;
+
+        final Map<String, Object> dataMap;
+
+        final StatsKeyObject statsKey;
+
+        final String url;
+
+        final long startTime;
+
+        DocumentKeyFilter.Key key;
+
+        DecodedRow(final DataStoreParams rowParamMap, final ResultSetParamMap params, final Map<String, Object> dataMap,
+                final StatsKeyObject statsKey, final String url, final long startTime) {
+            this.rowParamMap = rowParamMap;
+            this.params = params;
+            this.dataMap = dataMap;
+            this.statsKey = statsKey;
+            this.url = url;
+            this.startTime = startTime;
+        }
+
+        long getDataSize() {
+            if (params != null) {
+                return params.getDataSize();
+            }
+            return snapshot != null ? snapshot.getDataSize() : 0;
+        }
+
+        long getReservedSize() {
+            return params != null ? params.getReservedSize() : 0;
+        }
+
+        void releaseReserved() {
+            if (params != null) {
+                params.releaseReserved();
+            }
+        }
+
+        void close() {
+            if (snapshot != null) {
+                snapshot.close();
+                snapshot = null;
+            }
+            releaseReserved();
+        }
+    }
+
+    /**
+     * A Map implementation that wraps ResultSet data for script processing.
+     * This class provides access to database column values and metadata, making them available
+     * for script evaluation during the data extraction process.
      */
     protected static class ResultSetParamMap implements Map<String, Object> {
         private final Map<String, Object> paramMap = new HashMap<>();
 
+        private long dataSize;
+
+        private long reservedSize;
+
+        private final CrawlSession session;
+
+        private String profileLabel;
+
+        private Class<?> columnClass;
+
+        private final List<String> columnLabels = new ArrayList<>();
+
+        private boolean traced;
+
+        private final Map<String, ColumnPathExtractor> columnExtractors;
+
         /**
          * Constructor that initializes the parameter map with ResultSet data.
          *
@@ -375,30 +1938,129 @@ public class DatabaseDataStore extends AbstractDataStore {
          */
         public ResultSetParamMap(final DataConfig config, final Map<String, Object> crawlingContext, final ResultSet resultSet,
                 final DataStoreParams paramMap) {
+            this(config, crawlingContext, resultSet, paramMap, null);
+        }
+
+        /**
+         * Constructor that initializes the parameter map with ResultSet data of a crawl session.
+         *
+         * @param config the data configuration
+         * @param crawlingContext the crawling context
+         * @param resultSet the database result set
+         * @param paramMap the data store parameters
+         * @param session the crawl session, or null if the row is read outside of a crawl
+         */
+        public ResultSetParamMap(final DataConfig config, final Map<String, Object> crawlingContext, final ResultSet resultSet,
+                final DataStoreParams paramMap, final CrawlSession session) {
+            this.session = session;
             this.paramMap.putAll(paramMap.asMap());
             this.paramMap.put("crawlingConfig", config);
             this.paramMap.put("crawlingContext", crawlingContext);
+            columnExtractors = session != null ? session.getColumnExtractors() : ColumnPathExtractor.create(this.paramMap);
 
             try {
                 final ResultSetMetaData metaData = resultSet.getMetaData();
                 final int columnCount = metaData.getColumnCount();
+                final boolean arrayMultivalued = Boolean.parseBoolean(getParamAsString(ARRAY_MULTIVALUED_PARAM));
                 for (int i = 0; i < columnCount; i++) {
                     try {
                         final String label = metaData.getColumnLabel(i + 1);
+                        columnLabels.add(label);
+                        if (arrayMultivalued && metaData.getColumnType(i + 1) == Types.ARRAY) {
+                            final List<Object> values = getArrayValues(resultSet.getArray(i + 1));
+                            this.paramMap.put(label, values);
+                            for (final Object value : values) {
+                                dataSize += value.toString().length();
+                            }
+                            continue;
+                        }
+                        final CrawlProfiler profiler = session != null ? session.getProfiler() : null;
+                        if (profiler != null) {
+                            profileLabel = label;
+                            final long startTime = System.nanoTime();
+                            final String value = getColumnValue(resultSet, i + 1);
+                            profiler.recordColumn(label, metaData.getColumnTypeName(i + 1), columnClass,
+                                    value != null ? value.length() : 0, System.nanoTime() - startTime);
+                            this.paramMap.put(label, value);
+                            dataSize += value != null ? value.length() : 0;
+                            putExtractedFields(label, value);
+                            continue;
+                        }
                         final String value = getColumnValue(resultSet, i + 1);
                         this.paramMap.put(label, value);
+                        dataSize += value != null ? value.length() : 0;
+                        putExtractedFields(label, value);
                     } catch (final IOException | SQLException e) {
                         logger.warn("Failed to parse data in a result set. The column is {}.", i + 1, e);
                     }
                 }
             } catch (final Exception e) {
+                releaseReserved();
                 throw new FessSystemException("Failed to access meta data.", e);
             }
         }
 
+        /**
+         * Reserves memory in the memory budget of the crawl before a large column is read,
+         * blocking while the budget is used up by other rows.
+         * The reservation is kept until the row is stored.
+         *
+         * @param size the size in bytes, such as the length of a LOB
+         */
+        protected void reserveColumn(final long size) {
+            final MemoryBudget memoryBudget = session != null ? session.getMemoryBudget() : null;
+            if (memoryBudget == null || size <= 0) {
+                return;
+            }
+            final DecodedRow pendingRow = session.getPendingRow();
+            final long held = reservedSize + (pendingRow != null ? pendingRow.getReservedSize() : 0);
+            try {
+                if (memoryBudget.acquire(session.getConfig().getId(), size, held, session::isRunning)) {
+                    reservedSize += size;
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Returns the memory reserved in the memory budget for the large columns of this row.
+         *
+         * @return the size in bytes
+         */
+        public long getReservedSize() {
+            return reservedSize;
+        }
+
+        /**
+         * Releases the memory reserved for the large columns of this row.
+         */
+        public void releaseReserved() {
+            if (reservedSize > 0) {
+                session.getMemoryBudget().release(session.getConfig().getId(), reservedSize);
+                reservedSize = 0;
+            }
+        }
+
+        /**
+         * Puts the fields extracted from a JSON or XML column by "column_json.[label].[field]"
+         * or "column_xml.[label].[field]" into this map with their field names.
+         *
+         * @param label the column label
+         * @param value the column value
+         * @throws IOException if the value cannot be parsed
+         */
+        protected void putExtractedFields(final String label, final String value) throws IOException {
+            final ColumnPathExtractor extractor = columnExtractors.get(label);
+            if (extractor != null && value != null) {
+                this.paramMap.putAll(extractor.extract(value));
+            }
+        }
+
         /**
          * Extracts and converts a column value from the ResultSet to a String.
          * Handles various data types including BLOBs, CLOBs, binary data, and arrays.
+         * The content of a column with an unchanged signature is taken from the extracted content cache.
          *
          * @param resultSet the database result set
          * @param columnIndex the column index (1-based)
@@ -407,30 +2069,100 @@ public class DatabaseDataStore extends AbstractDataStore {
          * @throws SQLException if a database access error occurs
          */
         protected String getColumnValue(final ResultSet resultSet, final int columnIndex) throws IOException, SQLException {
+            final String signatureKey = getSignatureKey(resultSet, columnIndex);
+            if (signatureKey == null) {
+                return readColumnValue(resultSet, columnIndex);
+            }
+            final ExtractedContentCache cache = session.getExtractedContentCache();
+            final String cached = cache.get(signatureKey);
+            if (cached != null) {
+                columnClass = null;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Reused the content of column {} with the same signature.", columnIndex);
+                }
+                return cached;
+            }
+            final String value = readColumnValue(resultSet, columnIndex);
+            if (value != null) {
+                cache.put(signatureKey, value);
+            }
+            return value;
+        }
+
+        /**
+         * Returns the cache key of a column whose content is identified by the signature column specified by
+         * "content_signature.[label]", such as a checksum computed by the database or a version.
+         * The values of the row key columns specified by "content_signature_key" are part of the key,
+         * so rows with the same version do not share their content.
+         * A column with a known signature is not read and its content is not extracted again.
+         *
+         * @param resultSet the database result set
+         * @param columnIndex the column index (1-based)
+         * @return the cache key, or null if the column has no signature or the crawl has no extracted content cache
+         * @throws SQLException if a database access error occurs
+         */
+        protected String getSignatureKey(final ResultSet resultSet, final int columnIndex) throws SQLException {
+            if (session == null || session.getExtractedContentCache() == null) {
+                return null;
+            }
+            final String label = resultSet.getMetaData().getColumnLabel(columnIndex);
+            final String signatureColumn = getParamAsString(ExtractedContentCache.CONTENT_SIGNATURE_PREFIX + label);
+            if (StringUtil.isBlank(signatureColumn)) {
+                return null;
+            }
+            final String signature = resultSet.getString(signatureColumn.trim());
+            if (StringUtil.isBlank(signature)) {
+                return null;
+            }
+            final StringBuilder scope = new StringBuilder().append(session.getConfig().getId()).append(':').append(label);
+            final String keyColumns = getParamAsString(ExtractedContentCache.CONTENT_SIGNATURE_KEY_PARAM);
+            if (StringUtil.isNotBlank(keyColumns)) {
+                for (final String keyColumn : keyColumns.split(",")) {
+                    final String keyValue = resultSet.getString(keyColumn.trim());
+                    if (keyValue == null) {
+                        // a row without its key cannot be told apart from other rows
+                        return null;
+                    }
+                    scope.append('\0').append(keyValue.length()).append(':').append(keyValue);
+                }
+            }
+            final String[] hint = getExtractHint();
+            return ExtractedContentCache.createSignatureKey(scope.toString(), signature, hint != null ? hint[0] + ":" + hint[1] : null);
+        }
+
+        /**
+         * Reads a column value from the ResultSet and converts it to a String.
+         *
+         * @param resultSet the database result set
+         * @param columnIndex the column index (1-based)
+         * @return the column value as a String
+         * @throws IOException if an I/O error occurs during data extraction
+         * @throws SQLException if a database access error occurs
+         */
+        protected String readColumnValue(final ResultSet resultSet, final int columnIndex) throws IOException, SQLException {
             final Object obj = resultSet.getObject(columnIndex);
+            columnClass = obj != null ? obj.getClass() : null;
             if (obj instanceof final Blob value) {
+                reserveColumn(value.length());
                 try (final InputStream in = value.getBinaryStream()) {
-                    final FessConfig fessConfig = ComponentUtil.getFessConfig();
-                    final ExtractorBuilder builder = ComponentUtil.getExtractorFactory().builder(in, null);
-                    if (paramMap.get(COLUMN_LABEL_PREFIX + fessConfig.getIndexFieldMimetype()) instanceof final String mimetypeField
-                            && paramMap.get(mimetypeField) instanceof final String mimetype) {
-                        builder.mimeType(mimetype);
-                    } else if (paramMap.get(COLUMN_LABEL_PREFIX + fessConfig.getIndexFieldFilename()) instanceof final String filenameField
-                            && paramMap.get(filenameField) instanceof final String filename) {
-                        builder.filename(filename);
-                    } else if (paramMap.get(DEFAULT_MIMETYPE) instanceof final String defaultMimetype) {
-                        builder.mimeType(defaultMimetype);
-                    }
-                    return builder.extract().getContent();
+                    return extractText(in);
                 }
             }
+            if (obj instanceof final SpooledContent value) {
+                reserveColumn(value.getLength());
+                return extractText(value);
+            }
             if (obj instanceof final byte[] value) {
-                return new String(value, StandardCharsets.UTF_8);
-            } else if (obj instanceof final Clob value) {
+                // decoded text is held as UTF-16
+                reserveColumn(value.length * 2L);
+                return getBytesValue(resultSet.getMetaData().getColumnLabel(columnIndex), value);
+            } else if (obj instanceof final NClob value) {
+                reserveColumn(value.length() * 2);
                 try (final Reader reader = value.getCharacterStream()) {
                     return ReaderUtil.readText(reader);
                 }
-            } else if (obj instanceof final NClob value) {
+            } else if (obj instanceof final Clob value) {
+                reserveColumn(value.length() * 2);
                 try (final Reader reader = value.getCharacterStream()) {
                     return ReaderUtil.readText(reader);
                 }
@@ -438,18 +2170,7 @@ public class DatabaseDataStore extends AbstractDataStore {
                 return value.getObject().toString();
             } else if (obj instanceof final InputStream value) {
                 try {
-                    final FessConfig fessConfig = ComponentUtil.getFessConfig();
-                    final ExtractorBuilder builder = ComponentUtil.getExtractorFactory().builder(value, null);
-                    if (paramMap.get(COLUMN_LABEL_PREFIX + fessConfig.getIndexFieldMimetype()) instanceof final String mimetypeField
-                            && paramMap.get(mimetypeField) instanceof final String mimetype) {
-                        builder.mimeType(mimetype);
-                    } else if (paramMap.get(COLUMN_LABEL_PREFIX + fessConfig.getIndexFieldFilename()) instanceof final String filenameField
-                            && paramMap.get(filenameField) instanceof final String filename) {
-                        builder.filename(filename);
-                    } else if (paramMap.get(DEFAULT_MIMETYPE) instanceof final String defaultMimetype) {
-                        builder.mimeType(defaultMimetype);
-                    }
-                    return builder.extract().getContent();
+                    return extractText(value);
                 } finally {
                     IOUtils.closeQuietly(value);
                 }
@@ -460,18 +2181,480 @@ public class DatabaseDataStore extends AbstractDataStore {
                     IOUtils.closeQuietly(value);
                 }
             } else if (obj instanceof final Array value) {
-                final ResultSet subResultSet = value.getResultSet();
                 final StringBuilder buf = new StringBuilder();
-                for (int i = 0; i < subResultSet.getMetaData().getColumnCount(); i++) {
-                    buf.append(subResultSet.getString(i + 1)).append(' ');
+                for (final Object element : getArrayValues(value)) {
+                    if (buf.length() > 0) {
+                        buf.append(' ');
+                    }
+                    buf.append(element);
                 }
-                return buf.toString().trim();
+                return buf.toString();
             } else if (obj == null) {
                 return StringUtil.EMPTY;
             }
             return obj.toString();
         }
 
+        /**
+         * Converts a binary column value to a string.
+         * Text is decoded with the charset specified by "column_charset.[label]", or UTF-8 by default.
+         * Binary content is passed to the extractor without copying the array, like BLOB columns.
+         * Whether the value is binary is specified by "column_binary.[label]", or detected from the bytes.
+         *
+         * @param label the column label
+         * @param value the column value
+         * @return the text or the extracted text
+         * @throws IOException if the extraction fails
+         */
+        protected String getBytesValue(final String label, final byte[] value) throws IOException {
+            final String binary = getParamAsString(COLUMN_BINARY_PREFIX + label);
+            final Charset charset = getColumnCharset(label);
+            if (binary == null) {
+                final String text = decodeText(value, charset);
+                if (text != null) {
+                    return text;
+                }
+            } else if (!Boolean.parseBoolean(binary)) {
+                return new String(value, charset);
+            }
+            return extractText(SpooledContent.of(value));
+        }
+
+        /**
+         * Returns the charset of a column specified by "column_charset.[label]".
+         *
+         * @param label the column label
+         * @return the charset, or UTF-8 if not specified or unsupported
+         */
+        protected Charset getColumnCharset(final String label) {
+            final String charsetName = getParamAsString(COLUMN_CHARSET_PREFIX + label);
+            if (StringUtil.isNotBlank(charsetName)) {
+                try {
+                    return Charset.forName(charsetName.trim());
+                } catch (final IllegalArgumentException e) {
+                    logger.warn("Unsupported charset {} for {}.", charsetName, label, e);
+                }
+            }
+            return StandardCharsets.UTF_8;
+        }
+
+        /**
+         * Decodes bytes as text if they look like text.
+         * Bytes are treated as binary if they are malformed in the charset,
+         * or if the beginning of the text contains NUL or too many control characters.
+         * The beginning is checked first, so binary content is rejected without decoding the whole value,
+         * and the rest is validated through a small buffer before the text is created.
+         *
+         * @param value the bytes
+         * @param charset the charset
+         * @return the text, or null if the bytes are binary
+         */
+        protected static String decodeText(final byte[] value, final Charset charset) {
+            final CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            final ByteBuffer in = ByteBuffer.wrap(value, 0, Math.min(value.length, BINARY_CHECK_LENGTH));
+            final CharBuffer out = CharBuffer.allocate(BINARY_CHECK_LENGTH);
+            // a multibyte sequence cut at the end of the beginning is left in the input
+            if (decoder.decode(in, out, false).isError()) {
+                return null;
+            }
+            out.flip();
+            final int length = out.length();
+            int controls = 0;
+            for (int i = 0; i < length; i++) {
+                final char c = out.charAt(i);
+                if (c == 0) {
+                    return null;
+                }
+                if (c < 0x20 && c != '\t' && c != '\n' && c != '\r' && c != '\f' || c == 0x7f) {
+                    controls++;
+                }
+            }
+            if (controls * 10 > length) {
+                return null;
+            }
+            in.limit(value.length);
+            CoderResult result;
+            do {
+                out.clear();
+                result = decoder.decode(in, out, true);
+                if (result.isError()) {
+                    return null;
+                }
+            } while (result.isOverflow());
+            out.clear();
+            if (decoder.flush(out).isError()) {
+                return null;
+            }
+            return new String(value, charset);
+        }
+
+        /**
+         * Reads the elements of an SQL ARRAY value.
+         * Elements are streamed through {@link Array#getResultSet()} and nested arrays are flattened.
+         * Numbers and booleans keep their types, structs are converted to their attributes separated by a space,
+         * and null elements are skipped. At most "array_max_elements" elements are read.
+         *
+         * @param array the array value, or null
+         * @return the elements of the array
+         * @throws SQLException if a database access error occurs
+         */
+        protected List<Object> getArrayValues(final Array array) throws SQLException {
+            final List<Object> values = new ArrayList<>();
+            if (array == null) {
+                return values;
+            }
+            final int maxElements = getParamAsInt(ARRAY_MAX_ELEMENTS_PARAM, DEFAULT_ARRAY_MAX_ELEMENTS);
+            try {
+                if (!addArrayElements(array, values, maxElements) && logger.isDebugEnabled()) {
+                    logger.debug("The array is truncated to {} elements.", maxElements);
+                }
+            } finally {
+                try {
+                    array.free();
+                } catch (final SQLException | AbstractMethodError e) {
+                    logger.debug("Failed to free an array.", e);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Adds the elements of an SQL ARRAY value to the list.
+         *
+         * @param array the array value
+         * @param values the list of elements
+         * @param maxElements the maximum number of elements in the list
+         * @return false if some elements are dropped because of the limit
+         * @throws SQLException if a database access error occurs
+         */
+        protected boolean addArrayElements(final Array array, final List<Object> values, final int maxElements) throws SQLException {
+            ResultSet elementResultSet;
+            try {
+                elementResultSet = array.getResultSet();
+            } catch (final SQLFeatureNotSupportedException e) {
+                elementResultSet = null;
+            }
+            if (elementResultSet == null) {
+                return addArrayElement(array.getArray(), values, maxElements);
+            }
+            try (final ResultSet rs = elementResultSet) {
+                // each row has the index in the first column and the element in the second column
+                while (rs.next()) {
+                    if (!addArrayElement(rs.getObject(2), values, maxElements)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Adds an element of an SQL ARRAY value to the list.
+         *
+         * @param element the element
+         * @param values the list of elements
+         * @param maxElements the maximum number of elements in the list
+         * @return false if the element is dropped because of the limit
+         * @throws SQLException if a database access error occurs
+         */
+        protected boolean addArrayElement(final Object element, final List<Object> values, final int maxElements) throws SQLException {
+            if (element == null) {
+                return true;
+            }
+            if (element instanceof final Array nested) {
+                try {
+                    return addArrayElements(nested, values, maxElements);
+                } finally {
+                    nested.free();
+                }
+            }
+            if (element instanceof final Object[] nested) {
+                for (final Object obj : nested) {
+                    if (!addArrayElement(obj, values, maxElements)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (element.getClass().isArray() && !(element instanceof byte[])) {
+                final int length = java.lang.reflect.Array.getLength(element);
+                for (int i = 0; i < length; i++) {
+                    if (!addArrayElement(java.lang.reflect.Array.get(element, i), values, maxElements)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (values.size() >= maxElements) {
+                return false;
+            }
+            if (element instanceof Number || element instanceof Boolean) {
+                values.add(element);
+            } else if (element instanceof final Struct struct) {
+                final StringBuilder buf = new StringBuilder();
+                for (final Object attribute : struct.getAttributes()) {
+                    if (attribute != null) {
+                        if (buf.length() > 0) {
+                            buf.append(' ');
+                        }
+                        buf.append(attribute);
+                    }
+                }
+                values.add(buf.toString());
+            } else if (element instanceof final byte[] bytes) {
+                values.add(new String(bytes, StandardCharsets.UTF_8));
+            } else {
+                values.add(element.toString());
+            }
+            return true;
+        }
+
+        /**
+         * Returns a data store parameter as a string.
+         *
+         * @param key the parameter name
+         * @return the value, or null if not specified
+         */
+        protected String getParamAsString(final String key) {
+            final Object value = paramMap.get(key);
+            return value != null ? value.toString() : null;
+        }
+
+        /**
+         * Returns a data store parameter as an integer.
+         *
+         * @param key the parameter name
+         * @param defaultValue the value returned if the parameter is not specified or invalid
+         * @return the value
+         */
+        protected int getParamAsInt(final String key, final int defaultValue) {
+            final String value = getParamAsString(key);
+            if (StringUtil.isNotBlank(value)) {
+                try {
+                    return Integer.parseInt(value.trim());
+                } catch (final NumberFormatException e) {
+                    logger.debug("Failed to parse {}={}", key, value, e);
+                }
+            }
+            return defaultValue;
+        }
+
+        /**
+         * Extracts text from binary content with the extractor factory.
+         * If the crawl has an extracted content cache, the content is spooled to compute its digest
+         * and the cached text is returned for content that was extracted before.
+         * If the crawl has a memory budget, the content is spooled and spilled to disk when the budget is used up,
+         * instead of being buffered by the extractor.
+         *
+         * @param in the binary content
+         * @return the extracted text
+         * @throws IOException if the extraction fails
+         */
+        protected String extractText(final InputStream in) throws IOException {
+            if (session == null || session.getExtractedContentCache() == null && session.getMemoryBudget() == null) {
+                return extract(in);
+            }
+            final int memoryThreshold = getParamAsInt(SPOOL_MEMORY_THRESHOLD_PARAM, DEFAULT_SPOOL_MEMORY_THRESHOLD);
+            final MemoryBudget memoryBudget = session.getMemoryBudget();
+            if (memoryBudget == null) {
+                try (final SpooledContent content = SpooledContent.spool(in, memoryThreshold)) {
+                    return extractText(content);
+                }
+            }
+            // spill to disk when the memory budget is used up
+            final String jobId = session.getConfig().getId();
+            final boolean reserved = memoryBudget.tryAcquire(jobId, memoryThreshold);
+            try (final SpooledContent content = SpooledContent.spool(in, reserved ? memoryThreshold : 0)) {
+                return extractText(content);
+            } finally {
+                if (reserved) {
+                    memoryBudget.release(jobId, memoryThreshold);
+                }
+            }
+        }
+
+        /**
+         * Extracts text from spooled binary content, using the extracted content cache if available.
+         *
+         * @param content the binary content
+         * @return the extracted text
+         * @throws IOException if the extraction fails
+         */
+        protected String extractText(final SpooledContent content) throws IOException {
+            final ExtractedContentCache cache = session != null ? session.getExtractedContentCache() : null;
+            if (cache == null) {
+                try (final InputStream in = content.open()) {
+                    return extract(in);
+                }
+            }
+            final String[] hint = getExtractHint();
+            final String key = ExtractedContentCache.createKey(content.getDigest(), hint != null ? hint[0] + ":" + hint[1] : null);
+            final String cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            final String text;
+            try (final InputStream in = content.open()) {
+                text = extract(in);
+            }
+            if (text != null) {
+                cache.put(key, text);
+            }
+            return text;
+        }
+
+        /**
+         * Returns the hint for the extractor.
+         * The mimetype or filename is taken from the columns specified by "column_label.*",
+         * or from "default_mimetype".
+         *
+         * @return a pair of "mimetype" or "filename" and its value, or null if no hint is available
+         */
+        protected String[] getExtractHint() {
+            final FessConfig fessConfig = ComponentUtil.getFessConfig();
+            if (paramMap.get(COLUMN_LABEL_PREFIX + fessConfig.getIndexFieldMimetype()) instanceof final String mimetypeField
+                    && paramMap.get(mimetypeField) instanceof final String mimetype) {
+                return new String[] { "mimetype", mimetype };
+            }
+            if (paramMap.get(COLUMN_LABEL_PREFIX + fessConfig.getIndexFieldFilename()) instanceof final String filenameField
+                    && paramMap.get(filenameField) instanceof final String filename) {
+                return new String[] { "filename", filename };
+            }
+            if (paramMap.get(DEFAULT_MIMETYPE) instanceof final String defaultMimetype) {
+                return new String[] { "mimetype", defaultMimetype };
+            }
+            return null;
+        }
+
+        /**
+         * Runs the extractor factory on binary content.
+         * If the crawl bounds concurrent extractions, a slot is held while extracting.
+         *
+         * @param in the binary content
+         * @return the extracted text
+         * @throws IOException if the extraction is interrupted
+         */
+        protected String extract(final InputStream in) throws IOException {
+            final ExtractorBuilder builder = ComponentUtil.getExtractorFactory().builder(in, null);
+            final String[] hint = getExtractHint();
+            if (hint != null) {
+                if ("filename".equals(hint[0])) {
+                    builder.filename(hint[1]);
+                } else {
+                    builder.mimeType(hint[1]);
+                }
+            }
+            if (session == null || session.getExecutor() == null) {
+                return builder.extract().getContent();
+            }
+            if (session.getProfiler() != null) {
+                final long startTime = System.nanoTime();
+                try {
+                    return extractWithPermit(builder);
+                } finally {
+                    session.getProfiler().recordExtraction(profileLabel, System.nanoTime() - startTime);
+                }
+            }
+            return extractWithPermit(builder);
+        }
+
+        private String extractWithPermit(final ExtractorBuilder builder) throws IOException {
+            final CrawlExecutor executor = session.getExecutor();
+            try {
+                executor.acquire(CrawlExecutor.EXTRACTION);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for an extractor.", e);
+            }
+            try {
+                return builder.extract().getContent();
+            } finally {
+                executor.release(CrawlExecutor.EXTRACTION);
+            }
+        }
+
+        /**
+         * Returns the approximate size of the column values in this row.
+         * The size is counted in characters of the decoded values.
+         *
+         * @return the data size
+         */
+        public long getDataSize() {
+            return dataSize;
+        }
+
+        /**
+         * Returns the column values of this row in column order, without the data store parameters.
+         *
+         * @return the map of column labels to values
+         */
+        public Map<String, Object> getColumnValues() {
+            final Map<String, Object> values = new LinkedHashMap<>();
+            for (final String label : columnLabels) {
+                values.put(label, paramMap.get(label));
+            }
+            return values;
+        }
+
+        /**
+         * Checks if this row is logged by the row tracer of the session.
+         *
+         * @return true if the row is traced
+         */
+        public boolean isTraced() {
+            return traced;
+        }
+
+        /**
+         * Sets whether this row is logged by the row tracer of the session.
+         *
+         * @param traced true if the row is traced
+         */
+        public void setTraced(final boolean traced) {
+            this.traced = traced;
+        }
+
+        /**
+         * Merges the column values of another row of the same document.
+         * A column whose values differ becomes a list of the distinct values.
+         *
+         * @param other the other row
+         */
+        public void mergeRow(final ResultSetParamMap other) {
+            for (final String label : other.columnLabels) {
+                final Object value = other.paramMap.get(label);
+                final Object current = paramMap.get(label);
+                if (current == null) {
+                    paramMap.put(label, value);
+                    columnLabels.add(label);
+                } else if (current instanceof final MergedValues values) {
+                    addMergedValue(values, value);
+                } else if (!current.equals(value)) {
+                    final MergedValues values = new MergedValues();
+                    addMergedValue(values, current);
+                    addMergedValue(values, value);
+                    paramMap.put(label, values);
+                }
+            }
+            dataSize += other.dataSize;
+            reservedSize += other.reservedSize;
+            other.reservedSize = 0;
+        }
+
+        private static void addMergedValue(final MergedValues values, final Object value) {
+            if (value instanceof final List<?> list) {
+                for (final Object element : list) {
+                    if (!values.contains(element)) {
+                        values.add(element);
+                    }
+                }
+            } else if (!values.contains(value)) {
+                values.add(value);
+            }
+        }
+
         @Override
         public void clear() {
             paramMap.clear();
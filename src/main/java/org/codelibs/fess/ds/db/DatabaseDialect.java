@@ -0,0 +1,470 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.math.BigDecimal;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Vendor-specific settings that make a large result set stream instead of being loaded into memory,
+ * and the SQL syntax of previews, sampling and snapshots.
+ * A dialect is detected from the JDBC URL or the driver class name. Its streaming settings are applied
+ * only if the administrator enables them by "dialect", and only where they are not set by "info.*",
+ * "fetch_size" or "read_only".
+ */
+public enum DatabaseDialect {
+    /** PostgreSQL fetches rows with a cursor only when auto-commit is off and a fetch size is set. */
+    POSTGRESQL("postgresql", 1000) {
+        @Override
+        public void configureConnection(final Connection con) throws SQLException {
+            con.setAutoCommit(false);
+            con.setReadOnly(true);
+        }
+
+        @Override
+        public String exportSnapshot(final Connection con) throws SQLException {
+            con.setAutoCommit(false);
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            return queryString(con, "SELECT pg_export_snapshot()");
+        }
+
+        @Override
+        public boolean importSnapshot(final Connection con, final String snapshotId) throws SQLException {
+            con.setAutoCommit(false);
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            if (snapshotId != null) {
+                try (Statement stmt = con.createStatement()) {
+                    stmt.execute("SET TRANSACTION SNAPSHOT '" + snapshotId.replace("'", "''") + "'");
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String limitRows(final String sql, final long rows) {
+            return "SELECT * FROM (" + sql + ") preview_query LIMIT " + rows;
+        }
+
+        @Override
+        public String getTableSample(final double percent) {
+            return "TABLESAMPLE SYSTEM (" + toPlainString(percent) + ")";
+        }
+
+        @Override
+        public String getRandomFunction() {
+            return "random()";
+        }
+    },
+    /**
+     * MySQL fetches rows with a server-side cursor when "useCursorFetch" is on and a fetch size is set.
+     * Unlike the row-by-row streaming with {@link Integer#MIN_VALUE}, the connection can still run other statements.
+     */
+    MYSQL("mysql", 1000) {
+        @Override
+        public void configureProperties(final Properties info) {
+            info.putIfAbsent("useCursorFetch", "true");
+        }
+
+        @Override
+        public void configureConnection(final Connection con) throws SQLException {
+            con.setReadOnly(true);
+        }
+
+        @Override
+        public String limitRows(final String sql, final long rows) {
+            return "SELECT * FROM (" + sql + ") preview_query LIMIT " + rows;
+        }
+
+        @Override
+        public String getRandomFunction() {
+            return "RAND()";
+        }
+
+        @Override
+        public boolean importSnapshot(final Connection con, final String snapshotId) throws SQLException {
+            return startConsistentSnapshot(con);
+        }
+    },
+    /** MariaDB Connector/J streams rows when a positive fetch size is set. */
+    MARIADB("mariadb", 1000) {
+        @Override
+        public void configureConnection(final Connection con) throws SQLException {
+            con.setReadOnly(true);
+        }
+
+        @Override
+        public String limitRows(final String sql, final long rows) {
+            return "SELECT * FROM (" + sql + ") preview_query LIMIT " + rows;
+        }
+
+        @Override
+        public String getRandomFunction() {
+            return "RAND()";
+        }
+
+        @Override
+        public boolean importSnapshot(final Connection con, final String snapshotId) throws SQLException {
+            return startConsistentSnapshot(con);
+        }
+    },
+    /** Oracle prefetches rows and the beginning of LOBs in each round trip. */
+    ORACLE("oracle", 500) {
+        @Override
+        public void configureProperties(final Properties info) {
+            info.putIfAbsent("defaultRowPrefetch", "500");
+            info.putIfAbsent("oracle.jdbc.defaultLobPrefetchSize", "32768");
+        }
+
+        @Override
+        public String exportSnapshot(final Connection con) throws SQLException {
+            return queryString(con, "SELECT DBMS_FLASHBACK.GET_SYSTEM_CHANGE_NUMBER FROM DUAL");
+        }
+
+        @Override
+        public boolean importSnapshot(final Connection con, final String snapshotId) throws SQLException {
+            if (snapshotId == null) {
+                return false;
+            }
+            try (CallableStatement stmt = con.prepareCall("{call DBMS_FLASHBACK.ENABLE_AT_SYSTEM_CHANGE_NUMBER(?)}")) {
+                stmt.setLong(1, Long.parseLong(snapshotId));
+                stmt.execute();
+            }
+            return true;
+        }
+
+        @Override
+        public String limitRows(final String sql, final long rows) {
+            return "SELECT * FROM (" + sql + ") WHERE ROWNUM <= " + rows;
+        }
+
+        @Override
+        public String getTableSample(final double percent) {
+            return "SAMPLE (" + toPlainString(percent) + ")";
+        }
+
+        @Override
+        public String getRandomFunction() {
+            return "DBMS_RANDOM.VALUE";
+        }
+    },
+    /**
+     * SQL Server reads rows with a server cursor and adaptive buffering instead of the full response.
+     * A query with ORDER BY cannot be wrapped in a derived table, so rows are limited by the max rows of the statement.
+     */
+    SQLSERVER("sqlserver", 1000) {
+        @Override
+        public void configureProperties(final Properties info) {
+            info.putIfAbsent("responseBuffering", "adaptive");
+            info.putIfAbsent("selectMethod", "cursor");
+        }
+
+        @Override
+        public boolean importSnapshot(final Connection con, final String snapshotId) throws SQLException {
+            con.setTransactionIsolation(TRANSACTION_SNAPSHOT);
+            return true;
+        }
+
+        @Override
+        public String getTableSample(final double percent) {
+            return "TABLESAMPLE (" + toPlainString(percent) + " PERCENT)";
+        }
+    },
+    /** Db2 uses a fetch size with progressive streaming of LOBs. */
+    DB2("db2", 1000) {
+        @Override
+        public void configureProperties(final Properties info) {
+            info.putIfAbsent("progressiveStreaming", "1");
+        }
+
+        @Override
+        public String limitRows(final String sql, final long rows) {
+            return "SELECT * FROM (" + sql + ") preview_query FETCH FIRST " + rows + " ROWS ONLY";
+        }
+
+        @Override
+        public String getTableSample(final double percent) {
+            return "TABLESAMPLE SYSTEM (" + toPlainString(percent) + ")";
+        }
+
+        @Override
+        public String getRandomFunction() {
+            return "RAND()";
+        }
+    },
+    /** H2 and other embedded databases need no settings. */
+    H2("h2", 0) {
+        @Override
+        public String limitRows(final String sql, final long rows) {
+            return "SELECT * FROM (" + sql + ") preview_query LIMIT " + rows;
+        }
+
+        @Override
+        public String getRandomFunction() {
+            return "RAND()";
+        }
+    },
+    /** Any other database, to which no settings are applied. */
+    GENERIC("generic", 0);
+
+    /** Snapshot isolation level of SQL Server, which is not defined in {@link Connection}. */
+    public static final int TRANSACTION_SNAPSHOT = 4096;
+
+    /** Placeholder in SQL after a table name, replaced by the table sampling clause of a sampled crawl. */
+    public static final String SAMPLE_PLACEHOLDER = "{sample}";
+
+    private final String name;
+
+    private final int defaultFetchSize;
+
+    DatabaseDialect(final String name, final int defaultFetchSize) {
+        this.name = name;
+        this.defaultFetchSize = defaultFetchSize;
+    }
+
+    /**
+     * Detects the dialect from the JDBC URL, or from the driver class name if the URL is unknown.
+     *
+     * @param url the JDBC URL
+     * @param driverClass the JDBC driver class name
+     * @return the dialect, or {@link #GENERIC} if the database is unknown
+     */
+    public static DatabaseDialect detect(final String url, final String driverClass) {
+        if (url != null) {
+            final String value = url.trim().toLowerCase(Locale.ROOT);
+            if (value.startsWith("jdbc:")) {
+                final int end = value.indexOf(':', 5);
+                final String subprotocol = end > 0 ? value.substring(5, end) : value.substring(5);
+                final DatabaseDialect dialect = fromSubprotocol(subprotocol);
+                if (dialect != GENERIC) {
+                    return dialect;
+                }
+            }
+        }
+        if (driverClass != null) {
+            final String value = driverClass.toLowerCase(Locale.ROOT);
+            for (final DatabaseDialect dialect : values()) {
+                if (dialect != GENERIC && value.contains(dialect.name)) {
+                    return dialect;
+                }
+            }
+            if (value.contains("microsoft")) {
+                return SQLSERVER;
+            }
+        }
+        return GENERIC;
+    }
+
+    private static DatabaseDialect fromSubprotocol(final String subprotocol) {
+        return switch (subprotocol) {
+        case "postgresql", "pgsql" -> POSTGRESQL;
+        case "mysql" -> MYSQL;
+        case "mariadb" -> MARIADB;
+        case "oracle" -> ORACLE;
+        case "sqlserver", "jtds" -> SQLSERVER;
+        case "db2", "as400" -> DB2;
+        case "h2" -> H2;
+        default -> GENERIC;
+        };
+    }
+
+    /**
+     * Returns the dialect of a name.
+     *
+     * @param name the dialect name, such as "postgresql", or "none" for {@link #GENERIC}
+     * @return the dialect, or null if the name is unknown
+     */
+    public static DatabaseDialect of(final String name) {
+        if (name != null) {
+            final String value = name.trim();
+            if ("none".equalsIgnoreCase(value)) {
+                return GENERIC;
+            }
+            for (final DatabaseDialect dialect : values()) {
+                if (dialect.name.equalsIgnoreCase(value)) {
+                    return dialect;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the dialect name.
+     *
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the fetch size that makes the driver stream rows.
+     *
+     * @return the fetch size, or 0 to keep the driver default
+     */
+    public int getDefaultFetchSize() {
+        return defaultFetchSize;
+    }
+
+    /**
+     * Adds driver properties for streaming. Properties that are already set are kept.
+     *
+     * @param info the connection properties
+     */
+    public void configureProperties(final Properties info) {
+        // no properties by default
+    }
+
+    /**
+     * Configures a new connection for streaming reads.
+     *
+     * @param con the connection
+     * @throws SQLException if a database access error occurs
+     */
+    public void configureConnection(final Connection con) throws SQLException {
+        // no settings by default
+    }
+
+    /**
+     * Starts a snapshot on a coordinator connection and returns its ID, so other connections can share it.
+     * The connection must stay open while other connections use the snapshot.
+     *
+     * @param con the coordinator connection
+     * @return the snapshot ID, or null if snapshots cannot be shared between connections
+     * @throws SQLException if a database access error occurs
+     */
+    public String exportSnapshot(final Connection con) throws SQLException {
+        return null;
+    }
+
+    /**
+     * Makes a connection read a consistent snapshot.
+     * With a snapshot ID, the connection reads the same snapshot as the coordinator connection.
+     * Without one, the connection reads its own snapshot if the database supports it.
+     *
+     * @param con the connection
+     * @param snapshotId the snapshot ID returned by {@link #exportSnapshot(Connection)}, or null
+     * @return true if the connection reads a snapshot
+     * @throws SQLException if a database access error occurs
+     */
+    public boolean importSnapshot(final Connection con, final String snapshotId) throws SQLException {
+        return false;
+    }
+
+    /**
+     * Wraps a query to return its first rows.
+     *
+     * @param sql the query
+     * @param rows the maximum number of rows
+     * @return the wrapped query, or null if rows are limited only by {@link Statement#setMaxRows(int)}
+     */
+    public String limitRows(final String sql, final long rows) {
+        return null;
+    }
+
+    /**
+     * Returns the table sampling clause that reads a percentage of the rows of a table.
+     *
+     * @param percent the percentage of rows
+     * @return the clause, such as "TABLESAMPLE SYSTEM (10)", or null if table sampling is not supported
+     */
+    public String getTableSample(final double percent) {
+        return null;
+    }
+
+    /**
+     * Returns the SQL function that returns a random number between 0 and 1 for each row.
+     *
+     * @return the function, or null if the dialect has no portable random function
+     */
+    public String getRandomFunction() {
+        return null;
+    }
+
+    /**
+     * Rewrites a query to return a random sample of its rows.
+     * The table sampling clause replaces {@value #SAMPLE_PLACEHOLDER} in the query if both are available,
+     * and otherwise the query is wrapped with a filter by the random function.
+     *
+     * @param sql the query
+     * @param percent the percentage of rows
+     * @return the sampled query, or null if the rows must be sampled after they are read
+     */
+    public String sampleRows(final String sql, final double percent) {
+        final String tableSample = getTableSample(percent);
+        if (tableSample != null && sql.contains(SAMPLE_PLACEHOLDER)) {
+            return sql.replace(SAMPLE_PLACEHOLDER, tableSample);
+        }
+        final String randomFunction = getRandomFunction();
+        if (randomFunction == null) {
+            return null;
+        }
+        return "SELECT * FROM (" + sql.replace(SAMPLE_PLACEHOLDER, "") + ") preview_query WHERE " + randomFunction + " < "
+                + toPlainString(percent / 100);
+    }
+
+    private static String toPlainString(final double value) {
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Parses an isolation level, which is a name such as "read_committed" or "snapshot", or a number.
+     *
+     * @param value the isolation level
+     * @return the isolation level, or -1 if the value is invalid
+     */
+    public static int parseIsolationLevel(final String value) {
+        if (value == null) {
+            return -1;
+        }
+        return switch (value.trim().toLowerCase(Locale.ROOT).replace(' ', '_').replace('-', '_')) {
+        case "none" -> Connection.TRANSACTION_NONE;
+        case "read_uncommitted" -> Connection.TRANSACTION_READ_UNCOMMITTED;
+        case "read_committed" -> Connection.TRANSACTION_READ_COMMITTED;
+        case "repeatable_read" -> Connection.TRANSACTION_REPEATABLE_READ;
+        case "serializable" -> Connection.TRANSACTION_SERIALIZABLE;
+        case "snapshot" -> TRANSACTION_SNAPSHOT;
+        default -> {
+            try {
+                yield Integer.parseInt(value.trim());
+            } catch (final NumberFormatException e) {
+                yield -1;
+            }
+        }
+        };
+    }
+
+    private static boolean startConsistentSnapshot(final Connection con) throws SQLException {
+        con.setAutoCommit(false);
+        con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT");
+        }
+        return true;
+    }
+
+    private static String queryString(final Connection con, final String sql) throws SQLException {
+        try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Consistent snapshot of a database shared by the connections of a crawl.
+ * The coordinator connection keeps the snapshot alive, so that connections opened for retries
+ * and parallel queries read the same data without taking locks.
+ */
+public class DatabaseSnapshot implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(DatabaseSnapshot.class);
+
+    private final DatabaseDialect dialect;
+
+    private final Connection coordinator;
+
+    private final String snapshotId;
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param dialect the dialect of the database
+     * @param coordinator the connection that keeps the snapshot, or null if the snapshot is not shared
+     * @param snapshotId the snapshot ID, or null if each connection reads its own snapshot
+     */
+    public DatabaseSnapshot(final DatabaseDialect dialect, final Connection coordinator, final String snapshotId) {
+        this.dialect = dialect;
+        this.coordinator = coordinator;
+        this.snapshotId = snapshotId;
+    }
+
+    /**
+     * Starts a snapshot on a coordinator connection.
+     * If the database cannot share a snapshot, the connection is closed and each connection reads its own snapshot.
+     *
+     * @param dialect the dialect of the database
+     * @param coordinator the coordinator connection
+     * @return the snapshot
+     * @throws SQLException if a database access error occurs
+     */
+    public static DatabaseSnapshot export(final DatabaseDialect dialect, final Connection coordinator) throws SQLException {
+        final String snapshotId;
+        try {
+            snapshotId = dialect.exportSnapshot(coordinator);
+        } catch (final SQLException | RuntimeException e) {
+            closeQuietly(coordinator);
+            throw e;
+        }
+        if (snapshotId == null) {
+            closeQuietly(coordinator);
+            return new DatabaseSnapshot(dialect, null, null);
+        }
+        logger.info("Exported a {} snapshot: {}", dialect.getName(), snapshotId);
+        return new DatabaseSnapshot(dialect, coordinator, snapshotId);
+    }
+
+    /**
+     * Makes a connection read this snapshot.
+     *
+     * @param con the connection
+     * @return true if the connection reads a snapshot
+     * @throws SQLException if a database access error occurs
+     */
+    public boolean apply(final Connection con) throws SQLException {
+        return dialect.importSnapshot(con, snapshotId);
+    }
+
+    /**
+     * Returns the snapshot ID.
+     *
+     * @return the snapshot ID, or null if each connection reads its own snapshot
+     */
+    public String getSnapshotId() {
+        return snapshotId;
+    }
+
+    @Override
+    public void close() {
+        if (coordinator != null) {
+            try {
+                coordinator.rollback();
+            } catch (final SQLException e) {
+                logger.debug("Failed to end the snapshot transaction.", e);
+            }
+            closeQuietly(coordinator);
+        }
+    }
+
+    private static void closeQuietly(final Connection con) {
+        try {
+            con.close();
+        } catch (final SQLException e) {
+            logger.debug("Failed to close a connection.", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DatabaseSnapshot [dialect=" + dialect.getName() + ", snapshotId=" + snapshotId + "]";
+    }
+}
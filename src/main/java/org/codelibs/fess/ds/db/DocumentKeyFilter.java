@@ -0,0 +1,314 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Detects rows of the same document in a crawl.
+ * The document key is computed from key columns before the row is decoded, and the 128-bit digests of seen keys
+ * are kept in a primitive hash set, so duplicates are skipped at the cost of 16 to 32 bytes per document.
+ * A digest of 128 bits makes a collision of distinct keys, which would skip a distinct row, negligible
+ * even for billions of rows.
+ */
+public class DocumentKeyFilter {
+
+    /** Policies for rows whose key is already seen. */
+    public enum Policy {
+        /** Duplicate rows are skipped. */
+        SKIP,
+        /** Consecutive rows of the same key are merged into one document, and other duplicates are skipped. */
+        MERGE;
+
+        /**
+         * Returns the policy of a name.
+         *
+         * @param name the policy name
+         * @return the policy, or {@link #SKIP} if the name is unknown
+         */
+        public static Policy of(final String name) {
+            if (name != null && "merge".equals(name.trim().toLowerCase(Locale.ROOT))) {
+                return MERGE;
+            }
+            return SKIP;
+        }
+    }
+
+    /** 128-bit digest of the key column values of a row. */
+    public static final class Key {
+        private final long high;
+
+        private final long low;
+
+        /**
+         * Creates a key.
+         *
+         * @param high the upper 64 bits of the digest
+         * @param low the lower 64 bits of the digest
+         */
+        public Key(final long high, final long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        /**
+         * Returns the upper 64 bits of the digest.
+         *
+         * @return the upper bits
+         */
+        public long getHigh() {
+            return high;
+        }
+
+        /**
+         * Returns the lower 64 bits of the digest.
+         *
+         * @return the lower bits
+         */
+        public long getLow() {
+            return low;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof final Key other && high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high * 31 + low);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", high, low);
+        }
+    }
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final String DOC_KEY_COLUMNS_PARAM = "doc_key_columns";
+
+    private static final String DOC_KEY_POLICY_PARAM = "doc_key_policy";
+
+    private final List<String> columns;
+
+    private final Policy policy;
+
+    private final MessageDigest messageDigest;
+
+    // the high and low bits of a key are stored in adjacent slots
+    private long[] table = new long[2048];
+
+    private int size;
+
+    private boolean containsZero;
+
+    private long duplicateCount;
+
+    private long mergedCount;
+
+    /**
+     * Creates a filter.
+     *
+     * @param columns the labels of the key columns
+     * @param policy the policy for duplicate rows
+     */
+    public DocumentKeyFilter(final List<String> columns, final Policy policy) {
+        this.columns = columns;
+        this.policy = policy;
+        try {
+            this.messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    /**
+     * Creates a filter from the parameter map.
+     * "doc_key_columns" lists the comma-separated labels of the key columns, and "doc_key_policy" is "skip"
+     * to skip duplicate rows or "merge" to merge consecutive rows of the same key into one document.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the filter, or null if no key columns are specified
+     */
+    public static DocumentKeyFilter create(final DataStoreParams paramMap) {
+        final List<String> columns = CrawlParams.split(paramMap.getAsString(DOC_KEY_COLUMNS_PARAM));
+        if (columns.isEmpty()) {
+            return null;
+        }
+        return new DocumentKeyFilter(columns, Policy.of(paramMap.getAsString(DOC_KEY_POLICY_PARAM)));
+    }
+
+    /**
+     * Computes the key of the current row.
+     *
+     * @param rs the result set positioned on the row
+     * @return the 128-bit digest of the key column values
+     * @throws SQLException if a database access error occurs
+     */
+    public Key computeKey(final ResultSet rs) throws SQLException {
+        final String[] values = new String[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rs.getString(columns.get(i));
+        }
+        return computeKey(values);
+    }
+
+    /**
+     * Computes the key of column values.
+     *
+     * @param values the key column values
+     * @return the 128-bit digest of the values
+     */
+    public synchronized Key computeKey(final String... values) {
+        for (final String value : values) {
+            if (value == null) {
+                messageDigest.update((byte) 1);
+            } else {
+                messageDigest.update((byte) 0);
+                messageDigest.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+            messageDigest.update((byte) 0);
+        }
+        final byte[] digest = messageDigest.digest();
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = high << 8 | digest[i] & 0xff;
+            low = low << 8 | digest[i + 8] & 0xff;
+        }
+        return new Key(high, low);
+    }
+
+    /**
+     * Adds a key to the seen keys.
+     *
+     * @param key the key
+     * @return true if the key is not seen before
+     */
+    public synchronized boolean add(final Key key) {
+        final long high = key.high;
+        final long low = key.low;
+        if (high == 0 && low == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int index = indexOf(high, low, table);
+        while (table[index] != 0 || table[index + 1] != 0) {
+            if (table[index] == high && table[index + 1] == low) {
+                return false;
+            }
+            index = index + 2 & table.length - 1;
+        }
+        table[index] = high;
+        table[index + 1] = low;
+        if (++size > table.length / 2 * LOAD_FACTOR) {
+            resize();
+        }
+        return true;
+    }
+
+    private void resize() {
+        final long[] newTable = new long[table.length * 2];
+        for (int i = 0; i < table.length; i += 2) {
+            final long high = table[i];
+            final long low = table[i + 1];
+            if (high != 0 || low != 0) {
+                int index = indexOf(high, low, newTable);
+                while (newTable[index] != 0 || newTable[index + 1] != 0) {
+                    index = index + 2 & newTable.length - 1;
+                }
+                newTable[index] = high;
+                newTable[index + 1] = low;
+            }
+        }
+        table = newTable;
+    }
+
+    private static int indexOf(final long high, final long low, final long[] table) {
+        final long hash = (high ^ low) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32) & table.length - 2;
+    }
+
+    /**
+     * Returns the policy for duplicate rows.
+     *
+     * @return the policy
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Records a skipped duplicate row.
+     */
+    public synchronized void recordDuplicate() {
+        duplicateCount++;
+    }
+
+    /**
+     * Records a row merged into the previous row.
+     */
+    public synchronized void recordMerged() {
+        mergedCount++;
+    }
+
+    /**
+     * Returns the number of seen keys.
+     *
+     * @return the number of keys
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of skipped duplicate rows.
+     *
+     * @return the duplicate count
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Returns the number of rows merged into the previous row.
+     *
+     * @return the merged count
+     */
+    public synchronized long getMergedCount() {
+        return mergedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DocumentKeyFilter [columns=" + columns + ", policy=" + policy + ", keys=" + size + ", duplicates=" + duplicateCount
+                + ", merged=" + mergedCount + "]";
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.exception.DataStoreException;
+
+/**
+ * On-disk cache of text extracted from binary content.
+ * Entries are keyed by a digest of the binary content and the extraction hint, such as the mimetype,
+ * and stored as files in a directory, so they are kept between crawls.
+ * The total size of entries is bounded and the least recently used entries are evicted first.
+ */
+public class ExtractedContentCache {
+    private static final Logger logger = LogManager.getLogger(ExtractedContentCache.class);
+
+    /** Prefix of parameters that specify the signature column of a content column, "content_signature.[label]". */
+    public static final String CONTENT_SIGNATURE_PREFIX = "content_signature.";
+
+    /** Parameter of the comma-separated columns that identify a row, which scope content signatures. */
+    public static final String CONTENT_SIGNATURE_KEY_PARAM = "content_signature_key";
+
+    private static final String CONTENT_SIGNATURE_UNIQUE_PARAM = "content_signature_unique";
+
+    private static final String EXTRACT_CACHE_DIR_PARAM = "extract_cache_dir";
+
+    private static final String EXTRACT_CACHE_MAX_SIZE_PARAM = "extract_cache_max_size";
+
+    private static final long DEFAULT_EXTRACT_CACHE_MAX_SIZE = 1024L * 1024L * 1024L;
+
+    private static final Map<Path, ExtractedContentCache> INSTANCES = new ConcurrentHashMap<>();
+
+    private static final String ENTRY_SUFFIX = ".txt";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    private final LinkedHashMap<String, Long> entryMap = new LinkedHashMap<>(16, 0.75f, true);
+
+    private volatile long maxSize;
+
+    private long totalSize;
+
+    private long hitCount;
+
+    private long missCount;
+
+    /**
+     * Creates a cache in the directory and loads the existing entries.
+     *
+     * @param directory the cache directory
+     * @param maxSize the maximum total size of entries in bytes
+     * @throws IOException if the directory cannot be read
+     */
+    public ExtractedContentCache(final Path directory, final long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * Returns the cache for the directory shared in this process.
+     *
+     * @param directory the cache directory
+     * @param maxSize the maximum total size of entries in bytes
+     * @return the cache
+     */
+    public static ExtractedContentCache getInstance(final Path directory, final long maxSize) {
+        final ExtractedContentCache cache = INSTANCES.computeIfAbsent(directory.toAbsolutePath().normalize(), dir -> {
+            try {
+                return new ExtractedContentCache(dir, maxSize);
+            } catch (final IOException e) {
+                throw new IllegalStateException("Failed to open an extracted content cache in " + dir, e);
+            }
+        });
+        cache.setMaxSize(maxSize);
+        return cache;
+    }
+
+    /**
+     * Returns the cache specified by "extract_cache_dir" and "extract_cache_max_size".
+     * The cache is shared by the crawls that use the same directory.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the cache, or null if not specified
+     */
+    public static ExtractedContentCache create(final DataStoreParams paramMap) {
+        final String cacheDir = CrawlParams.getAsTrimmedString(paramMap, EXTRACT_CACHE_DIR_PARAM);
+        if (cacheDir == null) {
+            return null;
+        }
+        final long maxSize = CrawlParams.getAsLong(paramMap, EXTRACT_CACHE_MAX_SIZE_PARAM, DEFAULT_EXTRACT_CACHE_MAX_SIZE);
+        return getInstance(Path.of(cacheDir), maxSize);
+    }
+
+    /**
+     * Checks that the content signatures specified by "content_signature.[label]" identify the content across rows.
+     * A signature such as a version or a timestamp is unique only within a row, so "content_signature_key" must
+     * specify the comma-separated columns that identify the row, such as the primary key, unless
+     * "content_signature_unique" is true because the signature is unique across rows, such as a hash of the content.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @throws DataStoreException if a content signature is specified without a row key
+     */
+    public static void checkSignatures(final DataStoreParams paramMap) {
+        if (StringUtil.isNotBlank(paramMap.getAsString(CONTENT_SIGNATURE_KEY_PARAM))
+                || CrawlParams.getAsBoolean(paramMap, CONTENT_SIGNATURE_UNIQUE_PARAM)) {
+            return;
+        }
+        for (final String key : paramMap.asMap().keySet()) {
+            if (key.startsWith(CONTENT_SIGNATURE_PREFIX)) {
+                throw new DataStoreException(key + " requires " + CONTENT_SIGNATURE_KEY_PARAM + ", or " + CONTENT_SIGNATURE_UNIQUE_PARAM
+                        + "=true if the signature is unique across rows.");
+            }
+        }
+    }
+
+    /**
+     * Creates a cache key from the digest of binary content and the extraction hint.
+     *
+     * @param digest the digest of the binary content
+     * @param hint the extraction hint, such as the mimetype
+     * @return the cache key
+     */
+    public static String createKey(final byte[] digest, final String hint) {
+        try {
+            final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(digest);
+            messageDigest.update((byte) 0);
+            if (hint != null) {
+                messageDigest.update(hint.getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(messageDigest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    /**
+     * Creates a cache key from a signature of binary content computed outside of the crawler,
+     * such as a checksum column or a version column, so that content is looked up without being read.
+     * The signature must identify the content within the scope.
+     *
+     * @param scope the scope of the signature, such as the data config and the column
+     * @param signature the signature of the content
+     * @param hint the extraction hint, such as the mimetype
+     * @return the cache key
+     */
+    public static String createSignatureKey(final String scope, final String signature, final String hint) {
+        return createKey(("signature:" + scope + '\0' + signature).getBytes(StandardCharsets.UTF_8), hint);
+    }
+
+    /**
+     * Returns the cached text.
+     *
+     * @param key the cache key
+     * @return the text, or null if not cached
+     */
+    public String get(final String key) {
+        synchronized (this) {
+            // get() moves the entry to the most recently used position
+            if (entryMap.get(key) == null) {
+                missCount++;
+                return null;
+            }
+        }
+        final Path path = getPath(key);
+        try {
+            final String content = Files.readString(path, StandardCharsets.UTF_8);
+            // the modified time keeps the LRU order for the next crawl
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            synchronized (this) {
+                hitCount++;
+            }
+            return content;
+        } catch (final NoSuchFileException e) {
+            logger.debug("{} is evicted.", path, e);
+        } catch (final IOException e) {
+            logger.warn("Failed to read {}.", path, e);
+        }
+        synchronized (this) {
+            removeEntry(key);
+            missCount++;
+        }
+        return null;
+    }
+
+    /**
+     * Stores the text in the cache.
+     *
+     * @param key the cache key
+     * @param content the text
+     */
+    public void put(final String key, final String content) {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxSize) {
+            return;
+        }
+        final Path path = getPath(key);
+        Path tempFile = null;
+        try {
+            Files.createDirectories(path.getParent());
+            tempFile = Files.createTempFile(path.getParent(), key, TEMP_SUFFIX);
+            Files.write(tempFile, bytes);
+            synchronized (this) {
+                try {
+                    Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (final AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                tempFile = null;
+                final Long oldSize = entryMap.put(key, (long) bytes.length);
+                totalSize += bytes.length - (oldSize != null ? oldSize : 0L);
+                evict();
+            }
+        } catch (final IOException e) {
+            logger.warn("Failed to write {}.", path, e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (final IOException e) {
+                    logger.debug("Failed to delete {}.", tempFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes the maximum total size of entries.
+     *
+     * @param maxSize the maximum total size in bytes
+     */
+    public synchronized void setMaxSize(final long maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Returns the total size of entries.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entryMap.size();
+    }
+
+    /**
+     * Returns the number of cache hits.
+     *
+     * @return the hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return the miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> iterator = entryMap.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            totalSize -= entry.getValue();
+            deleteQuietly(getPath(entry.getKey()));
+        }
+    }
+
+    private void removeEntry(final String key) {
+        final Long size = entryMap.remove(key);
+        if (size != null) {
+            totalSize -= size;
+        }
+    }
+
+    private void load() throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        try (Stream<Path> stream = Files.walk(directory, 2)) {
+            stream.filter(Files::isRegularFile).forEach(path -> {
+                final String name = path.getFileName().toString();
+                if (name.endsWith(ENTRY_SUFFIX)) {
+                    paths.add(path);
+                } else if (name.endsWith(TEMP_SUFFIX)) {
+                    deleteQuietly(path);
+                }
+            });
+        }
+        paths.sort(Comparator.comparing(path -> {
+            try {
+                return Files.getLastModifiedTime(path);
+            } catch (final IOException e) {
+                return FileTime.fromMillis(0L);
+            }
+        }));
+        synchronized (this) {
+            for (final Path path : paths) {
+                final String name = path.getFileName().toString();
+                try {
+                    final long size = Files.size(path);
+                    entryMap.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), size);
+                    totalSize += size;
+                } catch (final IOException e) {
+                    logger.debug("Failed to read the size of {}.", path, e);
+                }
+            }
+            evict();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loaded {} entries ({} bytes) from {}", entryMap.size(), totalSize, directory);
+        }
+    }
+
+    private Path getPath(final String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+    }
+
+    private static void deleteQuietly(final Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (final IOException e) {
+            logger.debug("Failed to delete {}.", path, e);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ExtractedContentCache [directory=" + directory + ", entries=" + entryMap.size() + ", totalSize=" + totalSize
+                + ", maxSize=" + maxSize + ", hits=" + hitCount + ", misses=" + missCount + "]";
+    }
+}
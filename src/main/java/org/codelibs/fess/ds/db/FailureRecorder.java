@@ -0,0 +1,295 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.app.service.FailureUrlService;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.opensearch.config.exentity.CrawlingConfig;
+
+/**
+ * Buffers failures of a database crawl and writes a capped sample of them to {@link FailureUrlService}.
+ * Failures are grouped by a signature made of the error name and the throwing stack frame,
+ * and only a few sample URLs are written for each signature, one store call per sample URL,
+ * because {@link FailureUrlService} has no bulk API. The other failures are counted and logged as dropped.
+ * It also works as a circuit breaker that trips when the failure rate over a sliding window
+ * of rows exceeds the limit.
+ */
+public class FailureRecorder {
+    private static final Logger logger = LogManager.getLogger(FailureRecorder.class);
+
+    private static final String FAILURE_BUFFER_SIZE_PARAM = "failure_buffer_size";
+
+    private static final String FAILURE_SAMPLES_PARAM = "failure_samples_per_signature";
+
+    private static final String FAILURE_WINDOW_SIZE_PARAM = "failure_window_size";
+
+    private static final String MAX_FAILURE_RATE_PARAM = "max_failure_rate";
+
+    private static final int DEFAULT_FAILURE_BUFFER_SIZE = 100;
+
+    private static final int DEFAULT_FAILURE_SAMPLES = 3;
+
+    private static final int DEFAULT_FAILURE_WINDOW_SIZE = 1000;
+
+    private final CrawlingConfig config;
+
+    private final Supplier<FailureUrlService> failureUrlServiceSupplier;
+
+    private final int bufferSize;
+
+    private final int samplesPerSignature;
+
+    private final boolean[] window;
+
+    private final double maxFailureRate;
+
+    private final Map<String, FailureGroup> groupMap = new LinkedHashMap<>();
+
+    private final Map<String, Long> totalCountMap = new LinkedHashMap<>();
+
+    private int windowIndex;
+
+    private int windowCount;
+
+    private int windowFailures;
+
+    private long failureCount;
+
+    private long droppedCount;
+
+    private boolean tripped;
+
+    /**
+     * Creates a failure recorder.
+     *
+     * @param config the crawling configuration
+     * @param failureUrlServiceSupplier the supplier of the failure URL service
+     * @param bufferSize the number of signatures buffered before writing
+     * @param samplesPerSignature the number of URLs written for each signature
+     * @param windowSize the number of rows in the sliding window of the circuit breaker
+     * @param maxFailureRate the failure rate in percent that trips the circuit breaker, or 0 or less to disable it
+     */
+    public FailureRecorder(final CrawlingConfig config, final Supplier<FailureUrlService> failureUrlServiceSupplier, final int bufferSize,
+            final int samplesPerSignature, final int windowSize, final double maxFailureRate) {
+        this.config = config;
+        this.failureUrlServiceSupplier = failureUrlServiceSupplier;
+        this.bufferSize = Math.max(bufferSize, 1);
+        this.samplesPerSignature = Math.max(samplesPerSignature, 1);
+        this.window = new boolean[Math.max(windowSize, 1)];
+        this.maxFailureRate = maxFailureRate;
+    }
+
+    /**
+     * Creates a failure recorder from the parameter map.
+     * Failures are written in bulk when "failure_buffer_size" signatures are buffered, with at most
+     * "failure_samples_per_signature" URLs for each signature. If "max_failure_rate" (percent) is set,
+     * the crawl is aborted when the failure rate over the last "failure_window_size" rows exceeds it.
+     *
+     * @param config the crawling configuration
+     * @param failureUrlServiceSupplier the supplier of the failure URL service
+     * @param paramMap the parameter map containing configuration
+     * @return the failure recorder
+     */
+    public static FailureRecorder create(final CrawlingConfig config, final Supplier<FailureUrlService> failureUrlServiceSupplier,
+            final DataStoreParams paramMap) {
+        return new FailureRecorder(config, failureUrlServiceSupplier,
+                CrawlParams.getAsInt(paramMap, FAILURE_BUFFER_SIZE_PARAM, DEFAULT_FAILURE_BUFFER_SIZE),
+                CrawlParams.getAsInt(paramMap, FAILURE_SAMPLES_PARAM, DEFAULT_FAILURE_SAMPLES),
+                CrawlParams.getAsInt(paramMap, FAILURE_WINDOW_SIZE_PARAM, DEFAULT_FAILURE_WINDOW_SIZE),
+                CrawlParams.getAsDouble(paramMap, MAX_FAILURE_RATE_PARAM, 0));
+    }
+
+    /**
+     * Records a row that is processed successfully.
+     */
+    public synchronized void recordSuccess() {
+        updateWindow(false);
+    }
+
+    /**
+     * Records a failure of a row.
+     *
+     * @param errorName the error name
+     * @param url the URL of the row
+     * @param t the failure
+     * @return true if it is the first failure with its signature in this crawl
+     */
+    public boolean recordFailure(final String errorName, final String url, final Throwable t) {
+        final String signature = getSignature(errorName, t);
+        final boolean first;
+        final boolean full;
+        synchronized (this) {
+            failureCount++;
+            updateWindow(true);
+            first = totalCountMap.merge(signature, 1L, Long::sum) == 1L;
+            final FailureGroup group = groupMap.computeIfAbsent(signature, k -> new FailureGroup(errorName));
+            group.count++;
+            if (group.urls.size() < samplesPerSignature) {
+                group.urls.add(url);
+                group.throwables.add(t);
+            }
+            full = groupMap.size() >= bufferSize;
+        }
+        if (full) {
+            flush();
+        }
+        return first;
+    }
+
+    /**
+     * Writes the sample URLs of the buffered failures to the failure URL service.
+     * The failures beyond the samples of each signature are not written, and their number is logged.
+     */
+    public void flush() {
+        final List<FailureGroup> groups;
+        synchronized (this) {
+            if (groupMap.isEmpty()) {
+                return;
+            }
+            groups = new ArrayList<>(groupMap.values());
+            groupMap.clear();
+            for (final FailureGroup group : groups) {
+                droppedCount += group.count - group.urls.size();
+            }
+        }
+        final FailureUrlService failureUrlService = failureUrlServiceSupplier.get();
+        for (final FailureGroup group : groups) {
+            final long dropped = group.count - group.urls.size();
+            if (dropped > 0) {
+                logger.warn("{} failures with {} since the last flush. Storing {} sample URLs and dropping {}: {}", group.count,
+                        group.errorName, group.urls.size(), dropped, group.urls);
+            }
+            for (int i = 0; i < group.urls.size(); i++) {
+                try {
+                    failureUrlService.store(config, group.errorName, group.urls.get(i), group.throwables.get(i));
+                } catch (final Exception e) {
+                    logger.warn("Failed to store a failure URL: {}", group.urls.get(i), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the circuit breaker is tripped.
+     *
+     * @return true if the failure rate exceeds the limit
+     */
+    public synchronized boolean isTripped() {
+        return tripped;
+    }
+
+    /**
+     * Returns the number of failures in this crawl.
+     *
+     * @return the failure count
+     */
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns the number of failures not written to the failure URL service because they exceed the samples of their signature.
+     *
+     * @return the dropped count
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns the number of failures for each signature in this crawl.
+     *
+     * @return the map of signatures to failure counts
+     */
+    public synchronized Map<String, Long> getFailureCounts() {
+        return new LinkedHashMap<>(totalCountMap);
+    }
+
+    /**
+     * Returns the failure rate over the sliding window.
+     *
+     * @return the failure rate in percent
+     */
+    public synchronized double getWindowFailureRate() {
+        return windowCount == 0 ? 0 : windowFailures * 100.0 / windowCount;
+    }
+
+    /**
+     * Returns the signature of a failure.
+     * The signature is the error name and the first stack frame of the root cause,
+     * so failures thrown from the same place are grouped regardless of their messages.
+     *
+     * @param errorName the error name
+     * @param t the failure
+     * @return the signature
+     */
+    protected String getSignature(final String errorName, final Throwable t) {
+        Throwable root = t;
+        while (root != null && root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        final StringBuilder buf = new StringBuilder(errorName);
+        if (root != null) {
+            buf.append('|').append(root.getClass().getName());
+            final StackTraceElement[] stackTrace = root.getStackTrace();
+            if (stackTrace.length > 0) {
+                buf.append('@').append(stackTrace[0]);
+            }
+        }
+        return buf.toString();
+    }
+
+    private void updateWindow(final boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+        if (!tripped && maxFailureRate > 0 && windowCount == window.length && windowFailures * 100.0 / windowCount > maxFailureRate) {
+            tripped = true;
+            logger.error("Circuit breaker tripped: {} failures in the last {} rows.", windowFailures, windowCount);
+        }
+    }
+
+    private static class FailureGroup {
+        private final String errorName;
+
+        private final List<String> urls = new ArrayList<>();
+
+        private final List<Throwable> throwables = new ArrayList<>();
+
+        private long count;
+
+        FailureGroup(final String errorName) {
+            this.errorName = errorName;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Watches the health of the index through the latency and the errors of the index update callback,
+ * and slows down reading rows when the index is under pressure.
+ * The read rate is adjusted per window of stored documents: it is halved when the average latency grows
+ * beyond its baseline or the error rate exceeds the limit, and raised step by step while the index is healthy.
+ * The baseline follows faster windows halfway and drifts up toward slower ones, so a window that happens
+ * to be fast, such as one without a bulk request, does not throttle the following windows.
+ * An error that signals an overload of the index, such as a rejected bulk request, pauses reading for a while,
+ * and reading resumes when the pause is over.
+ */
+public class IngestMonitor {
+    private static final Logger logger = LogManager.getLogger(IngestMonitor.class);
+
+    private static final String INGEST_BACKPRESSURE_PARAM = "ingest_backpressure";
+
+    private static final String INGEST_WINDOW_SIZE_PARAM = "ingest_window_size";
+
+    private static final String INGEST_LATENCY_TOLERANCE_PARAM = "ingest_latency_tolerance";
+
+    private static final String INGEST_MAX_ERROR_RATE_PARAM = "ingest_max_error_rate";
+
+    private static final String INGEST_PAUSE_TIME_PARAM = "ingest_pause_time";
+
+    private static final int DEFAULT_INGEST_WINDOW_SIZE = 100;
+
+    private static final double DEFAULT_INGEST_LATENCY_TOLERANCE = 3.0;
+
+    private static final double DEFAULT_INGEST_MAX_ERROR_RATE = 5.0;
+
+    private static final long DEFAULT_INGEST_PAUSE_TIME = 30000L;
+
+    private static final double MIN_FACTOR = 0.05;
+
+    private static final double DECREASE_RATIO = 0.5;
+
+    private static final double INCREASE_STEP = 0.1;
+
+    private static final double BASELINE_ALPHA = 0.5;
+
+    private static final double BASELINE_DRIFT = 0.1;
+
+    private static final long MAX_SLEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final String[] OVERLOAD_PATTERNS = { "rejected_execution_exception", "rejectedexecution", "circuit_breaking_exception",
+            "circuitbreaking", "too many requests", "status=429", "too_many_requests" };
+
+    private final int windowSize;
+
+    private final double latencyTolerance;
+
+    private final double maxErrorRate;
+
+    private final long pauseNanos;
+
+    private int windowCount;
+
+    private int windowErrors;
+
+    private long windowLatency;
+
+    private long windowStartTime;
+
+    private double latencyBaseline;
+
+    private double factor = 1.0;
+
+    private double referenceRate;
+
+    private long pausedUntil;
+
+    private boolean paused;
+
+    private long pauseCount;
+
+    private long decreaseCount;
+
+    /**
+     * Creates an ingest monitor.
+     *
+     * @param windowSize the number of stored documents evaluated at a time
+     * @param latencyTolerance the ratio of the store latency to its baseline that slows down reading
+     * @param maxErrorRate the error rate in percent that slows down reading
+     * @param pauseTime the time in milliseconds reading is paused when the index signals an overload
+     */
+    public IngestMonitor(final int windowSize, final double latencyTolerance, final double maxErrorRate, final long pauseTime) {
+        this.windowSize = Math.max(windowSize, 1);
+        this.latencyTolerance = latencyTolerance > 1.0 ? latencyTolerance : 1.0;
+        this.maxErrorRate = maxErrorRate;
+        this.pauseNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(pauseTime, 0L));
+    }
+
+    /**
+     * Creates an ingest monitor from the parameter map.
+     * If "ingest_backpressure" is true, the read rate is halved when the latency of the index update callback
+     * over "ingest_window_size" documents exceeds "ingest_latency_tolerance" times its baseline or the error rate
+     * exceeds "ingest_max_error_rate" (percent), and reading is paused for "ingest_pause_time" ms when the index
+     * rejects documents because of an overload.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the ingest monitor, or null if not enabled
+     */
+    public static IngestMonitor create(final DataStoreParams paramMap) {
+        if (!CrawlParams.getAsBoolean(paramMap, INGEST_BACKPRESSURE_PARAM)) {
+            return null;
+        }
+        return new IngestMonitor(CrawlParams.getAsInt(paramMap, INGEST_WINDOW_SIZE_PARAM, DEFAULT_INGEST_WINDOW_SIZE),
+                CrawlParams.getAsDouble(paramMap, INGEST_LATENCY_TOLERANCE_PARAM, DEFAULT_INGEST_LATENCY_TOLERANCE),
+                CrawlParams.getAsDouble(paramMap, INGEST_MAX_ERROR_RATE_PARAM, DEFAULT_INGEST_MAX_ERROR_RATE),
+                CrawlParams.getAsLong(paramMap, INGEST_PAUSE_TIME_PARAM, DEFAULT_INGEST_PAUSE_TIME));
+    }
+
+    /**
+     * Records a call of the index update callback.
+     *
+     * @param nanos the time spent in the callback in nanoseconds
+     * @param failure the error thrown by the callback, or null if the document is stored
+     */
+    public synchronized void recordStore(final long nanos, final Throwable failure) {
+        final long now = System.nanoTime();
+        if (windowCount == 0) {
+            windowStartTime = now - nanos;
+        }
+        windowCount++;
+        windowLatency += nanos;
+        if (failure != null) {
+            windowErrors++;
+            if (isOverload(failure)) {
+                pause(now, failure);
+            }
+        }
+        if (windowCount >= windowSize) {
+            evaluate(now);
+        }
+    }
+
+    private void evaluate(final long now) {
+        final double latencyAverage = (double) windowLatency / windowCount;
+        final double errorRate = windowErrors * 100.0 / windowCount;
+        final long elapsed = now - windowStartTime;
+        final double rate = elapsed > 0 ? windowCount * 1_000_000_000.0 / elapsed : 0;
+        final boolean healthy = errorRate <= maxErrorRate;
+        final boolean slow = latencyBaseline > 0 && latencyAverage > latencyBaseline * latencyTolerance;
+        if (healthy) {
+            if (latencyBaseline <= 0) {
+                latencyBaseline = latencyAverage;
+            } else if (latencyAverage < latencyBaseline) {
+                latencyBaseline += (latencyAverage - latencyBaseline) * BASELINE_ALPHA;
+            } else {
+                latencyBaseline += (latencyAverage - latencyBaseline) * BASELINE_DRIFT;
+            }
+        }
+        if (!healthy || slow) {
+            decrease(rate);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Index is under pressure: latency={}ms, errorRate={}%, factor={}", latencyAverage / 1_000_000.0, errorRate,
+                        factor);
+            }
+        } else if (factor < 1.0) {
+            factor = Math.min(factor + INCREASE_STEP, 1.0);
+            if (factor >= 1.0) {
+                referenceRate = 0;
+                logger.info("Index is healthy again. Reading at full speed.");
+            }
+        }
+        windowCount = 0;
+        windowErrors = 0;
+        windowLatency = 0;
+    }
+
+    private void decrease(final double rate) {
+        if (factor >= 1.0 || referenceRate <= 0) {
+            // the rate at full speed is the reference of the reduced rates
+            referenceRate = rate;
+        }
+        factor = Math.max(factor * DECREASE_RATIO, MIN_FACTOR);
+        decreaseCount++;
+    }
+
+    private void pause(final long now, final Throwable failure) {
+        if (!paused || now - pausedUntil >= 0) {
+            logger.warn("Index is overloaded. Pausing reading for {}ms: {}", TimeUnit.NANOSECONDS.toMillis(pauseNanos),
+                    failure.getMessage());
+            pauseCount++;
+            decrease(windowCount > 0 && now > windowStartTime ? windowCount * 1_000_000_000.0 / (now - windowStartTime) : 0);
+        }
+        paused = true;
+        pausedUntil = now + pauseNanos;
+    }
+
+    /**
+     * Checks if an error of the index update callback signals an overload of the index,
+     * such as a rejected execution, a tripped circuit breaker or an HTTP 429 response.
+     *
+     * @param failure the error
+     * @return true if the index is overloaded
+     */
+    protected static boolean isOverload(final Throwable failure) {
+        Throwable t = failure;
+        for (int depth = 0; t != null && depth < 10; depth++) {
+            final String text = (t.getClass().getSimpleName() + " " + t.getMessage()).toLowerCase(Locale.ROOT);
+            for (final String pattern : OVERLOAD_PATTERNS) {
+                if (text.contains(pattern)) {
+                    return true;
+                }
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+            t = t.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ratio of the current read rate to the read rate at full speed.
+     *
+     * @return the factor between 0 and 1, where 1 means full speed
+     */
+    public synchronized double getFactor() {
+        return factor;
+    }
+
+    /**
+     * Returns the remaining time of the current pause.
+     *
+     * @return the time in nanoseconds, or 0 if reading is not paused
+     */
+    public synchronized long getPauseNanos() {
+        if (!paused) {
+            return 0;
+        }
+        final long remaining = pausedUntil - System.nanoTime();
+        if (remaining <= 0) {
+            paused = false;
+            logger.info("Resuming reading after an index overload. factor={}", factor);
+            return 0;
+        }
+        return remaining;
+    }
+
+    /**
+     * Returns the delay before reading the next row at the reduced rate.
+     *
+     * @return the delay in nanoseconds, or 0 if reading at full speed
+     */
+    public synchronized long getDelayNanos() {
+        if (factor >= 1.0 || referenceRate <= 0) {
+            return 0;
+        }
+        return (long) (1_000_000_000.0 / (referenceRate * factor));
+    }
+
+    /**
+     * Waits while reading is paused and then for the delay of the reduced rate.
+     *
+     * @param running returns false when the crawl is stopped, which ends the wait
+     * @return the time spent waiting in nanoseconds
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public long await(final BooleanSupplier running) throws InterruptedException {
+        final long startTime = System.nanoTime();
+        long pause;
+        while ((pause = getPauseNanos()) > 0 && running.getAsBoolean()) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(pause, MAX_SLEEP_NANOS));
+        }
+        final long delay = getDelayNanos();
+        if (delay > 0 && running.getAsBoolean()) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(delay, MAX_SLEEP_NANOS));
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Returns the number of pauses caused by index overloads.
+     *
+     * @return the number of pauses
+     */
+    public synchronized long getPauseCount() {
+        return pauseCount;
+    }
+
+    /**
+     * Returns the number of times the read rate is lowered.
+     *
+     * @return the number of decreases
+     */
+    public synchronized long getDecreaseCount() {
+        return decreaseCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IngestMonitor [factor=" + factor + ", latencyBaseline=" + latencyBaseline / 1_000_000.0 + "ms, referenceRate="
+                + referenceRate + ", pauses=" + pauseCount + ", decreases=" + decreaseCount + "]";
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Field mapping scripts compiled once per crawl.
+ * The fields are ordered so that a script reading another field through "doc" is evaluated after it,
+ * the default values are flattened into arrays, and documents are created with the capacity of the largest
+ * document seen so far, so building a document is a fill of a pre-sized map.
+ */
+public class MappingPlan {
+    private static final Logger logger = LogManager.getLogger(MappingPlan.class);
+
+    private static final Pattern DOC_REFERENCE_PATTERN = Pattern.compile("\\bdoc\\s*(?:\\.\\s*get\\s*\\(\\s*['\"]([^'\"]+)['\"]\\s*\\)"
+            + "|\\[\\s*['\"]([^'\"]+)['\"]\\s*\\]|\\.\\s*(\\w+))");
+
+    private final String[] fields;
+
+    private final String[] scripts;
+
+    private final String[] defaultKeys;
+
+    private final Object[] defaultValues;
+
+    private volatile int expectedSize;
+
+    /**
+     * Creates a mapping plan.
+     *
+     * @param scriptMap the field mapping scripts
+     * @param defaultDataMap the default values of documents
+     */
+    public MappingPlan(final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap) {
+        final Map<String, String> scripts = scriptMap != null ? scriptMap : Collections.emptyMap();
+        final Map<String, Object> defaults = defaultDataMap != null ? defaultDataMap : Collections.emptyMap();
+        final List<String> orderedFields = orderFields(scripts);
+        this.fields = orderedFields.toArray(new String[orderedFields.size()]);
+        this.scripts = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            this.scripts[i] = scripts.get(fields[i]);
+        }
+        this.defaultKeys = defaults.keySet().toArray(new String[defaults.size()]);
+        this.defaultValues = new Object[defaultKeys.length];
+        final Set<String> keys = new HashSet<>(Arrays.asList(fields));
+        for (int i = 0; i < defaultKeys.length; i++) {
+            defaultValues[i] = defaults.get(defaultKeys[i]);
+            keys.add(defaultKeys[i]);
+        }
+        this.expectedSize = keys.size();
+    }
+
+    /**
+     * Orders fields so that fields referenced by other scripts through "doc" are evaluated first.
+     * Fields keep the order of the script map unless a reference requires otherwise, and fields in a circular
+     * reference keep the order of the script map.
+     *
+     * @param scriptMap the field mapping scripts
+     * @return the fields in the evaluation order
+     */
+    protected static List<String> orderFields(final Map<String, String> scriptMap) {
+        final Map<String, Set<String>> dependencyMap = new LinkedHashMap<>();
+        for (final Map.Entry<String, String> entry : scriptMap.entrySet()) {
+            final Set<String> dependencies = new HashSet<>();
+            if (entry.getValue() != null) {
+                final Matcher matcher = DOC_REFERENCE_PATTERN.matcher(entry.getValue());
+                while (matcher.find()) {
+                    String name = matcher.group(1);
+                    if (name == null) {
+                        name = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+                    }
+                    if (!name.equals(entry.getKey()) && scriptMap.containsKey(name)) {
+                        dependencies.add(name);
+                    }
+                }
+            }
+            dependencyMap.put(entry.getKey(), dependencies);
+        }
+
+        final List<String> orderedFields = new ArrayList<>(dependencyMap.size());
+        final Set<String> done = new HashSet<>();
+        while (orderedFields.size() < dependencyMap.size()) {
+            String next = null;
+            for (final Map.Entry<String, Set<String>> entry : dependencyMap.entrySet()) {
+                if (!done.contains(entry.getKey()) && done.containsAll(entry.getValue())) {
+                    next = entry.getKey();
+                    break;
+                }
+            }
+            if (next == null) {
+                for (final String field : dependencyMap.keySet()) {
+                    if (!done.contains(field)) {
+                        next = field;
+                        break;
+                    }
+                }
+                logger.warn("{} is in a circular reference of fields.", next);
+            }
+            orderedFields.add(next);
+            done.add(next);
+        }
+        return orderedFields;
+    }
+
+    /**
+     * Creates a document filled with the default values.
+     *
+     * @return the document
+     */
+    public Map<String, Object> newDocument() {
+        final Map<String, Object> dataMap = HashMap.newHashMap(expectedSize);
+        for (int i = 0; i < defaultKeys.length; i++) {
+            dataMap.put(defaultKeys[i], defaultValues[i]);
+        }
+        return dataMap;
+    }
+
+    /**
+     * Records the number of fields of a stored document, so that later documents are created with enough capacity
+     * for the fields added by the index update callback.
+     *
+     * @param size the number of fields
+     */
+    public void recordSize(final int size) {
+        if (size > expectedSize) {
+            expectedSize = size;
+        }
+    }
+
+    /**
+     * Returns the number of scripted fields.
+     *
+     * @return the number of fields
+     */
+    public int size() {
+        return fields.length;
+    }
+
+    /**
+     * Returns a field in the evaluation order.
+     *
+     * @param index the index in the evaluation order
+     * @return the field name
+     */
+    public String getField(final int index) {
+        return fields[index];
+    }
+
+    /**
+     * Returns the script of a field in the evaluation order.
+     *
+     * @param index the index in the evaluation order
+     * @return the script
+     */
+    public String getScript(final int index) {
+        return scripts[index];
+    }
+
+    /**
+     * Returns the expected number of fields of a document.
+     *
+     * @return the expected size
+     */
+    public int getExpectedSize() {
+        return expectedSize;
+    }
+
+    @Override
+    public String toString() {
+        return "MappingPlan [fields=" + Arrays.toString(fields) + ", defaults=" + defaultKeys.length + ", expectedSize=" + expectedSize
+                + "]";
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Field mapping scripts that turn a row into a document.
+ * A crawl has the base profile from the script settings of the data config, and fan-out profiles
+ * from "fanout.[name].script.[field]" parameters. Each profile produces its own document from the same
+ * decoded row, so several documents are indexed from a single scan of the query.
+ */
+public class MappingProfile {
+
+    /** Prefix of fan-out profile parameters. */
+    public static final String FANOUT_PREFIX = "fanout.";
+
+    private static final String SCRIPT_INFIX = ".script.";
+
+    private static final String FANOUT_BASE_PARAM = "fanout_base";
+
+    private final String name;
+
+    private final Map<String, String> scriptMap;
+
+    private final MappingPlan plan;
+
+    /**
+     * Creates a mapping profile.
+     *
+     * @param name the profile name, or null for the base profile
+     * @param scriptMap the field mapping scripts
+     */
+    public MappingProfile(final String name, final Map<String, String> scriptMap) {
+        this(name, scriptMap, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a mapping profile with the default values of documents.
+     *
+     * @param name the profile name, or null for the base profile
+     * @param scriptMap the field mapping scripts
+     * @param defaultDataMap the default values of documents
+     */
+    public MappingProfile(final String name, final Map<String, String> scriptMap, final Map<String, Object> defaultDataMap) {
+        this.name = name;
+        this.scriptMap = scriptMap;
+        this.plan = new MappingPlan(scriptMap, defaultDataMap);
+    }
+
+    /**
+     * Creates the mapping profiles of a crawl from the parameter map.
+     * The document of the base profile is produced unless "fanout_base" is false.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param scriptMap the base field mapping scripts
+     * @param defaultDataMap the default values of documents
+     * @return the base profile followed by the fan-out profiles sorted by name
+     * @see #create(Map, Map, boolean)
+     */
+    public static List<MappingProfile> create(final DataStoreParams paramMap, final Map<String, String> scriptMap,
+            final Map<String, Object> defaultDataMap) {
+        return create(paramMap.asMap(), scriptMap, defaultDataMap, !"false".equalsIgnoreCase(paramMap.getAsString(FANOUT_BASE_PARAM)));
+    }
+
+    /**
+     * Creates the mapping profiles of a crawl.
+     * A fan-out profile starts from the base scripts and overrides them by its own scripts,
+     * and a blank script removes the field. Profiles must map the url or ID fields to distinct values,
+     * or their documents overwrite each other.
+     *
+     * @param paramMap the data store parameters
+     * @param scriptMap the base field mapping scripts
+     * @param includeBase true to produce the document of the base profile
+     * @return the base profile followed by the fan-out profiles sorted by name
+     */
+    public static List<MappingProfile> create(final Map<String, Object> paramMap, final Map<String, String> scriptMap,
+            final boolean includeBase) {
+        return create(paramMap, scriptMap, Collections.emptyMap(), includeBase);
+    }
+
+    /**
+     * Creates the mapping profiles of a crawl with the default values of documents.
+     *
+     * @param paramMap the data store parameters
+     * @param scriptMap the base field mapping scripts
+     * @param defaultDataMap the default values of documents
+     * @param includeBase true to produce the document of the base profile
+     * @return the base profile followed by the fan-out profiles sorted by name
+     * @see #create(Map, Map, boolean)
+     */
+    public static List<MappingProfile> create(final Map<String, Object> paramMap, final Map<String, String> scriptMap,
+            final Map<String, Object> defaultDataMap, final boolean includeBase) {
+        final Map<String, Map<String, String>> fanoutMap = new LinkedHashMap<>();
+        for (final Map.Entry<String, Object> entry : paramMap.entrySet()) {
+            final String key = entry.getKey();
+            if (!key.startsWith(FANOUT_PREFIX)) {
+                continue;
+            }
+            final int pos = key.indexOf(SCRIPT_INFIX, FANOUT_PREFIX.length());
+            if (pos <= FANOUT_PREFIX.length()) {
+                continue;
+            }
+            final String profileName = key.substring(FANOUT_PREFIX.length(), pos);
+            final String field = key.substring(pos + SCRIPT_INFIX.length());
+            final Map<String, String> profileScriptMap = fanoutMap.computeIfAbsent(profileName, k -> new LinkedHashMap<>(scriptMap));
+            final String script = entry.getValue() != null ? entry.getValue().toString() : null;
+            if (StringUtil.isBlank(script)) {
+                profileScriptMap.remove(field);
+            } else {
+                profileScriptMap.put(field, script);
+            }
+        }
+
+        final List<MappingProfile> profiles = new ArrayList<>();
+        if (includeBase || fanoutMap.isEmpty()) {
+            profiles.add(new MappingProfile(null, scriptMap, defaultDataMap));
+        }
+        fanoutMap.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .forEach(e -> profiles.add(new MappingProfile(e.getKey(), Collections.unmodifiableMap(e.getValue()), defaultDataMap)));
+        return profiles;
+    }
+
+    /**
+     * Returns the profile name.
+     *
+     * @return the name, or null for the base profile
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Checks if this is the base profile.
+     *
+     * @return true for the base profile
+     */
+    public boolean isBase() {
+        return name == null;
+    }
+
+    /**
+     * Returns the field mapping scripts.
+     *
+     * @return the map of fields to scripts
+     */
+    public Map<String, String> getScriptMap() {
+        return scriptMap;
+    }
+
+    /**
+     * Returns the mapping plan compiled from the scripts.
+     *
+     * @return the mapping plan
+     */
+    public MappingPlan getPlan() {
+        return plan;
+    }
+
+    @Override
+    public String toString() {
+        return "MappingProfile [name=" + name + ", fields=" + scriptMap.keySet() + "]";
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Memory budget shared by all database crawls in the process.
+ * Crawls reserve the approximate size of decoded rows until they are stored, so readers block
+ * when the budget is used up, and large content is spilled to disk instead of kept in memory.
+ * The usage is tracked per job, such as a data config ID.
+ */
+public class MemoryBudget {
+    private static final Logger logger = LogManager.getLogger(MemoryBudget.class);
+
+    private static final MemoryBudget INSTANCE = new MemoryBudget(0);
+
+    private static final String MEMORY_BUDGET_PARAM = "memory_budget";
+
+    private static final long WAIT_INTERVAL = 100L;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    private final Map<String, Long> usageMap = new LinkedHashMap<>();
+
+    private long capacity;
+
+    private long used;
+
+    /**
+     * Creates a memory budget.
+     *
+     * @param capacity the capacity in bytes, or 0 or less for no limit
+     */
+    public MemoryBudget(final long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the memory budget shared in this process.
+     *
+     * @return the memory budget
+     */
+    public static MemoryBudget getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the memory budget shared in this process if "memory_budget" is set.
+     * The budget is a number of bytes or a percentage of the maximum heap size, such as "25%",
+     * and the value of the latest crawl is applied to all running crawls.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the memory budget, or null if no budget is set
+     */
+    public static MemoryBudget create(final DataStoreParams paramMap) {
+        final String value = paramMap.getAsString(MEMORY_BUDGET_PARAM);
+        if (StringUtil.isBlank(value)) {
+            return null;
+        }
+        final long capacity = parseSize(value, Runtime.getRuntime().maxMemory());
+        if (capacity <= 0) {
+            logger.warn("Invalid {}: {}", MEMORY_BUDGET_PARAM, value);
+            return null;
+        }
+        INSTANCE.setCapacity(capacity);
+        return INSTANCE;
+    }
+
+    /**
+     * Parses a budget size, which is a number of bytes or a percentage of the maximum heap size such as "25%".
+     *
+     * @param value the budget size
+     * @param maxMemory the maximum heap size in bytes
+     * @return the size in bytes, or 0 if the value is invalid
+     */
+    public static long parseSize(final String value, final long maxMemory) {
+        if (value == null) {
+            return 0;
+        }
+        final String size = value.trim();
+        try {
+            if (size.endsWith("%")) {
+                final double percent = Double.parseDouble(size.substring(0, size.length() - 1).trim());
+                return (long) (maxMemory * percent / 100);
+            }
+            return Long.parseLong(size);
+        } catch (final NumberFormatException e) {
+            logger.debug("Failed to parse the memory budget: {}", value, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Changes the capacity. Blocked readers are woken up if the capacity grows.
+     *
+     * @param capacity the capacity in bytes, or 0 or less for no limit
+     */
+    public void setCapacity(final long capacity) {
+        lock.lock();
+        try {
+            if (this.capacity != capacity) {
+                logger.info("Memory budget: {} -> {} bytes", this.capacity, capacity);
+                this.capacity = capacity;
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the budget has a limit.
+     *
+     * @return true if the capacity is set
+     */
+    public boolean isEnabled() {
+        lock.lock();
+        try {
+            return capacity > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves memory, blocking until it is available.
+     * A reservation larger than the capacity is granted when nothing else is reserved, so it never blocks forever.
+     *
+     * @param job the job name
+     * @param bytes the size in bytes
+     * @param running the condition to keep waiting
+     * @return true if the memory is reserved, or false if the condition becomes false while waiting
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean acquire(final String job, final long bytes, final BooleanSupplier running) throws InterruptedException {
+        return acquire(job, bytes, 0, running);
+    }
+
+    /**
+     * Reserves memory, blocking until it is available, for a caller that already holds reservations.
+     * The memory held by the caller is not released while it waits, so the reservation is granted
+     * when nothing else is reserved, and the caller never waits for itself.
+     *
+     * @param job the job name
+     * @param bytes the size in bytes
+     * @param held the size in bytes already reserved by the caller
+     * @param running the condition to keep waiting
+     * @return true if the memory is reserved, or false if the condition becomes false while waiting
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean acquire(final String job, final long bytes, final long held, final BooleanSupplier running)
+            throws InterruptedException {
+        lock.lock();
+        try {
+            while (!canAcquire(bytes, held)) {
+                if (!running.getAsBoolean()) {
+                    return false;
+                }
+                released.await(WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+            reserve(job, bytes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reserves memory if it is available without blocking.
+     *
+     * @param job the job name
+     * @param bytes the size in bytes
+     * @return true if the memory is reserved
+     */
+    public boolean tryAcquire(final String job, final long bytes) {
+        lock.lock();
+        try {
+            if (!canAcquire(bytes, 0)) {
+                return false;
+            }
+            reserve(job, bytes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases reserved memory.
+     *
+     * @param job the job name
+     * @param bytes the size in bytes
+     */
+    public void release(final String job, final long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            used -= bytes;
+            final Long usage = usageMap.get(job);
+            if (usage != null) {
+                if (usage <= bytes) {
+                    usageMap.remove(job);
+                } else {
+                    usageMap.put(job, usage - bytes);
+                }
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the reserved memory of all jobs.
+     *
+     * @return the size in bytes
+     */
+    public long getUsed() {
+        lock.lock();
+        try {
+            return used;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the reserved memory of a job.
+     *
+     * @param job the job name
+     * @return the size in bytes
+     */
+    public long getUsage(final String job) {
+        lock.lock();
+        try {
+            return usageMap.getOrDefault(job, 0L);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the reserved memory of each job.
+     *
+     * @return the map of job names to sizes in bytes
+     */
+    public Map<String, Long> getUsages() {
+        lock.lock();
+        try {
+            return new LinkedHashMap<>(usageMap);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canAcquire(final long bytes, final long held) {
+        return capacity <= 0 || used <= held || used + bytes <= capacity;
+    }
+
+    private void reserve(final String job, final long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        used += bytes;
+        usageMap.merge(job, bytes, Long::sum);
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "MemoryBudget [capacity=" + capacity + ", used=" + used + ", usages=" + usageMap + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
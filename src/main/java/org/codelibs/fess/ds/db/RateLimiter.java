@@ -0,0 +1,278 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Token bucket rate limiter for database crawling.
+ * It throttles the number of rows and the number of bytes read per second with separate budgets.
+ * Budgets can be changed while a crawl is running. In adaptive mode, the effective rate is lowered
+ * when the observed fetch latency of the database grows beyond its baseline.
+ */
+public class RateLimiter {
+
+    private static final String ROWS_PER_SECOND_PARAM = "rows_per_second";
+
+    private static final String BYTES_PER_SECOND_PARAM = "bytes_per_second";
+
+    private static final String ADAPTIVE_THROTTLE_PARAM = "adaptive_throttle";
+
+    private static final String LATENCY_TOLERANCE_PARAM = "latency_tolerance";
+
+    private static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+    private static final double LATENCY_ALPHA = 0.05;
+
+    private static final double BASELINE_DRIFT = 0.0001;
+
+    private static final int LATENCY_WARMUP = 100;
+
+    private static final double MIN_FACTOR = 0.05;
+
+    private static final long MAX_SLEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private double rowsPerSecond;
+
+    private long bytesPerSecond;
+
+    private final boolean adaptive;
+
+    private final double latencyTolerance;
+
+    private double rowTokens;
+
+    private double byteTokens;
+
+    private long lastRefillTime;
+
+    private double latencyAverage;
+
+    private double latencyBaseline;
+
+    private long latencyCount;
+
+    /**
+     * Creates a rate limiter.
+     *
+     * @param rowsPerSecond the maximum number of rows per second, or 0 for no limit
+     * @param bytesPerSecond the maximum number of bytes per second, or 0 for no limit
+     * @param adaptive true if the rate is lowered when the fetch latency goes up
+     * @param latencyTolerance the ratio of the fetch latency to its baseline that triggers a back-off
+     */
+    public RateLimiter(final double rowsPerSecond, final long bytesPerSecond, final boolean adaptive, final double latencyTolerance) {
+        this.adaptive = adaptive;
+        this.latencyTolerance = latencyTolerance > 1.0 ? latencyTolerance : 1.0;
+        this.lastRefillTime = System.nanoTime();
+        rowTokens = Double.MAX_VALUE;
+        byteTokens = Double.MAX_VALUE;
+        updateRate(rowsPerSecond, bytesPerSecond);
+    }
+
+    /**
+     * Creates a rate limiter from the parameter map.
+     * "rows_per_second" and "bytes_per_second" are the budgets, and "adaptive_throttle" lowers the rate when
+     * the fetch latency exceeds "latency_tolerance" times its baseline. If no rate is configured,
+     * the limiter is disabled until a rate is set by {@link #setRate(double, long)}.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the rate limiter
+     */
+    public static RateLimiter create(final DataStoreParams paramMap) {
+        return new RateLimiter(CrawlParams.getAsDouble(paramMap, ROWS_PER_SECOND_PARAM, 0),
+                CrawlParams.getAsLong(paramMap, BYTES_PER_SECOND_PARAM, 0L), CrawlParams.getAsBoolean(paramMap, ADAPTIVE_THROTTLE_PARAM),
+                CrawlParams.getAsDouble(paramMap, LATENCY_TOLERANCE_PARAM, DEFAULT_LATENCY_TOLERANCE));
+    }
+
+    /**
+     * Changes the budgets of this rate limiter.
+     * Tokens that are already accumulated are capped by the new budgets.
+     *
+     * @param rowsPerSecond the maximum number of rows per second, or 0 for no limit
+     * @param bytesPerSecond the maximum number of bytes per second, or 0 for no limit
+     */
+    public synchronized void setRate(final double rowsPerSecond, final long bytesPerSecond) {
+        refill(System.nanoTime());
+        updateRate(rowsPerSecond, bytesPerSecond);
+    }
+
+    private void updateRate(final double rowsPerSecond, final long bytesPerSecond) {
+        this.rowsPerSecond = rowsPerSecond > 0 ? rowsPerSecond : 0;
+        this.bytesPerSecond = bytesPerSecond > 0 ? bytesPerSecond : 0;
+        rowTokens = Math.min(rowTokens, getRowCapacity());
+        byteTokens = Math.min(byteTokens, this.bytesPerSecond);
+    }
+
+    /**
+     * Returns the maximum number of rows per second.
+     *
+     * @return the rows per second, or 0 if not limited
+     */
+    public synchronized double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    /**
+     * Returns the maximum number of bytes per second.
+     *
+     * @return the bytes per second, or 0 if not limited
+     */
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Checks if this rate limiter throttles anything.
+     *
+     * @return true if a budget is set or the adaptive mode is enabled
+     */
+    public synchronized boolean isEnabled() {
+        return rowsPerSecond > 0 || bytesPerSecond > 0 || adaptive;
+    }
+
+    /**
+     * Records the time spent to fetch a row from the database.
+     * It is used to compute the back-off factor in adaptive mode.
+     *
+     * @param nanos the fetch time in nanoseconds
+     */
+    public synchronized void recordLatency(final long nanos) {
+        if (!adaptive) {
+            return;
+        }
+        latencyCount++;
+        if (latencyCount == 1) {
+            latencyAverage = nanos;
+        } else {
+            latencyAverage += (nanos - latencyAverage) * LATENCY_ALPHA;
+        }
+        if (latencyCount == LATENCY_WARMUP || latencyCount > LATENCY_WARMUP && latencyAverage < latencyBaseline) {
+            latencyBaseline = latencyAverage;
+        } else if (latencyCount > LATENCY_WARMUP) {
+            latencyBaseline += (latencyAverage - latencyBaseline) * BASELINE_DRIFT;
+        }
+    }
+
+    /**
+     * Returns the current back-off factor applied to the budgets.
+     *
+     * @return the factor between 0 and 1, where 1 means no back-off
+     */
+    public synchronized double getFactor() {
+        if (!adaptive || latencyCount <= LATENCY_WARMUP || latencyBaseline <= 0) {
+            return 1.0;
+        }
+        final double limit = latencyBaseline * latencyTolerance;
+        if (latencyAverage <= limit) {
+            return 1.0;
+        }
+        return Math.max(limit / latencyAverage, MIN_FACTOR);
+    }
+
+    /**
+     * Acquires tokens for one row with the given size, blocking until the budgets allow it.
+     *
+     * @param bytes the approximate size of the row in bytes
+     * @return the time spent waiting in nanoseconds
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public long acquire(final long bytes) throws InterruptedException {
+        return acquire(bytes, () -> true);
+    }
+
+    /**
+     * Acquires tokens for one row with the given size, blocking until the budgets allow it or the crawl is stopped.
+     * The wait is split into sleeps of at most a second, so a stopped crawl does not wait for a long delay.
+     *
+     * @param bytes the approximate size of the row in bytes
+     * @param running returns false when the crawl is stopped, which ends the wait
+     * @return the time spent waiting in nanoseconds
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public long acquire(final long bytes, final BooleanSupplier running) throws InterruptedException {
+        final long waitNanos = reserve(bytes);
+        if (waitNanos <= 0) {
+            return 0;
+        }
+        final long startTime = System.nanoTime();
+        long remaining = waitNanos;
+        while (remaining > 0 && running.getAsBoolean()) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, MAX_SLEEP_NANOS));
+            remaining = waitNanos - (System.nanoTime() - startTime);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Reserves tokens for one row and returns the time the caller needs to wait.
+     * Tokens may go negative, so a row larger than the budget is delayed instead of rejected.
+     *
+     * @param bytes the approximate size of the row in bytes
+     * @return the time to wait in nanoseconds
+     */
+    protected synchronized long reserve(final long bytes) {
+        final long now = System.nanoTime();
+        refill(now);
+        final double factor = getFactor();
+        long waitNanos = 0;
+        if (rowsPerSecond > 0) {
+            rowTokens -= 1;
+            if (rowTokens < 0) {
+                waitNanos = Math.max(waitNanos, (long) (-rowTokens / (rowsPerSecond * factor) * 1_000_000_000L));
+            }
+        }
+        if (bytesPerSecond > 0) {
+            byteTokens -= bytes;
+            if (byteTokens < 0) {
+                waitNanos = Math.max(waitNanos, (long) (-byteTokens / (bytesPerSecond * factor) * 1_000_000_000L));
+            }
+        }
+        if (rowsPerSecond <= 0 && bytesPerSecond <= 0 && factor < 1.0) {
+            // no budget to scale, so wait for the latency above the tolerated baseline
+            waitNanos = (long) (latencyAverage - latencyBaseline * latencyTolerance);
+        }
+        return waitNanos;
+    }
+
+    private void refill(final long now) {
+        final long elapsed = now - lastRefillTime;
+        lastRefillTime = now;
+        if (elapsed <= 0) {
+            return;
+        }
+        final double seconds = elapsed / 1_000_000_000.0;
+        final double factor = getFactor();
+        if (rowsPerSecond > 0) {
+            rowTokens = Math.min(rowTokens + seconds * rowsPerSecond * factor, getRowCapacity());
+        }
+        if (bytesPerSecond > 0) {
+            byteTokens = Math.min(byteTokens + seconds * bytesPerSecond * factor, bytesPerSecond);
+        }
+    }
+
+    private double getRowCapacity() {
+        return Math.max(rowsPerSecond, 1.0);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RateLimiter [rowsPerSecond=" + rowsPerSecond + ", bytesPerSecond=" + bytesPerSecond + ", adaptive=" + adaptive
+                + ", factor=" + getFactor() + "]";
+    }
+}
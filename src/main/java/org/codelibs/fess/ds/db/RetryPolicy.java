@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Retries and resumes of a database query that fails with a transient error, such as a lost connection.
+ * A failed query is run again on a new connection after a wait that doubles with each consecutive retry,
+ * and continues after the last processed key, or by skipping the rows already read if no key is set.
+ */
+public class RetryPolicy {
+
+    private static final String RETRY_COUNT_PARAM = "retry_count";
+
+    private static final String RETRY_INTERVAL_PARAM = "retry_interval";
+
+    private static final String RETRY_MAX_INTERVAL_PARAM = "retry_max_interval";
+
+    private static final String RETRY_SQL_STATES_PARAM = "retry_sql_states";
+
+    private static final String RETRY_ERROR_CODES_PARAM = "retry_error_codes";
+
+    private static final String RESUME_KEY_PARAM = "resume_key";
+
+    private static final String RESUME_SQL_PARAM = "resume_sql";
+
+    private static final int DEFAULT_RETRY_COUNT = 0;
+
+    private static final long DEFAULT_RETRY_INTERVAL = 1000L;
+
+    private static final long DEFAULT_RETRY_MAX_INTERVAL = 60000L;
+
+    /** SQLState prefixes of transient errors: connection exceptions, transaction rollbacks and server shutdowns. */
+    private static final Set<String> TRANSIENT_SQL_STATES = Set.of("08", "40001", "40P01", "57P01", "57P02", "57P03");
+
+    /**
+     * Vendor codes of transient errors: Oracle snapshot too old and lost connections, MySQL lock wait timeout,
+     * deadlock and lost connections, and SQL Server deadlock and Azure SQL failovers.
+     */
+    private static final Set<String> TRANSIENT_ERROR_CODES = Set.of("1555", "3113", "3114", "3135", "12514", "12541", "17002", "17008",
+            "17410", "1205", "1213", "2006", "2013", "40197", "40501", "40613", "49918");
+
+    private final int maxRetries;
+
+    private final long interval;
+
+    private final long maxInterval;
+
+    private final Set<String> sqlStates;
+
+    private final Set<String> errorCodes;
+
+    private final String resumeKey;
+
+    private final String resumeSql;
+
+    /**
+     * Creates a retry policy.
+     *
+     * @param maxRetries the number of consecutive retries, or 0 to fail on the first error
+     * @param interval the wait before the first retry in milliseconds
+     * @param maxInterval the maximum wait before a retry in milliseconds
+     * @param sqlStates the SQLState prefixes of transient errors in addition to the defaults
+     * @param errorCodes the vendor codes of transient errors in addition to the defaults
+     * @param resumeKey the key column to resume the query after, or null to skip the rows already read
+     * @param resumeSql the SQL query to resume after the last key, or null to wrap the query of the crawl
+     */
+    public RetryPolicy(final int maxRetries, final long interval, final long maxInterval, final Set<String> sqlStates,
+            final Set<String> errorCodes, final String resumeKey, final String resumeSql) {
+        this.maxRetries = maxRetries;
+        this.interval = interval;
+        this.maxInterval = maxInterval;
+        this.sqlStates = new HashSet<>(TRANSIENT_SQL_STATES);
+        this.sqlStates.addAll(sqlStates);
+        this.errorCodes = new HashSet<>(TRANSIENT_ERROR_CODES);
+        this.errorCodes.addAll(errorCodes);
+        this.resumeKey = resumeKey;
+        this.resumeSql = resumeSql;
+    }
+
+    /**
+     * Creates a retry policy from the parameter map.
+     * "retry_count" is the number of consecutive retries, and the wait starts from "retry_interval" and doubles
+     * up to "retry_max_interval" milliseconds. "retry_sql_states" and "retry_error_codes" add comma-separated
+     * SQLState prefixes and vendor codes of transient errors. "resume_key" is the column the query is resumed
+     * after, with "resume_sql" as the query that takes the last key as its parameter.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the retry policy
+     */
+    public static RetryPolicy create(final DataStoreParams paramMap) {
+        return new RetryPolicy(CrawlParams.getAsInt(paramMap, RETRY_COUNT_PARAM, DEFAULT_RETRY_COUNT),
+                CrawlParams.getAsLong(paramMap, RETRY_INTERVAL_PARAM, DEFAULT_RETRY_INTERVAL),
+                CrawlParams.getAsLong(paramMap, RETRY_MAX_INTERVAL_PARAM, DEFAULT_RETRY_MAX_INTERVAL),
+                new HashSet<>(CrawlParams.split(paramMap.getAsString(RETRY_SQL_STATES_PARAM))),
+                new HashSet<>(CrawlParams.split(paramMap.getAsString(RETRY_ERROR_CODES_PARAM))),
+                CrawlParams.getAsTrimmedString(paramMap, RESUME_KEY_PARAM), CrawlParams.getAsTrimmedString(paramMap, RESUME_SQL_PARAM));
+    }
+
+    /**
+     * Returns the number of consecutive retries.
+     *
+     * @return the number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns the wait before a retry, which doubles with each consecutive retry.
+     *
+     * @param retryCount the number of consecutive retries, starting from 1
+     * @return the wait in milliseconds
+     */
+    public long getInterval(final int retryCount) {
+        final int shift = Math.min(retryCount - 1, 30);
+        return Math.min(interval << shift, maxInterval);
+    }
+
+    /**
+     * Checks if a database error is transient, so the query can be retried on a new connection.
+     * Errors are classified by their JDBC exception types, SQLState classes and vendor codes
+     * of the exception chain.
+     *
+     * @param e the database error
+     * @return true if the error is transient
+     */
+    public boolean isTransient(final SQLException e) {
+        final Set<Throwable> visited = new HashSet<>();
+        Throwable t = e;
+        while (t != null && visited.add(t)) {
+            if (t instanceof SQLTransientException || t instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (t instanceof final SQLException se) {
+                final String sqlState = se.getSQLState();
+                if (sqlState != null && sqlStates.stream().anyMatch(sqlState::startsWith)) {
+                    return true;
+                }
+                if (se.getErrorCode() != 0 && errorCodes.contains(Integer.toString(se.getErrorCode()))) {
+                    return true;
+                }
+                if (se.getNextException() != null && se.getNextException() != se.getCause()) {
+                    if (isTransient(se.getNextException())) {
+                        return true;
+                    }
+                }
+            }
+            t = t.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the key column the query is resumed after.
+     *
+     * @return the key column, or null if the rows already read are skipped
+     */
+    public String getResumeKey() {
+        return resumeKey;
+    }
+
+    /**
+     * Returns the SQL query to resume a crawl after the last processed key.
+     * "resume_sql" is used if specified. Otherwise, the query of the crawl is wrapped with a condition
+     * and an order on the key column.
+     *
+     * @param sql the query of the crawl, as rewritten for a preview
+     * @param key the key column
+     * @return the SQL query with one parameter for the last processed key
+     */
+    public String getResumeSql(final String sql, final String key) {
+        if (resumeSql != null) {
+            return resumeSql;
+        }
+        return "SELECT * FROM (" + sql + ") fess_resume WHERE " + key + " > ? ORDER BY " + key;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy [maxRetries=" + maxRetries + ", interval=" + interval + ", maxInterval=" + maxInterval + ", resumeKey="
+                + resumeKey + "]";
+    }
+}
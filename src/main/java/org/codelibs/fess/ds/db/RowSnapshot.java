@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Locale;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.io.ReaderUtil;
+
+/**
+ * A copy of the current row of a result set that stays valid after the cursor moves.
+ * LOB values are read while the cursor is on the row: BLOB and binary stream contents are spooled
+ * to memory or to a temporary file, and CLOB and character stream contents are read as strings.
+ * The snapshot is read through a result set view, so the row can be decoded on another thread
+ * by the same code that decodes a live result set.
+ */
+public class RowSnapshot implements Closeable {
+    private static final Logger logger = LogManager.getLogger(RowSnapshot.class);
+
+    private final String[] labels;
+
+    private final String[] names;
+
+    private final int[] types;
+
+    private final String[] typeNames;
+
+    private final Object[] values;
+
+    private long dataSize;
+
+    private RowSnapshot(final int columnCount) {
+        labels = new String[columnCount];
+        names = new String[columnCount];
+        types = new int[columnCount];
+        typeNames = new String[columnCount];
+        values = new Object[columnCount];
+    }
+
+    /**
+     * Copies the current row of a result set.
+     *
+     * @param rs the result set positioned on the row
+     * @param memoryThreshold the maximum size of a binary value kept in memory
+     * @return the snapshot
+     * @throws SQLException if a database access error occurs
+     * @throws IOException if a LOB value cannot be read
+     */
+    public static RowSnapshot capture(final ResultSet rs, final int memoryThreshold) throws SQLException, IOException {
+        final ResultSetMetaData metaData = rs.getMetaData();
+        final RowSnapshot snapshot = new RowSnapshot(metaData.getColumnCount());
+        boolean captured = false;
+        try {
+            for (int i = 0; i < snapshot.values.length; i++) {
+                snapshot.labels[i] = metaData.getColumnLabel(i + 1);
+                snapshot.names[i] = metaData.getColumnName(i + 1);
+                snapshot.types[i] = metaData.getColumnType(i + 1);
+                snapshot.typeNames[i] = metaData.getColumnTypeName(i + 1);
+                snapshot.values[i] = snapshot.copyValue(rs.getObject(i + 1), memoryThreshold);
+            }
+            captured = true;
+            return snapshot;
+        } finally {
+            if (!captured) {
+                snapshot.close();
+            }
+        }
+    }
+
+    private Object copyValue(final Object value, final int memoryThreshold) throws SQLException, IOException {
+        if (value instanceof final Blob blob) {
+            try (InputStream in = blob.getBinaryStream()) {
+                final SpooledContent content = SpooledContent.spool(in, memoryThreshold);
+                addDataSize(content);
+                return content;
+            } finally {
+                free(blob);
+            }
+        }
+        if (value instanceof final Clob clob) {
+            try (Reader reader = clob.getCharacterStream()) {
+                final String text = ReaderUtil.readText(reader);
+                dataSize += text.length();
+                return text;
+            } finally {
+                free(clob);
+            }
+        }
+        if (value instanceof final InputStream in) {
+            try (in) {
+                final SpooledContent content = SpooledContent.spool(in, memoryThreshold);
+                addDataSize(content);
+                return content;
+            }
+        }
+        if (value instanceof final Reader reader) {
+            try (reader) {
+                final String text = ReaderUtil.readText(reader);
+                dataSize += text.length();
+                return text;
+            }
+        }
+        if (value instanceof final Array array) {
+            try {
+                return newArray(array.getArray());
+            } finally {
+                try {
+                    array.free();
+                } catch (final SQLException | AbstractMethodError e) {
+                    logger.debug("Failed to free an array.", e);
+                }
+            }
+        }
+        if (value instanceof final Ref ref) {
+            return ref.getObject();
+        }
+        if (value instanceof final byte[] bytes) {
+            dataSize += bytes.length;
+        } else if (value instanceof final String text) {
+            dataSize += text.length();
+        }
+        return value;
+    }
+
+    private void addDataSize(final SpooledContent content) {
+        if (!content.isInFile()) {
+            dataSize += content.getLength();
+        }
+    }
+
+    private static void free(final Object lob) {
+        try {
+            if (lob instanceof final Blob blob) {
+                blob.free();
+            } else if (lob instanceof final Clob clob) {
+                clob.free();
+            }
+        } catch (final SQLException | AbstractMethodError e) {
+            logger.debug("Failed to free a LOB.", e);
+        }
+    }
+
+    /**
+     * Returns the approximate size of the values held in memory.
+     * Binary values spooled to temporary files are not counted.
+     *
+     * @return the number of bytes and characters in memory
+     */
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Returns a read-only result set positioned on the copied row.
+     * It supports the metadata of the columns and the value getters by index and by label,
+     * and spooled binary values are returned as {@link SpooledContent}.
+     *
+     * @return the result set view
+     */
+    public ResultSet getResultSet() {
+        final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(RowSnapshot.class.getClassLoader(),
+                new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> switch (method.getName()) {
+                case "getColumnCount" -> values.length;
+                case "getColumnLabel" -> labels[(Integer) args[0] - 1];
+                case "getColumnName" -> names[(Integer) args[0] - 1];
+                case "getColumnType" -> types[(Integer) args[0] - 1];
+                case "getColumnTypeName" -> typeNames[(Integer) args[0] - 1];
+                case "toString" -> "RowSnapshot.MetaData";
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> throw new SQLFeatureNotSupportedException(method.getName());
+                });
+        return (ResultSet) Proxy.newProxyInstance(RowSnapshot.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                case "getMetaData" -> metaData;
+                case "getObject", "getArray" -> values[findColumn(args[0])];
+                case "getString" -> {
+                    final Object value = values[findColumn(args[0])];
+                    yield value != null ? value.toString() : null;
+                }
+                case "findColumn" -> findColumn(args[0]) + 1;
+                case "isClosed" -> false;
+                case "close" -> null;
+                case "toString" -> toString();
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> throw new SQLFeatureNotSupportedException(method.getName());
+                });
+    }
+
+    private int findColumn(final Object column) throws SQLException {
+        if (column instanceof final Integer index) {
+            if (index < 1 || index > values.length) {
+                throw new SQLException("Invalid column index: " + index);
+            }
+            return index - 1;
+        }
+        final String label = column.toString();
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i].equalsIgnoreCase(label)) {
+                return i;
+            }
+        }
+        throw new SQLException("Column not found: " + label.toUpperCase(Locale.ROOT));
+    }
+
+    private static Array newArray(final Object elements) {
+        return (Array) Proxy.newProxyInstance(RowSnapshot.class.getClassLoader(), new Class<?>[] { Array.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                case "getArray" -> {
+                    if (args != null && args.length > 0) {
+                        throw new SQLFeatureNotSupportedException(method.getName());
+                    }
+                    yield elements;
+                }
+                case "getResultSet" -> throw new SQLFeatureNotSupportedException(method.getName());
+                case "free" -> null;
+                case "toString" -> "RowSnapshot.Array";
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> throw new SQLFeatureNotSupportedException(method.getName());
+                });
+    }
+
+    /**
+     * Deletes the temporary files of spooled values.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof final SpooledContent content) {
+                content.close();
+                values[i] = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RowSnapshot [columns=" + values.length + ", dataSize=" + dataSize + "]";
+    }
+}
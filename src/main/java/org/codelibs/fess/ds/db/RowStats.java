@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.helper.CrawlerStatsHelper;
+import org.codelibs.fess.helper.CrawlerStatsHelper.StatsAction;
+import org.codelibs.fess.helper.CrawlerStatsHelper.StatsKeyObject;
+
+/**
+ * Crawler stats of the rows of a database crawl.
+ * Only 1 in N rows is recorded to {@link CrawlerStatsHelper} with its own stats key, and all rows
+ * are counted in aggregated totals. Rows slower than the outlier threshold are logged even if not sampled.
+ */
+public class RowStats {
+    private static final Logger logger = LogManager.getLogger(RowStats.class);
+
+    /** The action recorded for a row merged into the previous row. */
+    public static final String MERGED_ACTION = "merged";
+
+    private static final String STATS_SAMPLE_RATE_PARAM = "stats_sample_rate";
+
+    private static final String STATS_OUTLIER_TIME_PARAM = "stats_outlier_time";
+
+    private final CrawlerStatsHelper crawlerStatsHelper;
+
+    private final String keyPrefix;
+
+    private final int sampleRate;
+
+    private final long outlierNanos;
+
+    private final LongAdder rowCount = new LongAdder();
+
+    private final LongAdder sampledCount = new LongAdder();
+
+    private final LongAdder outlierCount = new LongAdder();
+
+    private final LongAdder duplicateCount = new LongAdder();
+
+    private final LongAdder mergedCount = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Creates row stats.
+     *
+     * @param crawlerStatsHelper the crawler stats helper
+     * @param configId the data config ID used as the prefix of stats keys
+     * @param sampleRate the interval of rows recorded to the crawler stats helper, or 1 for every row
+     * @param outlierTime the processing time in milliseconds of rows logged as outliers, or 0 or less to disable
+     */
+    public RowStats(final CrawlerStatsHelper crawlerStatsHelper, final String configId, final int sampleRate, final long outlierTime) {
+        this.crawlerStatsHelper = crawlerStatsHelper;
+        this.keyPrefix = configId + "#";
+        this.sampleRate = Math.max(sampleRate, 1);
+        this.outlierNanos = outlierTime > 0 ? outlierTime * 1_000_000L : Long.MAX_VALUE;
+    }
+
+    /**
+     * Creates row stats from the parameter map.
+     * "stats_sample_rate" records 1 in N rows to the crawler stats helper, and all rows are counted in totals.
+     * Rows slower than "stats_outlier_time" milliseconds are logged whether or not they are sampled.
+     *
+     * @param crawlerStatsHelper the crawler stats helper
+     * @param statsId the prefix of stats keys, such as the data config ID
+     * @param paramMap the parameter map containing configuration
+     * @return the row stats
+     */
+    public static RowStats create(final CrawlerStatsHelper crawlerStatsHelper, final String statsId, final DataStoreParams paramMap) {
+        return new RowStats(crawlerStatsHelper, statsId, CrawlParams.getAsInt(paramMap, STATS_SAMPLE_RATE_PARAM, 1),
+                CrawlParams.getAsLong(paramMap, STATS_OUTLIER_TIME_PARAM, 0L));
+    }
+
+    /**
+     * Starts the stats of a row.
+     *
+     * @param count the row number in the crawl
+     * @return the stats key if the row is sampled, or null
+     */
+    public StatsKeyObject begin(final long count) {
+        return begin(String.valueOf(count), count);
+    }
+
+    /**
+     * Starts the stats of a row with a name.
+     *
+     * @param name the name of the row in the stats key
+     * @param count the row number used for sampling
+     * @return the stats key if the row is sampled, or null
+     */
+    public StatsKeyObject begin(final String name, final long count) {
+        rowCount.increment();
+        if (crawlerStatsHelper == null || (count - 1) % sampleRate != 0) {
+            return null;
+        }
+        sampledCount.increment();
+        final StatsKeyObject statsKey = new StatsKeyObject(keyPrefix + name);
+        crawlerStatsHelper.begin(statsKey);
+        return statsKey;
+    }
+
+    /**
+     * Records an action of a sampled row.
+     *
+     * @param statsKey the stats key, or null if the row is not sampled
+     * @param action the action
+     */
+    public void record(final StatsKeyObject statsKey, final StatsAction action) {
+        if (statsKey != null) {
+            crawlerStatsHelper.record(statsKey, action);
+        }
+    }
+
+    /**
+     * Counts a row skipped because its document key is already seen.
+     * The row is skipped before its stats are started, so it is only counted in the totals.
+     */
+    public void recordDuplicate() {
+        duplicateCount.increment();
+    }
+
+    /**
+     * Counts a row merged into the previous row with the same document key,
+     * and records the "merged" action if the row is sampled.
+     *
+     * @param statsKey the stats key, or null if the row is not sampled
+     */
+    public void recordMerged(final StatsKeyObject statsKey) {
+        mergedCount.increment();
+        if (statsKey != null) {
+            crawlerStatsHelper.record(statsKey, MERGED_ACTION);
+        }
+    }
+
+    /**
+     * Finishes the stats of a row.
+     *
+     * @param statsKey the stats key, or null if the row is not sampled
+     * @param startTime the time when the row was read, from {@link System#nanoTime()}
+     * @param url the identifier of the row
+     */
+    public void done(final StatsKeyObject statsKey, final long startTime, final String url) {
+        if (statsKey != null) {
+            crawlerStatsHelper.done(statsKey);
+        }
+        final long elapsed = System.nanoTime() - startTime;
+        totalNanos.add(elapsed);
+        maxNanos.accumulate(elapsed);
+        if (elapsed >= outlierNanos) {
+            outlierCount.increment();
+            logger.info("Slow row: {} took {}ms", url, elapsed / 1_000_000L);
+        }
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the row count
+     */
+    public long getRowCount() {
+        return rowCount.sum();
+    }
+
+    /**
+     * Returns the number of rows recorded to the crawler stats helper.
+     *
+     * @return the sampled row count
+     */
+    public long getSampledCount() {
+        return sampledCount.sum();
+    }
+
+    /**
+     * Returns the number of rows slower than the outlier threshold.
+     *
+     * @return the outlier count
+     */
+    public long getOutlierCount() {
+        return outlierCount.sum();
+    }
+
+    /**
+     * Returns the number of rows skipped because their document key is already seen.
+     *
+     * @return the duplicate count
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.sum();
+    }
+
+    /**
+     * Returns the number of rows merged into the previous row.
+     *
+     * @return the merged count
+     */
+    public long getMergedCount() {
+        return mergedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        final long rows = rowCount.sum();
+        return "RowStats [rows=" + rows + ", sampled=" + sampledCount.sum() + ", outliers=" + outlierCount.sum() + ", duplicates="
+                + duplicateCount.sum() + ", merged=" + mergedCount.sum() + ", avgMs="
+                + (rows == 0 ? 0 : totalNanos.sum() / rows / 1000 / 1000.0) + ", maxMs=" + maxNanos.get() / 1000 / 1000.0 + "]";
+    }
+}
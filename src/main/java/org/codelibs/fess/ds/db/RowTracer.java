@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.lang.reflect.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.entity.DataStoreParams;
+
+/**
+ * Selects rows whose column values and mapped fields are logged while they are crawled.
+ * Rows are selected by row number, by the value of a key column, or as a sample of 1 in N rows,
+ * so one row can be investigated without logging every row of a large crawl.
+ * Values are rendered with a size limit, so large text and binary columns do not flood the log.
+ */
+public class RowTracer {
+    private static final Logger logger = LogManager.getLogger(RowTracer.class);
+
+    /** A tracer that selects no row. */
+    public static final RowTracer NONE = new RowTracer(Collections.emptySet(), null, Collections.emptySet(), 0, 0);
+
+    private static final int MAX_ELEMENTS = 50;
+
+    private static final String DEBUG_ROWS_PARAM = "debug_rows";
+
+    private static final String DEBUG_KEY_COLUMN_PARAM = "debug_key_column";
+
+    private static final String DEBUG_KEY_VALUES_PARAM = "debug_key_values";
+
+    private static final String DEBUG_SAMPLE_RATE_PARAM = "debug_sample_rate";
+
+    private static final String DEBUG_VALUE_SIZE_PARAM = "debug_value_size";
+
+    private static final int DEFAULT_DEBUG_VALUE_SIZE = 200;
+
+    private final Set<Long> rowNumbers;
+
+    private final String keyColumn;
+
+    private final Set<String> keyValues;
+
+    private final int sampleRate;
+
+    private final int maxValueSize;
+
+    /**
+     * Creates a tracer.
+     *
+     * @param rowNumbers the row numbers to trace
+     * @param keyColumn the label of the key column, or null
+     * @param keyValues the values of the key column to trace
+     * @param sampleRate the interval of traced rows, or 0 or less to trace no sample
+     * @param maxValueSize the maximum number of characters of a rendered value, or 0 or less for no limit
+     */
+    public RowTracer(final Set<Long> rowNumbers, final String keyColumn, final Set<String> keyValues, final int sampleRate,
+            final int maxValueSize) {
+        this.rowNumbers = rowNumbers;
+        this.keyColumn = keyColumn;
+        this.keyValues = keyValues;
+        this.sampleRate = sampleRate;
+        this.maxValueSize = maxValueSize > 0 ? maxValueSize : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates a tracer from the parameter map.
+     * "debug_rows" lists row numbers, "debug_key_column" and "debug_key_values" select rows by a key column,
+     * and "debug_sample_rate" traces 1 in N rows. Values are truncated to "debug_value_size" characters.
+     * If no row is selected, every row is traced with traceAll, and the first rows of a preview crawl are traced.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param traceAll true to trace every row if no row is selected, such as when debug logging is enabled
+     * @return the tracer
+     */
+    public static RowTracer create(final DataStoreParams paramMap, final boolean traceAll) {
+        final Set<Long> rowNumbers = new HashSet<>();
+        for (final String value : CrawlParams.split(paramMap.getAsString(DEBUG_ROWS_PARAM))) {
+            try {
+                rowNumbers.add(Long.parseLong(value));
+            } catch (final NumberFormatException e) {
+                logger.warn("Invalid row number in {}: {}", DEBUG_ROWS_PARAM, value);
+            }
+        }
+        final String keyColumn = paramMap.getAsString(DEBUG_KEY_COLUMN_PARAM);
+        final Set<String> keyValues = new HashSet<>(CrawlParams.split(paramMap.getAsString(DEBUG_KEY_VALUES_PARAM)));
+        final int sampleRate = CrawlParams.getAsInt(paramMap, DEBUG_SAMPLE_RATE_PARAM, 0);
+        final int maxValueSize = CrawlParams.getAsInt(paramMap, DEBUG_VALUE_SIZE_PARAM, DEFAULT_DEBUG_VALUE_SIZE);
+        final RowTracer rowTracer = new RowTracer(rowNumbers, StringUtil.isNotBlank(keyColumn) ? keyColumn.trim() : null, keyValues,
+                sampleRate, maxValueSize);
+        if (rowTracer.isEnabled()) {
+            return rowTracer;
+        }
+        if (traceAll) {
+            return new RowTracer(rowNumbers, null, keyValues, 1, maxValueSize);
+        }
+        if (CrawlPreview.create(paramMap).isEnabled()) {
+            // the first documents of a preview crawl are logged to check the mapping
+            for (long i = 1; i <= CrawlPreview.TRACE_ROWS; i++) {
+                rowNumbers.add(i);
+            }
+            return new RowTracer(rowNumbers, null, keyValues, 0, maxValueSize);
+        }
+        return rowTracer;
+    }
+
+    /**
+     * Checks if the tracer selects any row.
+     *
+     * @return true if rows may be traced
+     */
+    public boolean isEnabled() {
+        return !rowNumbers.isEmpty() || keyColumn != null && !keyValues.isEmpty() || sampleRate > 0;
+    }
+
+    /**
+     * Checks if the current row is traced.
+     * The key column is read only if key values are specified.
+     *
+     * @param count the row number in the crawl
+     * @param rs the result set positioned on the row
+     * @return true if the row is traced
+     * @throws SQLException if a database access error occurs
+     */
+    public boolean isTraced(final long count, final ResultSet rs) throws SQLException {
+        if (sampleRate > 0 && (count - 1) % sampleRate == 0 || rowNumbers.contains(count)) {
+            return true;
+        }
+        return keyColumn != null && !keyValues.isEmpty() && keyValues.contains(rs.getString(keyColumn));
+    }
+
+    /**
+     * Logs a value of a traced row.
+     *
+     * @param url the identifier of the row
+     * @param name the name of the value
+     * @param value the value
+     */
+    public void trace(final String url, final String name, final Object value) {
+        logger.info("[{}] {}: {}", url, name, render(value));
+    }
+
+    /**
+     * Renders a value with the size limit.
+     * Strings are truncated, binary values are rendered as their length, and maps, collections
+     * and arrays are rendered up to {@value #MAX_ELEMENTS} elements.
+     *
+     * @param value the value
+     * @return the rendered value
+     */
+    public String render(final Object value) {
+        final StringBuilder buf = new StringBuilder();
+        appendValue(buf, value);
+        return buf.toString();
+    }
+
+    private void appendValue(final StringBuilder buf, final Object value) {
+        if (value == null) {
+            buf.append("null");
+        } else if (value instanceof final byte[] bytes) {
+            buf.append("byte[").append(bytes.length).append(']');
+        } else if (value instanceof final Map<?, ?> map) {
+            buf.append('{');
+            appendElements(buf, map.entrySet().iterator(), map.size());
+            buf.append('}');
+        } else if (value instanceof final Map.Entry<?, ?> entry) {
+            buf.append(entry.getKey()).append('=');
+            appendValue(buf, entry.getValue());
+        } else if (value instanceof final Collection<?> collection) {
+            buf.append('[');
+            appendElements(buf, collection.iterator(), collection.size());
+            buf.append(']');
+        } else if (value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            buf.append('[');
+            for (int i = 0; i < length && i < MAX_ELEMENTS; i++) {
+                if (i > 0) {
+                    buf.append(", ");
+                }
+                appendValue(buf, Array.get(value, i));
+            }
+            if (length > MAX_ELEMENTS) {
+                buf.append(", ...(").append(length).append(" elements)");
+            }
+            buf.append(']');
+        } else {
+            final String text = value.toString();
+            if (text.length() > maxValueSize) {
+                buf.append(text, 0, maxValueSize).append("...(").append(text.length()).append(" chars)");
+            } else {
+                buf.append(text);
+            }
+        }
+    }
+
+    private void appendElements(final StringBuilder buf, final Iterator<?> iterator, final int size) {
+        int count = 0;
+        while (iterator.hasNext()) {
+            if (count > 0) {
+                buf.append(", ");
+            }
+            if (count >= MAX_ELEMENTS) {
+                buf.append("...(").append(size).append(" elements)");
+                return;
+            }
+            appendValue(buf, iterator.next());
+            count++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RowTracer [rowNumbers=" + rowNumbers + ", keyColumn=" + keyColumn + ", keyValues=" + keyValues + ", sampleRate="
+                + sampleRate + ", maxValueSize=" + maxValueSize + "]";
+    }
+}
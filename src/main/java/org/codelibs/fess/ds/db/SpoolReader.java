@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads documents from spool files written by {@link SpoolWriter}.
+ */
+public class SpoolReader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String REPLAY_DIR_PARAM = "replay_dir";
+
+    private SpoolReader() {
+    }
+
+    /**
+     * Returns the directory replayed instead of reading the database, specified by "replay_dir".
+     * It is a spool directory, whose latest complete run is replayed, or a directory of chunk files.
+     *
+     * @param paramMap the parameter map containing configuration
+     * @return the directory, or null if the crawl reads the database
+     */
+    public static Path getReplayDirectory(final DataStoreParams paramMap) {
+        final String replayDir = CrawlParams.getAsTrimmedString(paramMap, REPLAY_DIR_PARAM);
+        return replayDir != null ? Path.of(replayDir) : null;
+    }
+
+    /**
+     * Returns the run directories of a prefix in a spool directory, from the oldest to the newest.
+     *
+     * @param directory the spool directory
+     * @param prefix the prefix of the run directories, such as a data config ID
+     * @return the run directories
+     * @throws IOException if the directory cannot be read
+     */
+    public static List<Path> listRuns(final Path directory, final String prefix) throws IOException {
+        final Pattern pattern = Pattern.compile(Pattern.quote(prefix) + "-\\d{17}(-\\d+)?");
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.filter(path -> Files.isDirectory(path) && pattern.matcher(path.getFileName().toString()).matches())
+                    .sorted().toList();
+        }
+    }
+
+    /**
+     * Returns the latest complete run of a prefix in a spool directory.
+     *
+     * @param directory the spool directory
+     * @param prefix the prefix of the run directories, such as a data config ID
+     * @return the run directory, or null if no run is complete
+     * @throws IOException if the directory cannot be read
+     */
+    public static Path findLatestRun(final Path directory, final String prefix) throws IOException {
+        final List<Path> runs = listRuns(directory, prefix);
+        for (final Path run : runs.reversed()) {
+            if (isComplete(run)) {
+                return run;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a run directory is marked as complete by {@link SpoolWriter#complete()}.
+     *
+     * @param run the run directory
+     * @return true if the run is complete
+     */
+    public static boolean isComplete(final Path run) {
+        return Files.exists(run.resolve(SpoolWriter.COMPLETE_FILE));
+    }
+
+    /**
+     * Returns the complete chunk files in a run directory in name order.
+     *
+     * @param directory the run directory
+     * @return the chunk files
+     * @throws IOException if the directory cannot be read
+     */
+    public static List<Path> listChunks(final Path directory) throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.filter(path -> path.getFileName().toString().endsWith(SpoolWriter.CHUNK_SUFFIX)).sorted().toList();
+        }
+    }
+
+    /**
+     * Reads the documents in a chunk file.
+     *
+     * @param chunkFile the chunk file
+     * @param handler the handler of each document, which returns false to stop reading
+     * @return the number of read documents
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public static long read(final Path chunkFile, final Predicate<Map<String, Object>> handler) throws IOException {
+        long count = 0;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(chunkFile), 65536);
+                JsonParser parser = JSON_FACTORY.createParser(in)) {
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                @SuppressWarnings("unchecked")
+                final Map<String, Object> dataMap = (Map<String, Object>) readValue(parser);
+                count++;
+                if (!handler.test(dataMap)) {
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the value at the current token.
+     *
+     * @param parser the JSON parser
+     * @return the value
+     * @throws IOException if the value cannot be parsed
+     */
+    protected static Object readValue(final JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+        case START_OBJECT: {
+            final Map<String, Object> map = new HashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                map.put(name, readValue(parser));
+            }
+            if (map.size() == 1 && map.get(SpoolWriter.DATE_KEY) instanceof final Number time) {
+                return new Date(time.longValue());
+            }
+            return map;
+        }
+        case START_ARRAY: {
+            final List<Object> list = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                list.add(readValue(parser));
+            }
+            return list;
+        }
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+            return parser.getNumberValue();
+        case VALUE_NUMBER_FLOAT:
+            return parser.getDoubleValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_NULL:
+            return null;
+        default:
+            throw new IOException("Unexpected token " + parser.currentToken() + " at " + parser.currentLocation());
+        }
+    }
+}
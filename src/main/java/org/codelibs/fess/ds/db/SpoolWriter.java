@@ -0,0 +1,330 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.entity.DataStoreParams;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes mapped documents of a crawl to spool files, so the index can be rebuilt without reading the database again.
+ * Each document is a line of JSON, and documents are written to GZIP compressed chunk files
+ * of a fixed number of documents. A chunk file gets its final name only when it is complete,
+ * so {@link SpoolReader} never reads a partial chunk.
+ * Each crawl writes to its own run directory named by the prefix and the start time. A run is marked
+ * as complete when the crawl finishes, and then older runs of the same prefix beyond the number of runs to keep
+ * are deleted, so stale documents are not replayed and the spool directory does not grow without bound.
+ */
+public class SpoolWriter implements Closeable {
+    private static final Logger logger = LogManager.getLogger(SpoolWriter.class);
+
+    /** Suffix of complete chunk files. */
+    public static final String CHUNK_SUFFIX = ".ndjson.gz";
+
+    /** Key of the wrapper object for date values. */
+    public static final String DATE_KEY = "$date";
+
+    /** Name of the file that marks a complete run. */
+    public static final String COMPLETE_FILE = "_complete";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String SPOOL_DIR_PARAM = "spool_dir";
+
+    private static final String SPOOL_CHUNK_SIZE_PARAM = "spool_chunk_size";
+
+    private static final String SPOOL_KEEP_RUNS_PARAM = "spool_keep_runs";
+
+    private static final long DEFAULT_SPOOL_CHUNK_SIZE = 10000L;
+
+    private static final DateTimeFormatter RUN_ID_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS");
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().setRootValueSeparator(null);
+
+    private final Path directory;
+
+    private final Path runDirectory;
+
+    private final String prefix;
+
+    private final long chunkSize;
+
+    private final int keepRuns;
+
+    private boolean completed;
+
+    private OutputStream out;
+
+    private JsonGenerator generator;
+
+    private Path tempFile;
+
+    private int chunkIndex;
+
+    private long chunkCount;
+
+    private long documentCount;
+
+    /**
+     * Creates a spool writer that keeps only the latest complete run.
+     *
+     * @param directory the spool directory
+     * @param prefix the prefix of run directory and chunk file names
+     * @param chunkSize the number of documents in a chunk file
+     * @throws IOException if the directory cannot be created
+     */
+    public SpoolWriter(final Path directory, final String prefix, final long chunkSize) throws IOException {
+        this(directory, prefix, chunkSize, 1);
+    }
+
+    /**
+     * Creates a spool writer.
+     *
+     * @param directory the spool directory
+     * @param prefix the prefix of run directory and chunk file names
+     * @param chunkSize the number of documents in a chunk file
+     * @param keepRuns the number of complete runs kept in the spool directory, including this run
+     * @throws IOException if the directory cannot be created
+     */
+    public SpoolWriter(final Path directory, final String prefix, final long chunkSize, final int keepRuns) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.chunkSize = Math.max(chunkSize, 1);
+        this.keepRuns = Math.max(keepRuns, 1);
+        Files.createDirectories(directory);
+        final String runId = prefix + "-" + LocalDateTime.now().format(RUN_ID_FORMATTER);
+        Path path = directory.resolve(runId);
+        for (int i = 1;; i++) {
+            try {
+                Files.createDirectory(path);
+                break;
+            } catch (final FileAlreadyExistsException e) {
+                path = directory.resolve(runId + "-" + i);
+            }
+        }
+        runDirectory = path;
+    }
+
+    /**
+     * Creates a spool writer from the parameter map.
+     * With "spool_dir", mapped documents are also written to chunk files of "spool_chunk_size" documents,
+     * which can be indexed again by "replay_dir" without reading the database.
+     * Each crawl writes to its own run directory, and "spool_keep_runs" complete runs are kept (1 by default).
+     *
+     * @param paramMap the parameter map containing configuration
+     * @param prefix the prefix of run directory and chunk file names, such as the data config ID
+     * @return the spool writer, or null if spooling is not enabled
+     * @throws IOException if the spool directory cannot be created
+     */
+    public static SpoolWriter create(final DataStoreParams paramMap, final String prefix) throws IOException {
+        final String spoolDir = CrawlParams.getAsTrimmedString(paramMap, SPOOL_DIR_PARAM);
+        if (spoolDir == null) {
+            return null;
+        }
+        return new SpoolWriter(Path.of(spoolDir), prefix, CrawlParams.getAsLong(paramMap, SPOOL_CHUNK_SIZE_PARAM, DEFAULT_SPOOL_CHUNK_SIZE),
+                CrawlParams.getAsInt(paramMap, SPOOL_KEEP_RUNS_PARAM, 1));
+    }
+
+    /**
+     * Returns the run directory of this crawl.
+     *
+     * @return the run directory
+     */
+    public Path getRunDirectory() {
+        return runDirectory;
+    }
+
+    /**
+     * Writes a document.
+     *
+     * @param dataMap the document
+     * @throws IOException if an I/O error occurs
+     */
+    public synchronized void write(final Map<String, Object> dataMap) throws IOException {
+        if (generator == null) {
+            openChunk();
+        }
+        writeValue(generator, dataMap);
+        generator.writeRaw('\n');
+        documentCount++;
+        if (++chunkCount >= chunkSize) {
+            closeChunk();
+        }
+    }
+
+    /**
+     * Returns the number of written documents.
+     *
+     * @return the document count
+     */
+    public synchronized long getDocumentCount() {
+        return documentCount;
+    }
+
+    private void openChunk() throws IOException {
+        tempFile = Files.createTempFile(runDirectory, prefix + "-", TEMP_SUFFIX);
+        out = new GZIPOutputStream(Files.newOutputStream(tempFile), 65536);
+        generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        chunkCount = 0;
+    }
+
+    private void closeChunk() throws IOException {
+        generator.close();
+        out.close();
+        generator = null;
+        out = null;
+        Path chunkFile;
+        do {
+            chunkFile = runDirectory.resolve(String.format("%s-%05d%s", prefix, chunkIndex++, CHUNK_SUFFIX));
+        } while (Files.exists(chunkFile));
+        try {
+            Files.move(tempFile, chunkFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, chunkFile);
+        }
+        tempFile = null;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Wrote {} documents to {}", chunkCount, chunkFile);
+        }
+    }
+
+    /**
+     * Writes a value as JSON.
+     * Dates are written as an object with the epoch milliseconds in {@value #DATE_KEY}, so they are restored as dates,
+     * and values of unknown types are written as strings.
+     *
+     * @param generator the JSON generator
+     * @param value the value
+     * @throws IOException if an I/O error occurs
+     */
+    protected static void writeValue(final JsonGenerator generator, final Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof final String s) {
+            generator.writeString(s);
+        } else if (value instanceof final Boolean b) {
+            generator.writeBoolean(b);
+        } else if (value instanceof final Integer i) {
+            generator.writeNumber(i);
+        } else if (value instanceof final Long l) {
+            generator.writeNumber(l);
+        } else if (value instanceof final Short s) {
+            generator.writeNumber(s);
+        } else if (value instanceof final Double d) {
+            generator.writeNumber(d);
+        } else if (value instanceof final Float f) {
+            generator.writeNumber(f);
+        } else if (value instanceof final Number n) {
+            generator.writeNumber(n.toString());
+        } else if (value instanceof final Date d) {
+            generator.writeStartObject();
+            generator.writeNumberField(DATE_KEY, d.getTime());
+            generator.writeEndObject();
+        } else if (value instanceof final Map<?, ?> m) {
+            generator.writeStartObject();
+            for (final Map.Entry<?, ?> entry : m.entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof final Collection<?> c) {
+            generator.writeStartArray();
+            for (final Object element : c) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        } else if (value.getClass().isArray()) {
+            generator.writeStartArray();
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                writeValue(generator, Array.get(value, i));
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    /**
+     * Marks this run as complete after all documents of the crawl are written,
+     * and deletes the runs of the same prefix that are older than the runs to keep.
+     *
+     * @throws IOException if the run cannot be marked as complete
+     */
+    public synchronized void complete() throws IOException {
+        if (generator != null) {
+            closeChunk();
+        }
+        Files.createFile(runDirectory.resolve(COMPLETE_FILE));
+        completed = true;
+        final List<Path> runs = SpoolReader.listRuns(directory, prefix);
+        int completeRuns = 0;
+        // runs are listed from the newest, and incomplete runs older than this run are deleted
+        for (final Path run : runs.reversed()) {
+            if (run.equals(runDirectory)) {
+                completeRuns++;
+            } else if (completeRuns > 0 && (!SpoolReader.isComplete(run) || ++completeRuns > keepRuns)) {
+                deleteRun(run);
+            }
+        }
+    }
+
+    private static void deleteRun(final Path run) {
+        try (Stream<Path> stream = Files.walk(run)) {
+            for (final Path path : stream.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+            logger.info("Deleted the old spool run {}", run);
+        } catch (final IOException e) {
+            logger.warn("Failed to delete the old spool run {}", run, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (generator != null) {
+            closeChunk();
+        }
+        if (completed) {
+            logger.info("Spooled {} documents to {}", documentCount, runDirectory);
+        } else {
+            logger.warn("Spooled {} documents to {}, but the run is incomplete and is not replayed.", documentCount, runDirectory);
+        }
+    }
+}
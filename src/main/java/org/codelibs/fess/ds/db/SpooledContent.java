@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Binary content kept in memory or in a temporary file.
+ * Small content stays in memory and larger content is written to a temporary file,
+ * so that it can be read more than once after the source stream is gone.
+ * A SHA-256 digest of the content is computed while spooling.
+ */
+public class SpooledContent implements Closeable {
+    private static final Logger logger = LogManager.getLogger(SpooledContent.class);
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final byte[] bytes;
+
+    private final Path file;
+
+    private final long length;
+
+    private byte[] digest;
+
+    private SpooledContent(final byte[] bytes, final Path file, final long length, final byte[] digest) {
+        this.bytes = bytes;
+        this.file = file;
+        this.length = length;
+        this.digest = digest;
+    }
+
+    /**
+     * Wraps a byte array without copying it.
+     *
+     * @param bytes the content
+     * @return the spooled content
+     */
+    public static SpooledContent of(final byte[] bytes) {
+        return new SpooledContent(bytes, null, bytes.length, null);
+    }
+
+    /**
+     * Reads a stream into memory, or into a temporary file if it is larger than the threshold.
+     * The stream is not closed by this method.
+     *
+     * @param in the source stream
+     * @param memoryThreshold the maximum size kept in memory
+     * @return the spooled content
+     * @throws IOException if an I/O error occurs
+     */
+    public static SpooledContent spool(final InputStream in, final int memoryThreshold) throws IOException {
+        final MessageDigest messageDigest = newDigest();
+        final ByteArrayOutputStream memory = new ByteArrayOutputStream(Math.min(memoryThreshold, BUFFER_SIZE));
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long length = 0;
+        Path file = null;
+        OutputStream out = memory;
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, n);
+                length += n;
+                if (file == null && length > memoryThreshold) {
+                    file = Files.createTempFile("fess-ds-db-", ".tmp");
+                    out = Files.newOutputStream(file);
+                    memory.writeTo(out);
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (final IOException | RuntimeException e) {
+            if (file != null) {
+                out.close();
+                Files.deleteIfExists(file);
+            }
+            throw e;
+        }
+        if (file != null) {
+            out.close();
+            return new SpooledContent(null, file, length, messageDigest.digest());
+        }
+        return new SpooledContent(memory.toByteArray(), null, length, messageDigest.digest());
+    }
+
+    /**
+     * Opens a new stream over the content.
+     *
+     * @return the input stream
+     * @throws IOException if an I/O error occurs
+     */
+    public InputStream open() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file);
+        }
+        return new ByteArrayInputStream(bytes);
+    }
+
+    /**
+     * Returns the size of the content.
+     *
+     * @return the size in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Checks if the content is written to a temporary file.
+     *
+     * @return true if the content is in a file
+     */
+    public boolean isInFile() {
+        return file != null;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the content.
+     *
+     * @return the digest
+     * @throws IOException if an I/O error occurs
+     */
+    public byte[] getDigest() throws IOException {
+        if (digest == null) {
+            final MessageDigest messageDigest = newDigest();
+            if (bytes != null) {
+                messageDigest.update(bytes);
+            } else {
+                try (InputStream in = open()) {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        messageDigest.update(buffer, 0, n);
+                    }
+                }
+            }
+            digest = messageDigest.digest();
+        }
+        return digest;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not supported.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (final IOException e) {
+                logger.warn("Failed to delete {}.", file, e);
+            }
+        }
+    }
+}
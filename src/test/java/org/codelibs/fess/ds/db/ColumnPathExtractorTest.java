@@ -0,0 +1,166 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ColumnPathExtractorTest extends UnitDsTestCase {
+
+    private static final String JSON = "{\"id\":42,\"user\":{\"name\":\"Alice\",\"active\":true,\"score\":1.5,\"bio\":null},"
+            + "\"items\":[{\"id\":1,\"tags\":[\"a\",\"b\"]},{\"id\":2,\"tags\":[]}],\"meta\":{\"skip\":[1,2,{\"x\":3}]}}";
+
+    private static final String XML = "<?xml version=\"1.0\"?><book id=\"b1\"><title>Title 1</title><authors>"
+            + "<author>Alice</author><author>Bob</author></authors><summary>Some <b>bold</b> text</summary>"
+            + "<chapter n=\"1\"><title>Intro</title></chapter></book>";
+
+    public void test_json_scalars() throws Exception {
+        final ColumnPathExtractor extractor = new ColumnPathExtractor("doc", ColumnPathExtractor.Format.JSON).addPath("id", "id")
+                .addPath("name", "$.user.name")
+                .addPath("active", "user.active")
+                .addPath("score", "user.score")
+                .addPath("bio", "user.bio")
+                .addPath("missing", "user.missing");
+        final Map<String, Object> fieldMap = extractor.extract(JSON);
+        assertEquals(42L, fieldMap.get("id"));
+        assertEquals("Alice", fieldMap.get("name"));
+        assertEquals(Boolean.TRUE, fieldMap.get("active"));
+        assertEquals(1.5, fieldMap.get("score"));
+        assertTrue(fieldMap.containsKey("bio"));
+        assertNull(fieldMap.get("bio"));
+        assertFalse(fieldMap.containsKey("missing"));
+    }
+
+    public void test_json_arrays() throws Exception {
+        final ColumnPathExtractor extractor = new ColumnPathExtractor("doc", ColumnPathExtractor.Format.JSON)
+                .addPath("first", "items[0].id")
+                .addPath("ids", "items[].id")
+                .addPath("tags", "items[].tags[]")
+                .addPath("second_tags", "items[1].tags[]")
+                .addPath("out_of_range", "items[5].id");
+        final Map<String, Object> fieldMap = extractor.extract(JSON);
+        assertEquals(1L, fieldMap.get("first"));
+        assertEquals(Arrays.asList(1L, 2L), fieldMap.get("ids"));
+        assertEquals(Arrays.asList("a", "b"), fieldMap.get("tags"));
+        assertEquals(Collections.emptyList(), fieldMap.get("second_tags"));
+        assertFalse(fieldMap.containsKey("out_of_range"));
+    }
+
+    public void test_json_containers() throws Exception {
+        final ColumnPathExtractor extractor = new ColumnPathExtractor("doc", ColumnPathExtractor.Format.JSON).addPath("user", "user")
+                .addPath("name", "user.name")
+                .addPath("x", "meta.skip[2].x");
+        final Map<String, Object> fieldMap = extractor.extract(JSON);
+        final Map<String, Object> user = new LinkedHashMap<>();
+        user.put("name", "Alice");
+        user.put("active", true);
+        user.put("score", 1.5);
+        user.put("bio", null);
+        assertEquals(user, fieldMap.get("user"));
+        assertEquals("Alice", fieldMap.get("name"));
+        assertEquals(3L, fieldMap.get("x"));
+    }
+
+    public void test_json_invalid() {
+        final ColumnPathExtractor extractor = new ColumnPathExtractor("doc", ColumnPathExtractor.Format.JSON).addPath("id", "id");
+        try {
+            extractor.extract("{\"id\":");
+            fail();
+        } catch (final IOException e) {
+            // expected
+        }
+        try {
+            extractor.addPath("bad", "items[x]");
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void test_xml() throws Exception {
+        final ColumnPathExtractor extractor = new ColumnPathExtractor("doc", ColumnPathExtractor.Format.XML).addPath("id", "/book/@id")
+                .addPath("title", "/book/title")
+                .addPath("authors", "book/authors/author")
+                .addPath("summary", "/book/summary")
+                .addPath("titles", "/book/*/title")
+                .addPath("chapter", "/book/chapter/@n")
+                .addPath("missing", "/book/missing");
+        final Map<String, Object> fieldMap = extractor.extract(XML);
+        assertEquals("b1", fieldMap.get("id"));
+        assertEquals("Title 1", fieldMap.get("title"));
+        assertEquals(Arrays.asList("Alice", "Bob"), fieldMap.get("authors"));
+        assertEquals("Some bold text", fieldMap.get("summary"));
+        assertEquals("Intro", fieldMap.get("titles"));
+        assertEquals("1", fieldMap.get("chapter"));
+        assertFalse(fieldMap.containsKey("missing"));
+    }
+
+    public void test_xml_invalid() {
+        final ColumnPathExtractor extractor =
+                new ColumnPathExtractor("doc", ColumnPathExtractor.Format.XML).addPath("title", "/book/title");
+        try {
+            extractor.extract("<book><title>Title</book>");
+            fail();
+        } catch (final IOException e) {
+            // expected
+        }
+        try {
+            extractor.extract("<!DOCTYPE book [<!ENTITY x SYSTEM \"file:///etc/passwd\">]><book><title>&x;</title></book>");
+            fail();
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    public void test_blank() throws Exception {
+        final ColumnPathExtractor extractor = new ColumnPathExtractor("doc", ColumnPathExtractor.Format.JSON).addPath("id", "id")
+                .addPath("ids", "items[].id");
+        final Map<String, Object> fieldMap = extractor.extract("");
+        assertFalse(fieldMap.containsKey("id"));
+        assertEquals(Collections.emptyList(), fieldMap.get("ids"));
+    }
+
+    public void test_create() throws Exception {
+        final Map<String, Object> paramMap = new HashMap<>();
+        paramMap.put("column_json.DATA.name", "user.name");
+        paramMap.put("column_json.DATA.ids", "items[].id");
+        paramMap.put("column_xml.BOOK.title", "/book/title");
+        paramMap.put("column_json.DATA", "user.name");
+        paramMap.put("column_json.EMPTY.name", " ");
+        paramMap.put("column_charset.DATA", "UTF-8");
+        final Map<String, ColumnPathExtractor> extractorMap = ColumnPathExtractor.create(paramMap);
+        assertEquals(2, extractorMap.size());
+        assertEquals("DATA", extractorMap.get("DATA").getColumn());
+
+        final Map<String, Object> fieldMap = extractorMap.get("DATA").extract(JSON);
+        assertEquals("Alice", fieldMap.get("name"));
+        assertEquals(Arrays.asList(1L, 2L), fieldMap.get("ids"));
+        assertEquals("Title 1", extractorMap.get("BOOK").extract(XML).get("title"));
+
+        paramMap.put("column_xml.DATA.title", "/book/title");
+        try {
+            ColumnPathExtractor.create(paramMap);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        assertTrue(ColumnPathExtractor.create(new HashMap<>()).isEmpty());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CrawlExecutorTest extends UnitDsTestCase {
+
+    public void test_sequential() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        try (CrawlExecutor executor = CrawlExecutor.sequential()) {
+            final Thread current = Thread.currentThread();
+            for (int i = 0; i < 10; i++) {
+                executor.execute(CrawlExecutor.CALLBACK, () -> {
+                    assertTrue(current == Thread.currentThread());
+                    counter.incrementAndGet();
+                });
+            }
+            executor.await();
+        }
+        assertEquals(10, counter.get());
+    }
+
+    public void test_virtual_limit() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        try (CrawlExecutor executor = CrawlExecutor.virtual("test").limit(CrawlExecutor.CALLBACK, 3)) {
+            for (int i = 0; i < 50; i++) {
+                executor.execute(CrawlExecutor.CALLBACK, () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    counter.incrementAndGet();
+                });
+            }
+            executor.await();
+            assertEquals(0L, executor.getPendingCount());
+        }
+        assertEquals(50, counter.get());
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    public void test_platform_failure() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        try (CrawlExecutor executor = CrawlExecutor.platform("test", 2)) {
+            executor.execute(CrawlExecutor.CALLBACK, () -> {
+                throw new IllegalStateException("test");
+            });
+            executor.execute(CrawlExecutor.CALLBACK, counter::incrementAndGet);
+            executor.await();
+        }
+        assertEquals(1, counter.get());
+    }
+
+    public void test_getLimit() {
+        try (CrawlExecutor executor = CrawlExecutor.sequential().limit(CrawlExecutor.CONNECTION, 2)) {
+            assertEquals(2, executor.getLimit(CrawlExecutor.CONNECTION));
+            assertEquals(0, executor.getLimit(CrawlExecutor.EXTRACTION));
+            executor.limit(CrawlExecutor.CONNECTION, 0);
+            assertEquals(0, executor.getLimit(CrawlExecutor.CONNECTION));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+public class CrawlProfilerTest extends UnitDsTestCase {
+
+    public void test_maxRows() {
+        final CrawlProfiler profiler = new CrawlProfiler(3, 0);
+        assertFalse(profiler.recordRow());
+        assertFalse(profiler.recordRow());
+        assertTrue(profiler.recordRow());
+        assertEquals(3L, profiler.getRowCount());
+    }
+
+    public void test_maxTime() throws Exception {
+        final CrawlProfiler profiler = new CrawlProfiler(0, 10);
+        assertFalse(profiler.isComplete());
+        Thread.sleep(20L);
+        assertTrue(profiler.isComplete());
+    }
+
+    public void test_toJson() {
+        final CrawlProfiler profiler = new CrawlProfiler(0, 0);
+        profiler.recordRow();
+        profiler.recordColumn("id", "INTEGER", Integer.class, 2, 1_000_000L);
+        profiler.recordColumn("body", "BLOB", byte[].class, 100, 5_000_000L);
+        profiler.recordColumn("body", "BLOB", null, 0, 1_000_000L);
+        profiler.recordExtraction("body", 4_000_000L);
+        profiler.recordScript("title", 2_000_000L);
+
+        final String json = profiler.toJson();
+        assertTrue(json, json.contains("\"rows\" : 1"));
+        assertTrue(json, json.contains("\"jdbc_type\" : \"BLOB\""));
+        assertTrue(json, json.contains("\"java_class\" : [ \"[B\" ]"));
+        assertTrue(json, json.contains("\"nulls\" : 1"));
+        assertTrue(json, json.contains("\"avg_size\" : 50"));
+        assertTrue(json, json.contains("\"max_size\" : 100"));
+        assertTrue(json, json.contains("\"extraction\""));
+        assertTrue(json, json.contains("\"title\""));
+        assertTrue(json, json.indexOf("\"id\"") < json.indexOf("\"body\""));
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.codelibs.fess.ds.callback.IndexUpdateCallback;
+import org.codelibs.fess.entity.DataStoreParams;
+import org.codelibs.fess.helper.CrawlerStatsHelper;
+import org.codelibs.fess.opensearch.config.exentity.DataConfig;
+import org.codelibs.fess.util.ComponentUtil;
+import org.junit.jupiter.api.TestInfo;
+
+/**
+ * Crawls an embedded HSQLDB database end to end.
+ * The number of rows is set by the system property "fess.ds.db.test.rows" and the time budget of a crawl
+ * in milliseconds by "fess.ds.db.test.time_budget", so the same tests run as a local load test with millions of rows.
+ */
+public class DatabaseDataStoreIntegrationTest extends UnitDsTestCase {
+    private static final int ROWS = Integer.getInteger("fess.ds.db.test.rows", 2000);
+
+    private static final long TIME_BUDGET = Long.getLong("fess.ds.db.test.time_budget", 60000L);
+
+    private static final int BODY_SIZE = 10000;
+
+    private static final AtomicLong DB_COUNTER = new AtomicLong();
+
+    private String url;
+
+    private Connection connection;
+
+    private TestDataStore dataStore;
+
+    @Override
+    protected boolean isSuppressTestCaseTransaction() {
+        return true;
+    }
+
+    @Override
+    public void setUp(final TestInfo testInfo) throws Exception {
+        super.setUp(testInfo);
+        url = "jdbc:hsqldb:mem:crawl" + DB_COUNTER.incrementAndGet();
+        connection = DriverManager.getConnection(url, "sa", "");
+        createTables(connection, ROWS);
+        dataStore = new TestDataStore();
+    }
+
+    @Override
+    public void tearDown(final TestInfo testInfo) throws Exception {
+        if (connection != null) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("SHUTDOWN");
+            }
+            connection.close();
+        }
+        ComponentUtil.setFessConfig(null);
+        super.tearDown(testInfo);
+    }
+
+    public void test_sequential() {
+        final CapturingCallback callback = crawl(newParamMap("SELECT * FROM doc ORDER BY id"));
+        assertDocuments(callback, ROWS);
+    }
+
+    public void test_virtualThreads() {
+        final DataStoreParams paramMap = newParamMap("SELECT * FROM doc ORDER BY id");
+        paramMap.put("executor_type", "virtual");
+        paramMap.put("max_concurrent_callbacks", "8");
+        final CapturingCallback callback = crawl(paramMap);
+        assertDocuments(callback, ROWS);
+    }
+
+    public void test_platformThreads() {
+        final DataStoreParams paramMap = newParamMap("SELECT * FROM doc ORDER BY id");
+        paramMap.put("executor_type", "platform");
+        paramMap.put("executor_threads", "4");
+        final CapturingCallback callback = crawl(paramMap);
+        assertDocuments(callback, ROWS);
+    }
+
+    public void test_lobSpool() {
+        final DataStoreParams paramMap = newParamMap("SELECT * FROM doc ORDER BY id");
+        paramMap.put("executor_type", "virtual");
+        paramMap.put("max_concurrent_callbacks", "8");
+        paramMap.put("lob_spool", "true");
+        paramMap.put("memory_budget", String.valueOf(16 * 1024 * 1024));
+        try {
+            final CapturingCallback callback = crawl(paramMap);
+            assertDocuments(callback, ROWS);
+        } finally {
+            MemoryBudget.getInstance().setCapacity(0);
+        }
+    }
+
+    public void test_preview() {
+        final DataStoreParams paramMap = newParamMap("SELECT * FROM doc ORDER BY id");
+        paramMap.put("preview_rows", "10");
+        final CapturingCallback callback = crawl(paramMap);
+        assertEquals(0, callback.storeCount.intValue());
+        assertEquals(10L, dataStore.lastProfiler.getRowCount());
+
+        final DataStoreParams sampleParamMap = newParamMap("SELECT * FROM doc {sample} ORDER BY id");
+        sampleParamMap.put("preview_sample_percent", "10");
+        crawl(sampleParamMap);
+        final long sampled = dataStore.lastProfiler.getRowCount();
+        assertTrue(String.valueOf(sampled), sampled > 0 && sampled < ROWS);
+    }
+
+    public void test_mergeJoinedRows() {
+        final DataStoreParams paramMap =
+                newParamMap("SELECT d.id, d.title, t.label FROM doc d JOIN doc_label t ON d.id = t.doc_id ORDER BY d.id");
+        paramMap.put("doc_key_columns", "ID");
+        paramMap.put("doc_key_policy", "merge");
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("id", "ID");
+        scriptMap.put("label", "LABEL");
+        final CapturingCallback callback = crawl(paramMap, scriptMap);
+
+        assertEquals(ROWS, callback.documents.size());
+        assertEquals(Arrays.asList("label0", "label1"), callback.documents.get("1").get("label"));
+        assertEquals("label0", callback.documents.get("2").get("label"));
+        // odd IDs have two labels
+        assertEquals((ROWS + 1) / 2L, dataStore.lastRowStats.getMergedCount());
+        assertEquals(0L, dataStore.lastRowStats.getDuplicateCount());
+    }
+
+    public void test_skipDuplicateRows() {
+        final DataStoreParams paramMap = newParamMap("SELECT d.id, t.label FROM doc d JOIN doc_label t ON d.id = t.doc_id ORDER BY d.id");
+        paramMap.put("doc_key_columns", "ID");
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("id", "ID");
+        scriptMap.put("label", "LABEL");
+        final CapturingCallback callback = crawl(paramMap, scriptMap);
+
+        assertEquals(ROWS, callback.documents.size());
+        assertEquals(ROWS, callback.storeCount.intValue());
+        assertEquals("label0", callback.documents.get("1").get("label"));
+        assertEquals((ROWS + 1) / 2L, dataStore.lastRowStats.getDuplicateCount());
+        assertEquals(0L, dataStore.lastRowStats.getMergedCount());
+    }
+
+    public void test_consistentSnapshot_connectionLimit() {
+        final DataStoreParams paramMap = newParamMap("SELECT * FROM doc ORDER BY id");
+        paramMap.put("consistent_snapshot", "true");
+        paramMap.put("max_concurrent_connections", "2");
+        paramMap.put("executor_type", "virtual");
+        final CapturingCallback callback = crawl(paramMap);
+        assertDocuments(callback, ROWS);
+    }
+
+    public void test_shards() throws Exception {
+        final String prefix = "jdbc:hsqldb:mem:shard" + DB_COUNTER.incrementAndGet() + "_";
+        final Connection[] shardConnections = new Connection[3];
+        try {
+            for (int i = 0; i < shardConnections.length; i++) {
+                shardConnections[i] = DriverManager.getConnection(prefix + i, "sa", "");
+                createTables(shardConnections[i], 100 * (i + 1));
+            }
+            final DataStoreParams paramMap = newParamMap("SELECT * FROM doc ORDER BY id");
+            paramMap.put("url", prefix + "{shard}");
+            paramMap.put("shards", "0-2");
+            paramMap.put("shard_concurrency", "2");
+            paramMap.put("executor_type", "virtual");
+            final Map<String, String> scriptMap = new LinkedHashMap<>();
+            scriptMap.put("id", "ID");
+            scriptMap.put("shard", "shard");
+            final DataConfig config = new DataConfig();
+            config.setId("integration");
+            final List<Map<String, Object>> storedDocuments = new CopyOnWriteArrayList<>();
+            final CapturingCallback callback = new CapturingCallback() {
+                @Override
+                public void store(final DataStoreParams params, final Map<String, Object> dataMap) {
+                    storedDocuments.add(dataMap);
+                }
+            };
+            dataStore.storeData(config, callback, paramMap, scriptMap, new HashMap<>());
+
+            assertEquals(600, storedDocuments.size());
+            for (int i = 0; i < shardConnections.length; i++) {
+                final String shardId = String.valueOf(i);
+                assertEquals(100L * (i + 1), storedDocuments.stream().filter(doc -> shardId.equals(doc.get("shard"))).count());
+            }
+        } finally {
+            for (final Connection con : shardConnections) {
+                if (con != null) {
+                    try (Statement stmt = con.createStatement()) {
+                        stmt.execute("SHUTDOWN");
+                    }
+                    con.close();
+                }
+            }
+        }
+    }
+
+    public void test_setRateLimit() {
+        final DataStoreParams paramMap = newParamMap("SELECT * FROM doc ORDER BY id");
+        final List<RateLimiter> rateLimiters = new CopyOnWriteArrayList<>();
+        final CapturingCallback callback = new CapturingCallback() {
+            @Override
+            public void store(final DataStoreParams params, final Map<String, Object> dataMap) {
+                if (rateLimiters.isEmpty()) {
+                    // the crawl started without a limit
+                    rateLimiters.add(dataStore.getRateLimiter("integration"));
+                    assertTrue(dataStore.setRateLimit("integration", ROWS * 10.0, 0));
+                }
+                super.store(params, dataMap);
+            }
+        };
+        final DataConfig config = new DataConfig();
+        config.setId("integration");
+        dataStore.storeData(config, callback, paramMap, new LinkedHashMap<>(Map.of("id", "ID")), new HashMap<>());
+
+        assertEquals(ROWS, callback.storeCount.intValue());
+        assertEquals(1, rateLimiters.size());
+        assertTrue(rateLimiters.get(0).isEnabled());
+        assertEquals(Double.valueOf(ROWS * 10.0), Double.valueOf(rateLimiters.get(0).getRowsPerSecond()));
+        assertNull(dataStore.getRateLimiter("integration"));
+    }
+
+    public void test_spoolReplay() throws Exception {
+        final Path spoolDir = Files.createTempDirectory("spool");
+        try {
+            final DataStoreParams paramMap = newParamMap("SELECT * FROM doc ORDER BY id");
+            paramMap.put("spool_dir", spoolDir.toString());
+            paramMap.put("spool_chunk_size", "500");
+            assertDocuments(crawl(paramMap), ROWS);
+
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("DELETE FROM doc WHERE id > " + ROWS / 2);
+                stmt.executeUpdate("UPDATE doc SET note = 'updated' WHERE id = 1");
+            }
+            assertEquals(ROWS / 2, crawl(paramMap).documents.size());
+            // only the latest complete run is kept
+            assertEquals(1, SpoolReader.listRuns(spoolDir, "integration").size());
+
+            final DataStoreParams replayParamMap = newParamMap("SELECT * FROM doc ORDER BY id");
+            replayParamMap.put("replay_dir", spoolDir.toString());
+            final CapturingCallback callback = crawl(replayParamMap);
+            assertEquals(ROWS / 2, callback.documents.size());
+            assertEquals(ROWS / 2, callback.storeCount.intValue());
+            assertEquals("updated", callback.documents.get("1").get("note"));
+            assertNull(callback.documents.get(String.valueOf(ROWS)));
+        } finally {
+            try (Stream<Path> stream = Files.walk(spoolDir)) {
+                stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private DataStoreParams newParamMap(final String sql) {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("driver", "org.hsqldb.jdbc.JDBCDriver");
+        paramMap.put("url", url);
+        paramMap.put("username", "sa");
+        paramMap.put("password", "");
+        paramMap.put("sql", sql);
+        return paramMap;
+    }
+
+    private CapturingCallback crawl(final DataStoreParams paramMap) {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        for (final String column : new String[] { "id", "title", "body", "tags", "note", "score", "updated" }) {
+            scriptMap.put(column, column.toUpperCase(Locale.ROOT));
+        }
+        return crawl(paramMap, scriptMap);
+    }
+
+    private CapturingCallback crawl(final DataStoreParams paramMap, final Map<String, String> scriptMap) {
+        final DataConfig config = new DataConfig();
+        config.setId("integration");
+        final CapturingCallback callback = new CapturingCallback();
+        final long startTime = System.currentTimeMillis();
+        dataStore.storeData(config, callback, paramMap, scriptMap, new HashMap<>());
+        final long elapsed = System.currentTimeMillis() - startTime;
+        assertTrue("The crawl took " + elapsed + "ms over the budget of " + TIME_BUDGET + "ms.", elapsed <= TIME_BUDGET);
+        return callback;
+    }
+
+    private void assertDocuments(final CapturingCallback callback, final int rows) {
+        assertEquals(rows, callback.documents.size());
+        assertEquals(rows, callback.storeCount.intValue());
+        for (int i = 1; i <= rows; i++) {
+            final Map<String, Object> doc = callback.documents.get(String.valueOf(i));
+            assertNotNull("Missing document: " + i, doc);
+            assertEquals("Title " + i, doc.get("title"));
+            assertEquals(BODY_SIZE, doc.get("body").toString().length());
+            assertEquals("t" + i % 5 + " common", doc.get("tags"));
+            assertEquals(i % 10 == 0 ? "note " + i : "", doc.get("note"));
+        }
+    }
+
+    private static void createTables(final Connection con, final int rows) throws Exception {
+        try (Statement stmt = con.createStatement()) {
+            stmt.execute("CREATE TABLE doc (id BIGINT PRIMARY KEY, title VARCHAR(200), body CLOB, tags VARCHAR(20) ARRAY,"
+                    + " note VARCHAR(100), score DOUBLE, updated TIMESTAMP)");
+            stmt.execute("CREATE TABLE doc_label (doc_id BIGINT, label VARCHAR(20))");
+        }
+        final String body = "x".repeat(BODY_SIZE);
+        try (PreparedStatement doc = con.prepareStatement("INSERT INTO doc VALUES (?, ?, ?, ?, ?, ?, ?)");
+                PreparedStatement label = con.prepareStatement("INSERT INTO doc_label VALUES (?, ?)")) {
+            for (int i = 1; i <= rows; i++) {
+                doc.setLong(1, i);
+                doc.setString(2, "Title " + i);
+                doc.setString(3, body);
+                doc.setArray(4, con.createArrayOf("VARCHAR", new Object[] { "t" + i % 5, "common" }));
+                // 9 in 10 notes are NULL
+                doc.setString(5, i % 10 == 0 ? "note " + i : null);
+                doc.setDouble(6, i / 10.0);
+                doc.setTimestamp(7, new Timestamp(1700000000000L + i * 1000L));
+                doc.addBatch();
+                for (int j = 0; j <= i % 2; j++) {
+                    label.setLong(1, i);
+                    label.setString(2, "label" + j);
+                    label.addBatch();
+                }
+                if (i % 1000 == 0 || i == rows) {
+                    doc.executeBatch();
+                    label.executeBatch();
+                }
+            }
+        }
+    }
+
+    private static class TestDataStore extends DatabaseDataStore {
+        CrawlProfiler lastProfiler;
+
+        RowStats lastRowStats;
+
+        @Override
+        protected CrawlerStatsHelper getCrawlerStatsHelper() {
+            return null;
+        }
+
+        // a script is the label of a column, which is upper case in HSQLDB
+        @Override
+        protected Object convertValue(final String scriptType, final String template, final Map<String, Object> paramMap) {
+            return paramMap.get(template);
+        }
+
+        @Override
+        protected RowStats createRowStats(final String statsId, final DataStoreParams paramMap) {
+            lastRowStats = super.createRowStats(statsId, paramMap);
+            return lastRowStats;
+        }
+
+        @Override
+        protected void writeProfile(final DataStoreParams paramMap, final CrawlProfiler profiler) {
+            lastProfiler = profiler;
+        }
+    }
+
+    private static class CapturingCallback implements IndexUpdateCallback {
+        final Map<String, Map<String, Object>> documents = new ConcurrentHashMap<>();
+
+        final AtomicLong storeCount = new AtomicLong();
+
+        @Override
+        public void store(final DataStoreParams paramMap, final Map<String, Object> dataMap) {
+            storeCount.incrementAndGet();
+            documents.put(String.valueOf(dataMap.get("id")), dataMap);
+        }
+
+        @Override
+        public long getDocumentSize() {
+            return storeCount.get();
+        }
+
+        @Override
+        public long getExecuteTime() {
+            return 0;
+        }
+
+        @Override
+        public void commit() {
+            // nothing to commit
+        }
+    }
+}
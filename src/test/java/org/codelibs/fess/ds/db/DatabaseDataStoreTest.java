@@ -17,14 +17,44 @@ package org.codelibs.fess.ds.db;
 
 import org.junit.jupiter.api.TestInfo;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Array;
+import java.sql.Blob;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.codelibs.fess.Constants;
+import org.codelibs.fess.ds.callback.IndexUpdateCallback;
 import org.codelibs.fess.entity.DataStoreParams;
 import org.codelibs.fess.exception.DataStoreException;
+import org.codelibs.fess.helper.CrawlerStatsHelper.StatsKeyObject;
+import org.codelibs.fess.opensearch.config.exentity.DataConfig;
 import org.codelibs.fess.util.ComponentUtil;
 import org.codelibs.fess.ds.db.UnitDsTestCase;
 
@@ -903,4 +933,893 @@ public class DatabaseDataStoreTest extends UnitDsTestCase {
         assertEquals("user'--", dataStore.getUsername(paramMap));
         assertEquals("'; DROP TABLE users;--", dataStore.getPassword(paramMap));
     }
+
+    public void test_createRateLimiter() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        assertFalse(dataStore.createRateLimiter(paramMap).isEnabled());
+
+        paramMap.put("rows_per_second", "100");
+        assertTrue(dataStore.createRateLimiter(paramMap).isEnabled());
+
+        final DataStoreParams adaptiveParamMap = new DataStoreParams();
+        adaptiveParamMap.put("adaptive_throttle", "true");
+        assertTrue(dataStore.createRateLimiter(adaptiveParamMap).isEnabled());
+    }
+
+    public void test_createIngestMonitor() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        assertNull(dataStore.createIngestMonitor(paramMap));
+
+        paramMap.put("ingest_backpressure", "true");
+        final IngestMonitor monitor = dataStore.createIngestMonitor(paramMap);
+        assertNotNull(monitor);
+        assertEquals(Double.valueOf(1.0), Double.valueOf(monitor.getFactor()));
+    }
+
+    public void test_storeToIndex() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("ingest_backpressure", "true");
+        paramMap.put("ingest_window_size", "2");
+        final List<Map<String, Object>> stored = new ArrayList<>();
+        final IndexUpdateCallback callback = new IndexUpdateCallback() {
+            @Override
+            public void store(final DataStoreParams params, final Map<String, Object> dataMap) {
+                if (dataMap.containsKey("reject")) {
+                    throw new IllegalStateException("rejected_execution_exception");
+                }
+                stored.add(dataMap);
+            }
+
+            @Override
+            public long getDocumentSize() {
+                return stored.size();
+            }
+
+            @Override
+            public long getExecuteTime() {
+                return 0;
+            }
+
+            @Override
+            public void commit() {
+                // nothing to commit
+            }
+        };
+        final CrawlSession session = new CrawlSession(null, callback, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        session.setIngestMonitor(dataStore.createIngestMonitor(paramMap));
+
+        dataStore.storeToIndex(session, paramMap, new HashMap<>(Map.of("id", "1")));
+        assertEquals(1, stored.size());
+        try {
+            dataStore.storeToIndex(session, paramMap, new HashMap<>(Map.of("reject", "true")));
+            fail();
+        } catch (final IllegalStateException e) {
+            // the error is handled as a failure of the row
+        }
+        assertEquals(1L, session.getIngestMonitor().getPauseCount());
+        assertTrue(session.getIngestMonitor().getPauseNanos() > 0);
+        assertTrue(session.getIngestMonitor().getFactor() < 1.0);
+    }
+
+    public void test_setRateLimit_notRunning() {
+        assertFalse(dataStore.setRateLimit("unknown", 10, 0));
+        assertNull(dataStore.getRateLimiter("unknown"));
+    }
+
+    public void test_createCrawlExecutor() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        try (CrawlExecutor executor = dataStore.createCrawlExecutor(paramMap)) {
+            assertFalse(executor.isParallel());
+        }
+
+        paramMap.put("executor_type", "virtual");
+        try (CrawlExecutor executor = dataStore.createCrawlExecutor(paramMap)) {
+            assertTrue(executor.isParallel());
+        }
+
+        paramMap.put("executor_type", "platform");
+        paramMap.put("executor_threads", "2");
+        try (CrawlExecutor executor = dataStore.createCrawlExecutor(paramMap)) {
+            assertTrue(executor.isParallel());
+        }
+    }
+
+    public void test_getArrayValues() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[0], new Object[0], new int[0]), paramMap);
+
+        final List<Object> values = params.getArrayValues(newArray(new Object[] { "a", 1, null, newArray(new Object[] { "b", 2.5 }) }));
+        assertEquals(Arrays.asList("a", 1, "b", 2.5), values);
+
+        assertEquals(Arrays.asList("x", "y"), params.getArrayValues(newArray(new Object[] { new String[] { "x", "y" } })));
+        assertTrue(params.getArrayValues(null).isEmpty());
+    }
+
+    public void test_getArrayValues_maxElements() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("array_max_elements", "3");
+        final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[0], new Object[0], new int[0]), paramMap);
+
+        assertEquals(Arrays.asList(1, 2, 3), params.getArrayValues(newArray(new Object[] { 1, 2, 3, 4, 5 })));
+    }
+
+    public void test_arrayColumn() throws Exception {
+        final Array array = newArray(new Object[] { "red", "green", "blue" });
+        final DataStoreParams paramMap = new DataStoreParams();
+        DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[] { "tags" }, new Object[] { array }, new int[] { Types.ARRAY }), paramMap);
+        assertEquals("red green blue", params.get("tags"));
+
+        paramMap.put("array_multivalued", "true");
+        params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[] { "tags" }, new Object[] { array }, new int[] { Types.ARRAY }), paramMap);
+        assertEquals(Arrays.asList("red", "green", "blue"), params.get("tags"));
+    }
+
+    protected static ResultSet newResultSet(final String[] labels, final Object[] values, final int[] types) {
+        final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(DatabaseDataStoreTest.class.getClassLoader(),
+                new Class<?>[] { ResultSetMetaData.class }, (proxy, method, args) -> switch (method.getName()) {
+                case "getColumnCount" -> labels.length;
+                case "getColumnLabel", "getColumnName" -> labels[(Integer) args[0] - 1];
+                case "getColumnType" -> types[(Integer) args[0] - 1];
+                case "getColumnTypeName" -> String.valueOf(types[(Integer) args[0] - 1]);
+                default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return (ResultSet) Proxy.newProxyInstance(DatabaseDataStoreTest.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                case "getMetaData" -> metaData;
+                case "getObject", "getArray" -> values[(Integer) args[0] - 1];
+                case "getRow" -> 1;
+                default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    protected static Array newArray(final Object[] elements) {
+        return (Array) Proxy.newProxyInstance(DatabaseDataStoreTest.class.getClassLoader(), new Class<?>[] { Array.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                case "getArray" -> elements;
+                case "getResultSet" -> {
+                    final int[] index = { 0 };
+                    yield Proxy.newProxyInstance(DatabaseDataStoreTest.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                            (p, m, a) -> switch (m.getName()) {
+                            case "next" -> ++index[0] <= elements.length;
+                            case "getObject" -> (Integer) a[0] == 1 ? index[0] : elements[index[0] - 1];
+                            case "close" -> null;
+                            default -> throw new UnsupportedOperationException(m.getName());
+                            });
+                }
+                case "free" -> null;
+                default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    public void test_decodeText() {
+        assertEquals("hello\nworld", DatabaseDataStore.ResultSetParamMap.decodeText("hello\nworld".getBytes(StandardCharsets.UTF_8),
+                StandardCharsets.UTF_8));
+        assertEquals("\u65e5\u672c\u8a9e", DatabaseDataStore.ResultSetParamMap
+                .decodeText("\u65e5\u672c\u8a9e".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+        // malformed UTF-8
+        assertNull(DatabaseDataStore.ResultSetParamMap.decodeText(new byte[] { (byte) 0xff, (byte) 0xfe, 0x41 }, StandardCharsets.UTF_8));
+        // NUL byte
+        assertNull(DatabaseDataStore.ResultSetParamMap.decodeText(new byte[] { 0x50, 0x4b, 0x00, 0x01 }, StandardCharsets.UTF_8));
+        // control characters
+        assertNull(DatabaseDataStore.ResultSetParamMap.decodeText(new byte[] { 0x01, 0x02, 0x03, 0x41 },
+                StandardCharsets.ISO_8859_1));
+        // a multibyte character cut at the end of the checked beginning
+        final byte[] text = ("a" + "\u3042".repeat(10000)).getBytes(StandardCharsets.UTF_8);
+        assertEquals(text.length, DatabaseDataStore.ResultSetParamMap.decodeText(text, StandardCharsets.UTF_8)
+                .getBytes(StandardCharsets.UTF_8).length);
+        // malformed after the checked beginning
+        final byte[] malformed = Arrays.copyOf(text, text.length + 1);
+        malformed[text.length] = (byte) 0xff;
+        assertNull(DatabaseDataStore.ResultSetParamMap.decodeText(malformed, StandardCharsets.UTF_8));
+    }
+
+    public void test_decodeText_largeBinary() {
+        final byte[] value = new byte[10 * 1024 * 1024];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) (i % 32 + 1);
+        }
+        final AtomicInteger decoded = new AtomicInteger();
+        final Charset charset = new Charset("x-counting-latin1", null) {
+            @Override
+            public boolean contains(final Charset cs) {
+                return false;
+            }
+
+            @Override
+            public CharsetDecoder newDecoder() {
+                return new CharsetDecoder(this, 1.0f, 1.0f) {
+                    @Override
+                    protected CoderResult decodeLoop(final ByteBuffer in, final CharBuffer out) {
+                        while (in.hasRemaining()) {
+                            if (!out.hasRemaining()) {
+                                return CoderResult.OVERFLOW;
+                            }
+                            out.put((char) (in.get() & 0xff));
+                            decoded.incrementAndGet();
+                        }
+                        return CoderResult.UNDERFLOW;
+                    }
+                };
+            }
+
+            @Override
+            public CharsetEncoder newEncoder() {
+                return StandardCharsets.ISO_8859_1.newEncoder();
+            }
+        };
+        assertNull(DatabaseDataStore.ResultSetParamMap.decodeText(value, charset));
+        // only the beginning is decoded
+        assertTrue(decoded.get() <= 8192);
+    }
+
+    public void test_getBytesValue_charset() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("column_charset.body", "Shift_JIS");
+        final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[0], new Object[0], new int[0]), paramMap);
+
+        final byte[] bytes = "\u65e5\u672c\u8a9e".getBytes(Charset.forName("Shift_JIS"));
+        assertEquals("\u65e5\u672c\u8a9e", params.getBytesValue("body", bytes));
+        assertEquals(Charset.forName("Shift_JIS"), params.getColumnCharset("body"));
+        assertEquals(StandardCharsets.UTF_8, params.getColumnCharset("title"));
+    }
+
+    public void test_getBytesValue_forceText() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("column_binary.data", "false");
+        paramMap.put("column_charset.data", "ISO-8859-1");
+        final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[0], new Object[0], new int[0]), paramMap);
+
+        assertEquals("\u0000A", params.getBytesValue("data", new byte[] { 0x00, 0x41 }));
+    }
+
+    public void test_getOrderedSql() {
+        assertEquals("SELECT * FROM (SELECT id, title FROM doc) fess_resume ORDER BY id",
+                dataStore.getOrderedSql("SELECT id, title FROM doc", "id"));
+    }
+
+    public void test_configureStatement() throws Exception {
+        final Map<String, Object> calls = new HashMap<>();
+        final Statement stmt = newStatement(calls);
+
+        dataStore.configureStatement(new DataStoreParams(), stmt);
+        assertTrue(calls.isEmpty());
+
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("fetch_size", "100");
+        paramMap.put("query_timeout", "1500");
+        dataStore.configureStatement(paramMap, stmt);
+        assertEquals(100, calls.get("setFetchSize"));
+        assertEquals(2, calls.get("setQueryTimeout"));
+    }
+
+    public void test_stop_cancelsStatements() {
+        final Map<String, Object> calls = new HashMap<>();
+        dataStore.activeStatements.add(newStatement(calls));
+        dataStore.stop();
+        assertTrue(calls.containsKey("cancel"));
+    }
+
+    protected static Statement newStatement(final Map<String, Object> calls) {
+        return (Statement) Proxy.newProxyInstance(DatabaseDataStoreTest.class.getClassLoader(), new Class<?>[] { Statement.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                case "setFetchSize", "setQueryTimeout", "setMaxRows", "cancel" -> {
+                    calls.put(method.getName(), args != null ? args[0] : null);
+                    yield null;
+                }
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    public void test_createProfiler() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        assertNull(dataStore.createProfiler(paramMap));
+
+        paramMap.put("profile", "true");
+        paramMap.put("profile_rows", "2");
+        final CrawlProfiler profiler = dataStore.createProfiler(paramMap);
+        assertFalse(profiler.recordRow());
+        assertTrue(profiler.recordRow());
+    }
+
+    public void test_createProfiler_preview() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        assertFalse(dataStore.isPreview(paramMap));
+        paramMap.put("preview_sample_percent", "1");
+        assertTrue(dataStore.isPreview(paramMap));
+        // the whole sample is read without preview_rows
+        final CrawlProfiler sampleProfiler = dataStore.createProfiler(paramMap);
+        for (int i = 0; i < 2000; i++) {
+            assertFalse(sampleProfiler.recordRow());
+        }
+
+        paramMap.put("preview_rows", "2");
+        final CrawlProfiler profiler = dataStore.createProfiler(paramMap);
+        assertFalse(profiler.recordRow());
+        assertTrue(profiler.recordRow());
+
+        final Map<String, Object> calls = new HashMap<>();
+        dataStore.configureStatement(paramMap, newStatement(calls));
+        assertEquals(2, calls.get("setMaxRows"));
+    }
+
+    public void test_configurePreview() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("url", "jdbc:postgresql://localhost:5432/testdb");
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        session.setSql("SELECT * FROM doc {sample} ORDER BY id;");
+        dataStore.configurePreview(session);
+        assertEquals("SELECT * FROM doc  ORDER BY id;", session.getSql());
+
+        paramMap.put("preview_rows", "100");
+        paramMap.put("preview_sample_percent", "5");
+        session.setSql("SELECT * FROM doc {sample} ORDER BY id;");
+        dataStore.configurePreview(session);
+        assertEquals("SELECT * FROM (SELECT * FROM doc TABLESAMPLE SYSTEM (5) ORDER BY id) preview_query LIMIT 100", session.getSql());
+        assertEquals(0.0, session.getSamplePercent());
+
+        // rows are sampled after they are read without SQL sampling
+        paramMap.put("url", "jdbc:hsqldb:mem:test");
+        session.setSql("SELECT * FROM doc {sample}");
+        dataStore.configurePreview(session);
+        assertEquals("SELECT * FROM doc", session.getSql());
+        assertEquals(5.0, session.getSamplePercent());
+    }
+
+    public void test_profileColumns() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        session.setProfiler(new CrawlProfiler(0, 0));
+        final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[] { "id", "note" }, new Object[] { 10, null }, new int[] { Types.INTEGER, Types.VARCHAR }),
+                paramMap, session);
+        assertEquals("10", params.get("id"));
+
+        final String json = session.getProfiler().toJson();
+        assertTrue(json, json.contains("\"java_class\" : [ \"java.lang.Integer\" ]"));
+        assertTrue(json, json.contains("\"nulls\" : 1"));
+    }
+
+    public void test_getMemoryBudget() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        assertNull(dataStore.getMemoryBudget(paramMap));
+
+        paramMap.put("memory_budget", "invalid");
+        assertNull(dataStore.getMemoryBudget(paramMap));
+
+        paramMap.put("memory_budget", "1048576");
+        final MemoryBudget memoryBudget = dataStore.getMemoryBudget(paramMap);
+        try {
+            assertTrue(MemoryBudget.getInstance() == memoryBudget);
+            assertTrue(memoryBudget.isEnabled());
+            assertEquals(0L, dataStore.getMemoryUsage("unknown"));
+        } finally {
+            memoryBudget.setCapacity(0);
+        }
+    }
+
+    public void test_createMappingProfiles() {
+        final Map<String, String> scriptMap = new HashMap<>();
+        scriptMap.put("title", "TITLE");
+        final Map<String, Object> defaultDataMap = new HashMap<>();
+        defaultDataMap.put("lang", "en");
+        final DataStoreParams paramMap = new DataStoreParams();
+        assertNull(dataStore.createMappingProfiles(paramMap, scriptMap, defaultDataMap));
+
+        paramMap.put("fanout.guest.script.role", "'guest'");
+        assertEquals(2, dataStore.createMappingProfiles(paramMap, scriptMap, defaultDataMap).size());
+
+        paramMap.put("fanout_base", "false");
+        final List<MappingProfile> profiles = dataStore.createMappingProfiles(paramMap, scriptMap, defaultDataMap);
+        assertEquals(1, profiles.size());
+        assertEquals("guest", profiles.get(0).getName());
+        assertEquals("en", profiles.get(0).getPlan().newDocument().get("lang"));
+    }
+
+    public void test_getDialect() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        assertEquals(DatabaseDialect.GENERIC, dataStore.getDialect(paramMap));
+
+        paramMap.put("url", "jdbc:postgresql://localhost:5432/testdb");
+        assertEquals(DatabaseDialect.POSTGRESQL, dataStore.getDialect(paramMap));
+
+        paramMap.put("dialect", "generic");
+        assertEquals(DatabaseDialect.GENERIC, dataStore.getDialect(paramMap));
+
+        paramMap.put("dialect", "none");
+        assertEquals(DatabaseDialect.GENERIC, dataStore.getDialect(paramMap));
+
+        paramMap.put("dialect", "unknown");
+        assertEquals(DatabaseDialect.POSTGRESQL, dataStore.getDialect(paramMap));
+    }
+
+    public void test_getStreamingDialect() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("url", "jdbc:postgresql://localhost:5432/testdb");
+        // existing configurations keep the driver defaults
+        assertEquals(DatabaseDialect.GENERIC, dataStore.getStreamingDialect(paramMap));
+
+        paramMap.put("dialect", "auto");
+        assertEquals(DatabaseDialect.POSTGRESQL, dataStore.getStreamingDialect(paramMap));
+
+        paramMap.put("dialect", "none");
+        assertEquals(DatabaseDialect.GENERIC, dataStore.getStreamingDialect(paramMap));
+    }
+
+    public void test_configureStatement_dialect() throws Exception {
+        final Map<String, Object> calls = new HashMap<>();
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("url", "jdbc:postgresql://localhost:5432/testdb");
+        dataStore.configureStatement(paramMap, newStatement(calls));
+        assertFalse(calls.containsKey("setFetchSize"));
+
+        paramMap.put("dialect", "auto");
+        dataStore.configureStatement(paramMap, newStatement(calls));
+        assertEquals(1000, calls.get("setFetchSize"));
+
+        // fetch_size wins over the dialect default
+        paramMap.put("fetch_size", "10");
+        dataStore.configureStatement(paramMap, newStatement(calls));
+        assertEquals(10, calls.get("setFetchSize"));
+    }
+
+    public void test_getConnectionProperties_dialect() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("url", "jdbc:sqlserver://localhost:1433;databaseName=testdb");
+        paramMap.put("info.selectMethod", "direct");
+        assertEquals("direct", dataStore.getConnectionProperties(paramMap).get("selectMethod"));
+        assertNull(dataStore.getConnectionProperties(paramMap).get("responseBuffering"));
+
+        paramMap.put("dialect", "auto");
+        final Properties info = dataStore.getConnectionProperties(paramMap);
+        // info.* wins over the dialect default
+        assertEquals("direct", info.get("selectMethod"));
+        assertEquals("adaptive", info.get("responseBuffering"));
+    }
+
+    public void test_configureTransaction_dialect() throws Exception {
+        final Map<String, Object> calls = new HashMap<>();
+        final Connection con = (Connection) Proxy.newProxyInstance(DatabaseDataStoreTest.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    calls.put(method.getName(), args != null ? args[0] : null);
+                    return null;
+                });
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("read_only", "false");
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        DatabaseDialect.POSTGRESQL.configureConnection(con);
+        assertEquals(Boolean.TRUE, calls.get("setReadOnly"));
+        // read_only is applied after the dialect settings
+        dataStore.configureTransaction(session, con);
+        assertEquals(Boolean.FALSE, calls.get("setReadOnly"));
+    }
+
+    public void test_configureTransaction() throws Exception {
+        final Map<String, Object> calls = new HashMap<>();
+        final Connection con = (Connection) Proxy.newProxyInstance(DatabaseDataStoreTest.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                    calls.put(method.getName(), args != null ? args[0] : null);
+                    return null;
+                });
+        final DataStoreParams paramMap = new DataStoreParams();
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        dataStore.configureTransaction(session, con);
+        assertTrue(calls.isEmpty());
+
+        paramMap.put("read_only", "true");
+        paramMap.put("isolation_level", "read_committed");
+        dataStore.configureTransaction(session, con);
+        assertEquals(Boolean.TRUE, calls.get("setReadOnly"));
+        assertEquals(Connection.TRANSACTION_READ_COMMITTED, calls.get("setTransactionIsolation"));
+    }
+
+    public void test_createSnapshot_disabled() throws Exception {
+        assertNull(dataStore.createSnapshot(new DataStoreParams()));
+    }
+
+    public void test_openSnapshot_connectionLimit() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        session.setExecutor(CrawlExecutor.sequential().limit(CrawlExecutor.CONNECTION, 1));
+        dataStore.openSnapshot(session);
+        assertNull(session.getSnapshot());
+
+        // the snapshot connection and the reader connection cannot share one permit
+        paramMap.put("consistent_snapshot", "true");
+        try {
+            dataStore.openSnapshot(session);
+            fail();
+        } catch (final DataStoreException e) {
+            assertTrue(e.getMessage().contains("max_concurrent_connections"));
+        }
+    }
+
+    public void test_createDocumentKeyFilter() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        assertNull(dataStore.createDocumentKeyFilter(paramMap));
+
+        paramMap.put("doc_key_columns", "id, lang");
+        paramMap.put("doc_key_policy", "merge");
+        assertEquals(DocumentKeyFilter.Policy.MERGE, dataStore.createDocumentKeyFilter(paramMap).getPolicy());
+    }
+
+    public void test_mergeRow() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        final String[] labels = { "id", "title", "tag" };
+        final int[] types = { Types.INTEGER, Types.VARCHAR, Types.VARCHAR };
+        final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(labels, new Object[] { 1, "Title", "a" }, types), paramMap);
+        params.mergeRow(new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(labels, new Object[] { 1, "Title", "b" }, types), paramMap));
+        params.mergeRow(new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(labels, new Object[] { 1, "Title", "a" }, types), paramMap));
+        params.mergeRow(new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(labels, new Object[] { 1, "Title", "c" }, types), paramMap));
+
+        assertEquals("1", params.get("id"));
+        assertEquals("Title", params.get("title"));
+        assertEquals(Arrays.asList("a", "b", "c"), params.get("tag"));
+        assertEquals(28L, params.getDataSize());
+    }
+
+    public void test_getRowParamMap() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        final StatsKeyObject statsKey = new StatsKeyObject("config#1");
+
+        session.setExecutor(CrawlExecutor.sequential());
+        assertTrue(dataStore.getRowParamMap(session, statsKey) == paramMap);
+        assertTrue(paramMap.get(Constants.CRAWLER_STATS_KEY) == statsKey);
+        assertTrue(dataStore.getRowParamMap(session, null) == paramMap);
+        assertNull(paramMap.get(Constants.CRAWLER_STATS_KEY));
+
+        session.setExecutor(CrawlExecutor.platform("test", 2));
+        try {
+            final DataStoreParams rowParamMap = dataStore.getRowParamMap(session, statsKey);
+            assertFalse(rowParamMap == paramMap);
+            assertTrue(rowParamMap.get(Constants.CRAWLER_STATS_KEY) == statsKey);
+            assertNull(paramMap.get(Constants.CRAWLER_STATS_KEY));
+            assertTrue(dataStore.getRowParamMap(session, null) == paramMap);
+            assertNull(paramMap.get(Constants.CRAWLER_STATS_KEY));
+        } finally {
+            session.getExecutor().close();
+        }
+    }
+
+    public void test_createRowTracer() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("debug_rows", "2, x, 7");
+        paramMap.put("debug_value_size", "3");
+        final RowTracer rowTracer = dataStore.createRowTracer(paramMap);
+        assertTrue(rowTracer.isEnabled());
+        assertFalse(rowTracer.isTraced(1, null));
+        assertTrue(rowTracer.isTraced(2, null));
+        assertTrue(rowTracer.isTraced(7, null));
+        assertEquals("abc...(6 chars)", rowTracer.render("abcdef"));
+    }
+
+    public void test_getColumnValues() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("sql", "select id, title from doc");
+        final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[] { "id", "title" }, new Object[] { 1, "Title" }, new int[] { Types.INTEGER, Types.VARCHAR }),
+                paramMap);
+        final Map<String, Object> values = params.getColumnValues();
+        assertEquals(Arrays.asList("id", "title"), new ArrayList<>(values.keySet()));
+        assertEquals("Title", values.get("title"));
+        assertFalse(params.isTraced());
+    }
+
+    public void test_nullColumnValue() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("column_json.file.name", "name");
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        for (final CrawlSession target : new CrawlSession[] { null, session }) {
+            if (target != null) {
+                target.setProfiler(new CrawlProfiler(0, 0));
+            }
+            // the extractor returns null for content without text
+            final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                    newResultSet(new String[] { "id", "file" }, new Object[] { "1", new byte[0] }, new int[] { Types.VARCHAR, Types.BLOB }),
+                    paramMap, target) {
+                @Override
+                protected String getColumnValue(final ResultSet resultSet, final int columnIndex) throws IOException, SQLException {
+                    return columnIndex == 2 ? null : super.getColumnValue(resultSet, columnIndex);
+                }
+            };
+            assertEquals("1", params.get("id"));
+            assertTrue(params.containsKey("file"));
+            assertNull(params.get("file"));
+            assertFalse(params.containsKey("name"));
+        }
+    }
+
+    public void test_reserveColumn() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        final DataConfig config = new DataConfig();
+        config.setId("test");
+        final CrawlSession session = new CrawlSession(config, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        final MemoryBudget memoryBudget = new MemoryBudget(4096);
+        session.setMemoryBudget(memoryBudget);
+        final byte[] content = new byte[1000];
+        final ByteArrayInputStream blobStream = new ByteArrayInputStream(content);
+        final AtomicLong usedAtRead = new AtomicLong(-1);
+        final Blob blob = (Blob) Proxy.newProxyInstance(DatabaseDataStoreTest.class.getClassLoader(), new Class<?>[] { Blob.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                case "length" -> (long) content.length;
+                case "getBinaryStream" -> {
+                    usedAtRead.set(memoryBudget.getUsed());
+                    yield blobStream;
+                }
+                default -> throw new UnsupportedOperationException(method.getName());
+                });
+        final List<InputStream> extracted = new ArrayList<>();
+        final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(config, new HashMap<>(),
+                newResultSet(new String[] { "file" }, new Object[] { blob }, new int[] { Types.BLOB }), paramMap, session) {
+            @Override
+            protected String[] getExtractHint() {
+                return null;
+            }
+
+            @Override
+            protected String extract(final InputStream in) throws IOException {
+                extracted.add(in);
+                return "text:" + in.readAllBytes().length;
+            }
+        };
+        assertEquals("text:1000", params.get("file"));
+        // the LOB size is reserved before the LOB is read
+        assertEquals(1000L, usedAtRead.get());
+        assertEquals(1000L, params.getReservedSize());
+        // the content is spooled without the extracted content cache
+        assertEquals(1, extracted.size());
+        assertFalse(extracted.get(0) == blobStream);
+
+        params.releaseReserved();
+        assertEquals(0L, params.getReservedSize());
+        assertEquals(0L, memoryBudget.getUsed());
+    }
+
+    public void test_columnExtractors() throws Exception {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("column_json.data.name", "user.name");
+        paramMap.put("column_json.data.ids", "items[].id");
+        paramMap.put("column_xml.book.title", "/book/title");
+        paramMap.put("column_json.broken.x", "x");
+        final DatabaseDataStore.ResultSetParamMap params = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[] { "data", "book", "broken" },
+                        new Object[] { "{\"user\":{\"name\":\"Alice\"},\"items\":[{\"id\":1},{\"id\":2}]}",
+                                "<book><title>Title</title></book>", "{" },
+                        new int[] { Types.VARCHAR, Types.CLOB, Types.VARCHAR }),
+                paramMap);
+        assertEquals("Alice", params.get("name"));
+        assertEquals(Arrays.asList(1L, 2L), params.get("ids"));
+        assertEquals("Title", params.get("title"));
+        assertEquals("<book><title>Title</title></book>", params.get("book"));
+        // an invalid value keeps the column but has no extracted field
+        assertEquals("{", params.get("broken"));
+        assertFalse(params.containsKey("x"));
+
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        session.setColumnExtractors(ColumnPathExtractor.create(paramMap.asMap()));
+        final DatabaseDataStore.ResultSetParamMap sessionParams = new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(),
+                newResultSet(new String[] { "data" }, new Object[] { "{\"user\":{\"name\":\"Bob\"}}" }, new int[] { Types.VARCHAR }),
+                paramMap, session);
+        assertEquals("Bob", sessionParams.get("name"));
+        assertEquals(Collections.emptyList(), sessionParams.get("ids"));
+    }
+
+    public void test_contentSignature() throws Exception {
+        final Path cacheDir = Files.createTempDirectory("signature-cache");
+        try {
+            final DataStoreParams paramMap = new DataStoreParams();
+            paramMap.put("content_signature.body", "body_hash");
+            paramMap.put("content_signature_unique", "true");
+            final DataConfig config = new DataConfig();
+            config.setId("test");
+            final CrawlSession session = new CrawlSession(config, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+            session.setExtractedContentCache(new ExtractedContentCache(cacheDir, 1024 * 1024));
+            final AtomicInteger reads = new AtomicInteger();
+
+            assertEquals("first", newSignatureParams(paramMap, session, "h1", "first", reads).get("body"));
+            assertEquals(1, reads.get());
+            // the body is not read while the signature is unchanged
+            final Map<String, Object> params = newSignatureParams(paramMap, session, "h1", "changed", reads);
+            assertEquals("first", params.get("body"));
+            assertEquals("h1", params.get("body_hash"));
+            assertEquals(1, reads.get());
+            assertEquals("second", newSignatureParams(paramMap, session, "h2", "second", reads).get("body"));
+            assertEquals(2, reads.get());
+            // a row without a signature is always read
+            assertEquals("third", newSignatureParams(paramMap, session, null, "third", reads).get("body"));
+            assertEquals("third", newSignatureParams(paramMap, session, null, "third", reads).get("body"));
+            assertEquals(4, reads.get());
+
+            // content without text is not cached
+            final DatabaseDataStore.ResultSetParamMap nullParams = new DatabaseDataStore.ResultSetParamMap(session.getConfig(),
+                    new HashMap<>(), newSignatureResultSet(null, "h3", "", reads), paramMap, session) {
+                @Override
+                protected String[] getExtractHint() {
+                    return null;
+                }
+
+                @Override
+                protected String readColumnValue(final ResultSet resultSet, final int columnIndex) throws IOException, SQLException {
+                    return columnIndex == 2 ? null : super.readColumnValue(resultSet, columnIndex);
+                }
+            };
+            assertNull(nullParams.get("body"));
+            assertEquals("third2", newSignatureParams(paramMap, session, "h3", "third2", reads).get("body"));
+            assertEquals(5, reads.get());
+
+            // without the cache the signature is ignored
+            session.setExtractedContentCache(null);
+            assertEquals("changed", newSignatureParams(paramMap, session, "h1", "changed", reads).get("body"));
+            assertEquals(6, reads.get());
+        } finally {
+            try (var stream = Files.walk(cacheDir)) {
+                stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    public void test_contentSignature_rowKey() throws Exception {
+        final Path cacheDir = Files.createTempDirectory("signature-cache");
+        try {
+            final DataStoreParams paramMap = new DataStoreParams();
+            paramMap.put("content_signature.body", "body_hash");
+            paramMap.put("content_signature_key", "id");
+            final DataConfig config = new DataConfig();
+            config.setId("test");
+            final CrawlSession session = new CrawlSession(config, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+            session.setExtractedContentCache(new ExtractedContentCache(cacheDir, 1024 * 1024));
+            final AtomicInteger reads = new AtomicInteger();
+
+            // two rows with the same version and different content
+            assertEquals("first", newSignatureParams(paramMap, session, "1", "1", "first", reads).get("body"));
+            assertEquals("second", newSignatureParams(paramMap, session, "2", "1", "second", reads).get("body"));
+            assertEquals(2, reads.get());
+            assertEquals("first", newSignatureParams(paramMap, session, "1", "1", "changed", reads).get("body"));
+            assertEquals("second", newSignatureParams(paramMap, session, "2", "1", "changed", reads).get("body"));
+            assertEquals(2, reads.get());
+            // a row without its key is always read
+            assertEquals("third", newSignatureParams(paramMap, session, null, "1", "third", reads).get("body"));
+            assertEquals(3, reads.get());
+        } finally {
+            try (var stream = Files.walk(cacheDir)) {
+                stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    public void test_checkContentSignatures() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        dataStore.checkContentSignatures(paramMap);
+        paramMap.put("content_signature.body", "version");
+        try {
+            dataStore.checkContentSignatures(paramMap);
+            fail();
+        } catch (final DataStoreException e) {
+            assertTrue(e.getMessage().contains("content_signature_key"));
+        }
+        paramMap.put("content_signature_key", "id");
+        dataStore.checkContentSignatures(paramMap);
+        final DataStoreParams uniqueParamMap = new DataStoreParams();
+        uniqueParamMap.put("content_signature.body", "body_hash");
+        uniqueParamMap.put("content_signature_unique", "true");
+        dataStore.checkContentSignatures(uniqueParamMap);
+    }
+
+    private Map<String, Object> newSignatureParams(final DataStoreParams paramMap, final CrawlSession session, final String signature,
+            final String body, final AtomicInteger reads) {
+        return newSignatureParams(paramMap, session, null, signature, body, reads);
+    }
+
+    private Map<String, Object> newSignatureParams(final DataStoreParams paramMap, final CrawlSession session, final String id,
+            final String signature, final String body, final AtomicInteger reads) {
+        final ResultSet rs = newSignatureResultSet(id, signature, body, reads);
+        return new DatabaseDataStore.ResultSetParamMap(session.getConfig(), new HashMap<>(), rs, paramMap, session) {
+            @Override
+            protected String[] getExtractHint() {
+                return null;
+            }
+        };
+    }
+
+    private ResultSet newSignatureResultSet(final String id, final String signature, final String body, final AtomicInteger reads) {
+        final String[] labels = { "body_hash", "body", "id" };
+        final ResultSet rs =
+                newResultSet(labels, new Object[] { signature, body, id }, new int[] { Types.VARCHAR, Types.BLOB, Types.VARCHAR });
+        final ResultSet countingRs = (ResultSet) Proxy.newProxyInstance(DatabaseDataStoreTest.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, (proxy, method, args) -> switch (method.getName()) {
+                case "getString" -> Arrays.asList(labels).contains(args[0]) ? rs.getObject(Arrays.asList(labels).indexOf(args[0]) + 1)
+                        : null;
+                case "getObject" -> {
+                    if ((Integer) args[0] == 2) {
+                        reads.incrementAndGet();
+                    }
+                    yield rs.getObject((Integer) args[0]);
+                }
+                case "getMetaData" -> rs.getMetaData();
+                default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return countingRs;
+    }
+
+    public void test_getLobSpoolThreshold() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        session.setExecutor(dataStore.createCrawlExecutor(paramMap));
+        assertEquals(-1, dataStore.getLobSpoolThreshold(session));
+
+        paramMap.put("lob_spool", "true");
+        // rows are decoded on the reader thread without a parallel executor
+        assertEquals(-1, dataStore.getLobSpoolThreshold(session));
+
+        paramMap.put("executor_type", "virtual");
+        session.setExecutor(dataStore.createCrawlExecutor(paramMap));
+        assertEquals(1024 * 1024, dataStore.getLobSpoolThreshold(session));
+        paramMap.put("spool_memory_threshold", "4096");
+        assertEquals(4096, dataStore.getLobSpoolThreshold(session));
+
+        paramMap.put("doc_key_columns", "id");
+        paramMap.put("doc_key_policy", "merge");
+        session.setDocumentKeyFilter(dataStore.createDocumentKeyFilter(paramMap));
+        assertEquals(-1, dataStore.getLobSpoolThreshold(session));
+        session.getExecutor().close();
+    }
+
+    public void test_getShardUrls() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        paramMap.put("url", "jdbc:h2:mem:test");
+        assertTrue(dataStore.getShardUrls(paramMap).isEmpty());
+
+        paramMap.put("url", "jdbc:postgresql://db{shard}.example.com/app");
+        paramMap.put("shards", "08-10, east");
+        final Map<String, String> shardUrlMap = dataStore.getShardUrls(paramMap);
+        assertEquals(Arrays.asList("08", "09", "10", "east"), new ArrayList<>(shardUrlMap.keySet()));
+        assertEquals("jdbc:postgresql://db09.example.com/app", shardUrlMap.get("09"));
+        assertEquals("jdbc:postgresql://dbeast.example.com/app", shardUrlMap.get("east"));
+
+        paramMap.put("shards", "");
+        try {
+            dataStore.getShardUrls(paramMap);
+            fail();
+        } catch (final DataStoreException e) {
+            // expected
+        }
+
+        paramMap.put("urls", "jdbc:mysql://a/app\n\n  jdbc:mysql://b/app  \n");
+        final Map<String, String> listedUrlMap = dataStore.getShardUrls(paramMap);
+        assertEquals(2, listedUrlMap.size());
+        assertEquals("jdbc:mysql://a/app", listedUrlMap.get("0"));
+        assertEquals("jdbc:mysql://b/app", listedUrlMap.get("1"));
+    }
+
+    public void test_newShard() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        final CrawlSession session = new CrawlSession(null, null, paramMap, new HashMap<>(), new HashMap<>(), null, null);
+        session.setSql("SELECT * FROM doc");
+        session.setExecutor(CrawlExecutor.sequential());
+        final DataStoreParams shardParamMap = paramMap.newInstance();
+        final CrawlSession shard = session.newShard("3", shardParamMap);
+
+        assertEquals("3", shard.getShardId());
+        assertTrue(shard.getParamMap() == shardParamMap);
+        assertTrue(shard.getExecutor() == session.getExecutor());
+        assertEquals(1, session.getShards().size());
+        assertEquals("SELECT * FROM doc:5", session.getRowUrl(5));
+        assertEquals("3:SELECT * FROM doc:5", shard.getRowUrl(5));
+
+        assertTrue(shard.isRunning());
+        session.abort();
+        assertFalse(shard.isRunning());
+    }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+public class DatabaseDialectTest extends UnitDsTestCase {
+
+    public void test_detect_url() {
+        assertEquals(DatabaseDialect.POSTGRESQL, DatabaseDialect.detect("jdbc:postgresql://localhost:5432/db", null));
+        assertEquals(DatabaseDialect.MYSQL, DatabaseDialect.detect("jdbc:mysql://localhost:3306/db?useSSL=false", null));
+        assertEquals(DatabaseDialect.MARIADB, DatabaseDialect.detect("jdbc:mariadb://localhost:3306/db", null));
+        assertEquals(DatabaseDialect.ORACLE, DatabaseDialect.detect("jdbc:oracle:thin:@localhost:1521:orcl", null));
+        assertEquals(DatabaseDialect.SQLSERVER, DatabaseDialect.detect("jdbc:sqlserver://localhost:1433;databaseName=db", null));
+        assertEquals(DatabaseDialect.DB2, DatabaseDialect.detect("jdbc:db2://localhost:50000/db", null));
+        assertEquals(DatabaseDialect.H2, DatabaseDialect.detect("JDBC:H2:mem:test", null));
+        assertEquals(DatabaseDialect.GENERIC, DatabaseDialect.detect("jdbc:sqlite:test.db", null));
+        assertEquals(DatabaseDialect.GENERIC, DatabaseDialect.detect(null, null));
+        assertEquals(DatabaseDialect.GENERIC, DatabaseDialect.detect("jdbc:", null));
+    }
+
+    public void test_detect_driver() {
+        assertEquals(DatabaseDialect.POSTGRESQL, DatabaseDialect.detect("jdbc:custom:db", "org.postgresql.Driver"));
+        assertEquals(DatabaseDialect.MYSQL, DatabaseDialect.detect(null, "com.mysql.cj.jdbc.Driver"));
+        assertEquals(DatabaseDialect.SQLSERVER, DatabaseDialect.detect(null, "com.microsoft.sqlserver.jdbc.SQLServerDriver"));
+        assertEquals(DatabaseDialect.GENERIC, DatabaseDialect.detect(null, "org.sqlite.JDBC"));
+    }
+
+    public void test_of() {
+        assertEquals(DatabaseDialect.ORACLE, DatabaseDialect.of(" Oracle "));
+        assertEquals(DatabaseDialect.GENERIC, DatabaseDialect.of("generic"));
+        assertEquals(DatabaseDialect.GENERIC, DatabaseDialect.of("None"));
+        assertNull(DatabaseDialect.of("unknown"));
+        assertNull(DatabaseDialect.of(null));
+    }
+
+    public void test_postgresql() throws Exception {
+        final Map<String, Object> calls = new HashMap<>();
+        DatabaseDialect.POSTGRESQL.configureConnection(newConnection(calls));
+        assertEquals(Boolean.FALSE, calls.get("setAutoCommit"));
+        assertEquals(Boolean.TRUE, calls.get("setReadOnly"));
+        assertTrue(DatabaseDialect.POSTGRESQL.getDefaultFetchSize() > 0);
+    }
+
+    public void test_mysql() throws Exception {
+        final Map<String, Object> calls = new HashMap<>();
+        DatabaseDialect.MYSQL.configureConnection(newConnection(calls));
+        assertFalse(calls.containsKey("setAutoCommit"));
+        // a cursor fetch keeps the connection usable for other statements
+        assertEquals(1000, DatabaseDialect.MYSQL.getDefaultFetchSize());
+        final Properties info = new Properties();
+        DatabaseDialect.MYSQL.configureProperties(info);
+        assertEquals("true", info.get("useCursorFetch"));
+    }
+
+    public void test_oracle() {
+        final Properties info = new Properties();
+        info.put("defaultRowPrefetch", "100");
+        DatabaseDialect.ORACLE.configureProperties(info);
+        assertEquals("100", info.get("defaultRowPrefetch"));
+        assertEquals("32768", info.get("oracle.jdbc.defaultLobPrefetchSize"));
+    }
+
+    public void test_sqlserver() {
+        final Properties info = new Properties();
+        DatabaseDialect.SQLSERVER.configureProperties(info);
+        assertEquals("adaptive", info.get("responseBuffering"));
+        assertEquals("cursor", info.get("selectMethod"));
+    }
+
+    public void test_generic() throws Exception {
+        final Map<String, Object> calls = new HashMap<>();
+        final Properties info = new Properties();
+        DatabaseDialect.GENERIC.configureProperties(info);
+        DatabaseDialect.GENERIC.configureConnection(newConnection(calls));
+        assertTrue(info.isEmpty());
+        assertTrue(calls.isEmpty());
+        assertEquals(0, DatabaseDialect.GENERIC.getDefaultFetchSize());
+    }
+
+    public void test_limitRows() {
+        assertEquals("SELECT * FROM (SELECT * FROM doc ORDER BY id) preview_query LIMIT 10",
+                DatabaseDialect.POSTGRESQL.limitRows("SELECT * FROM doc ORDER BY id", 10));
+        assertEquals("SELECT * FROM (SELECT * FROM doc) WHERE ROWNUM <= 10", DatabaseDialect.ORACLE.limitRows("SELECT * FROM doc", 10));
+        assertEquals("SELECT * FROM (SELECT * FROM doc) preview_query FETCH FIRST 10 ROWS ONLY",
+                DatabaseDialect.DB2.limitRows("SELECT * FROM doc", 10));
+        assertNull(DatabaseDialect.SQLSERVER.limitRows("SELECT * FROM doc ORDER BY id", 10));
+        assertNull(DatabaseDialect.GENERIC.limitRows("SELECT * FROM doc", 10));
+    }
+
+    public void test_sampleRows() {
+        assertEquals("SELECT * FROM doc TABLESAMPLE SYSTEM (1.5) WHERE id > 0",
+                DatabaseDialect.POSTGRESQL.sampleRows("SELECT * FROM doc {sample} WHERE id > 0", 1.5));
+        assertEquals("SELECT * FROM (SELECT * FROM doc) preview_query WHERE random() < 0.1",
+                DatabaseDialect.POSTGRESQL.sampleRows("SELECT * FROM doc", 10));
+        assertEquals("SELECT * FROM doc SAMPLE (10)", DatabaseDialect.ORACLE.sampleRows("SELECT * FROM doc {sample}", 10));
+        assertEquals("SELECT * FROM doc TABLESAMPLE (0.01 PERCENT)",
+                DatabaseDialect.SQLSERVER.sampleRows("SELECT * FROM doc {sample}", 0.01));
+        assertEquals("SELECT * FROM (SELECT * FROM doc ) preview_query WHERE RAND() < 0.0001",
+                DatabaseDialect.MYSQL.sampleRows("SELECT * FROM doc {sample}", 0.01));
+        assertNull(DatabaseDialect.SQLSERVER.sampleRows("SELECT * FROM doc", 10));
+        assertNull(DatabaseDialect.GENERIC.sampleRows("SELECT * FROM doc {sample}", 10));
+    }
+
+    public void test_parseIsolationLevel() {
+        assertEquals(Connection.TRANSACTION_READ_COMMITTED, DatabaseDialect.parseIsolationLevel("read_committed"));
+        assertEquals(Connection.TRANSACTION_REPEATABLE_READ, DatabaseDialect.parseIsolationLevel("REPEATABLE READ"));
+        assertEquals(Connection.TRANSACTION_SERIALIZABLE, DatabaseDialect.parseIsolationLevel("serializable"));
+        assertEquals(DatabaseDialect.TRANSACTION_SNAPSHOT, DatabaseDialect.parseIsolationLevel("snapshot"));
+        assertEquals(2, DatabaseDialect.parseIsolationLevel("2"));
+        assertEquals(-1, DatabaseDialect.parseIsolationLevel("unknown"));
+        assertEquals(-1, DatabaseDialect.parseIsolationLevel(null));
+    }
+
+    public void test_snapshot_postgresql() throws Exception {
+        final List<String> sqls = new ArrayList<>();
+        final Map<String, Object> calls = new HashMap<>();
+        final DatabaseSnapshot snapshot = DatabaseSnapshot.export(DatabaseDialect.POSTGRESQL, newConnection(calls, sqls, "00000003-1"));
+        assertEquals("00000003-1", snapshot.getSnapshotId());
+        assertEquals("SELECT pg_export_snapshot()", sqls.get(0));
+        assertFalse(calls.containsKey("close"));
+
+        final Map<String, Object> workerCalls = new HashMap<>();
+        assertTrue(snapshot.apply(newConnection(workerCalls, sqls, null)));
+        assertEquals(Boolean.FALSE, workerCalls.get("setAutoCommit"));
+        assertEquals(Connection.TRANSACTION_REPEATABLE_READ, workerCalls.get("setTransactionIsolation"));
+        assertEquals("SET TRANSACTION SNAPSHOT '00000003-1'", sqls.get(1));
+
+        snapshot.close();
+        assertTrue(calls.containsKey("rollback"));
+        assertTrue(calls.containsKey("close"));
+    }
+
+    public void test_snapshot_notShared() throws Exception {
+        final List<String> sqls = new ArrayList<>();
+        final Map<String, Object> calls = new HashMap<>();
+        final DatabaseSnapshot snapshot = DatabaseSnapshot.export(DatabaseDialect.MYSQL, newConnection(calls, sqls, null));
+        assertNull(snapshot.getSnapshotId());
+        assertTrue(calls.containsKey("close"));
+
+        assertTrue(snapshot.apply(newConnection(new HashMap<>(), sqls, null)));
+        assertEquals("START TRANSACTION WITH CONSISTENT SNAPSHOT", sqls.get(0));
+
+        final DatabaseSnapshot generic = DatabaseSnapshot.export(DatabaseDialect.GENERIC, newConnection(calls, sqls, null));
+        assertFalse(generic.apply(newConnection(new HashMap<>(), sqls, null)));
+    }
+
+    private static Connection newConnection(final Map<String, Object> calls) {
+        return newConnection(calls, new ArrayList<>(), null);
+    }
+
+    private static Connection newConnection(final Map<String, Object> calls, final List<String> sqls, final String result) {
+        final ClassLoader classLoader = DatabaseDialectTest.class.getClassLoader();
+        final ResultSet rs = (ResultSet) Proxy.newProxyInstance(classLoader, new Class<?>[] { ResultSet.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                case "next" -> result != null;
+                case "getString" -> result;
+                default -> null;
+                });
+        final Statement stmt = (Statement) Proxy.newProxyInstance(classLoader, new Class<?>[] { Statement.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                case "executeQuery" -> {
+                    sqls.add((String) args[0]);
+                    yield rs;
+                }
+                case "execute" -> {
+                    sqls.add((String) args[0]);
+                    yield Boolean.FALSE;
+                }
+                default -> null;
+                });
+        return (Connection) Proxy.newProxyInstance(classLoader, new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+            calls.put(method.getName(), args != null ? args[0] : null);
+            return "createStatement".equals(method.getName()) ? stmt : null;
+        });
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+import java.util.Arrays;
+
+public class DocumentKeyFilterTest extends UnitDsTestCase {
+
+    public void test_computeKey() {
+        final DocumentKeyFilter filter = new DocumentKeyFilter(Arrays.asList("id", "lang"), DocumentKeyFilter.Policy.SKIP);
+        assertEquals(filter.computeKey("1", "en"), filter.computeKey("1", "en"));
+        assertFalse(filter.computeKey("1", "en").equals(filter.computeKey("1", "ja")));
+        assertFalse(filter.computeKey("1", null).equals(filter.computeKey("1", "")));
+        assertFalse(filter.computeKey("ab", "c").equals(filter.computeKey("a", "bc")));
+        // the key keeps 128 bits of the digest
+        assertEquals(32, filter.computeKey("1").toString().length());
+    }
+
+    public void test_add() {
+        final DocumentKeyFilter filter = new DocumentKeyFilter(Arrays.asList("id"), DocumentKeyFilter.Policy.SKIP);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.add(filter.computeKey(String.valueOf(i))));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(filter.add(filter.computeKey(String.valueOf(i))));
+        }
+        assertEquals(10000, filter.size());
+
+        assertTrue(filter.add(new DocumentKeyFilter.Key(0L, 0L)));
+        assertFalse(filter.add(new DocumentKeyFilter.Key(0L, 0L)));
+        assertEquals(10001, filter.size());
+    }
+
+    public void test_add_sameHalfBits() {
+        final DocumentKeyFilter filter = new DocumentKeyFilter(Arrays.asList("id"), DocumentKeyFilter.Policy.SKIP);
+        // keys that share 64 bits of the digest are still distinct documents
+        final long bits = 0x123456789L;
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(filter.add(new DocumentKeyFilter.Key(bits, i)));
+            assertTrue(filter.add(new DocumentKeyFilter.Key(i, bits)));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertFalse(filter.add(new DocumentKeyFilter.Key(bits, i)));
+            assertFalse(filter.add(new DocumentKeyFilter.Key(i, bits)));
+        }
+        assertEquals(10000, filter.size());
+    }
+
+    public void test_policy() {
+        assertEquals(DocumentKeyFilter.Policy.MERGE, DocumentKeyFilter.Policy.of(" Merge "));
+        assertEquals(DocumentKeyFilter.Policy.SKIP, DocumentKeyFilter.Policy.of("skip"));
+        assertEquals(DocumentKeyFilter.Policy.SKIP, DocumentKeyFilter.Policy.of(null));
+    }
+
+    public void test_counts() {
+        final DocumentKeyFilter filter = new DocumentKeyFilter(Arrays.asList("id"), DocumentKeyFilter.Policy.MERGE);
+        filter.recordDuplicate();
+        filter.recordMerged();
+        filter.recordMerged();
+        assertEquals(1L, filter.getDuplicateCount());
+        assertEquals(2L, filter.getMergedCount());
+    }
+}
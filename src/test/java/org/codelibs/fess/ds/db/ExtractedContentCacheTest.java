@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.TestInfo;
+
+public class ExtractedContentCacheTest extends UnitDsTestCase {
+    private Path cacheDir;
+
+    @Override
+    public void setUp(final TestInfo testInfo) throws Exception {
+        super.setUp(testInfo);
+        cacheDir = Files.createTempDirectory("extract-cache");
+    }
+
+    @Override
+    public void tearDown(final TestInfo testInfo) throws Exception {
+        try (Stream<Path> stream = Files.walk(cacheDir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        super.tearDown(testInfo);
+    }
+
+    public void test_putAndGet() throws Exception {
+        final ExtractedContentCache cache = new ExtractedContentCache(cacheDir, 1024 * 1024);
+        final String key = ExtractedContentCache.createKey(new byte[] { 1, 2, 3 }, "mimetype:application/pdf");
+        assertNull(cache.get(key));
+
+        cache.put(key, "extracted text");
+        assertEquals("extracted text", cache.get(key));
+        assertEquals(1, cache.size());
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+    }
+
+    public void test_createKey() {
+        final byte[] digest = { 1, 2, 3 };
+        assertEquals(ExtractedContentCache.createKey(digest, "mimetype:text/plain"),
+                ExtractedContentCache.createKey(digest, "mimetype:text/plain"));
+        assertFalse(ExtractedContentCache.createKey(digest, "mimetype:text/plain")
+                .equals(ExtractedContentCache.createKey(digest, "mimetype:application/pdf")));
+        assertFalse(ExtractedContentCache.createKey(digest, null).equals(ExtractedContentCache.createKey(new byte[] { 1, 2 }, null)));
+    }
+
+    public void test_createSignatureKey() {
+        assertEquals(ExtractedContentCache.createSignatureKey("config:body", "10:abc", null),
+                ExtractedContentCache.createSignatureKey("config:body", "10:abc", null));
+        assertFalse(ExtractedContentCache.createSignatureKey("config:body", "10:abc", null)
+                .equals(ExtractedContentCache.createSignatureKey("config:file", "10:abc", null)));
+        assertFalse(ExtractedContentCache.createSignatureKey("config:body", "10:abc", null)
+                .equals(ExtractedContentCache.createSignatureKey("config:body", "10:abd", null)));
+        assertFalse(ExtractedContentCache.createSignatureKey("config:body", "10:abc", "mimetype:text/plain")
+                .equals(ExtractedContentCache.createSignatureKey("config:body", "10:abc", null)));
+    }
+
+    public void test_evict() throws Exception {
+        final ExtractedContentCache cache = new ExtractedContentCache(cacheDir, 25);
+        final String key1 = ExtractedContentCache.createKey(new byte[] { 1 }, null);
+        final String key2 = ExtractedContentCache.createKey(new byte[] { 2 }, null);
+        final String key3 = ExtractedContentCache.createKey(new byte[] { 3 }, null);
+        cache.put(key1, "0123456789");
+        cache.put(key2, "0123456789");
+        // key1 becomes the most recently used entry
+        assertNotNull(cache.get(key1));
+        cache.put(key3, "0123456789");
+
+        assertEquals(2, cache.size());
+        assertEquals(20L, cache.getTotalSize());
+        assertNotNull(cache.get(key1));
+        assertNull(cache.get(key2));
+        assertNotNull(cache.get(key3));
+    }
+
+    public void test_persist() throws Exception {
+        final String key = ExtractedContentCache.createKey(new byte[] { 1, 2, 3 }, null);
+        new ExtractedContentCache(cacheDir, 1024).put(key, "persisted");
+
+        final ExtractedContentCache cache = new ExtractedContentCache(cacheDir, 1024);
+        assertEquals(1, cache.size());
+        assertEquals("persisted", cache.get(key));
+    }
+
+    public void test_spooledContent() throws Exception {
+        final byte[] bytes = "binary content".getBytes(StandardCharsets.UTF_8);
+        try (SpooledContent inMemory = SpooledContent.spool(new ByteArrayInputStream(bytes), 1024);
+                SpooledContent inFile = SpooledContent.spool(new ByteArrayInputStream(bytes), 4);
+                SpooledContent wrapped = SpooledContent.of(bytes)) {
+            assertFalse(inMemory.isInFile());
+            assertTrue(inFile.isInFile());
+            assertEquals(Long.valueOf(bytes.length), Long.valueOf(inFile.getLength()));
+            try (InputStream in = inFile.open()) {
+                assertEquals("binary content", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            final String key = ExtractedContentCache.createKey(wrapped.getDigest(), null);
+            assertEquals(key, ExtractedContentCache.createKey(inMemory.getDigest(), null));
+            assertEquals(key, ExtractedContentCache.createKey(inFile.getDigest(), null));
+        }
+    }
+}
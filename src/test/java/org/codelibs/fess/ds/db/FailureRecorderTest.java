@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codelibs.fess.app.service.FailureUrlService;
+import org.codelibs.fess.opensearch.config.exentity.CrawlingConfig;
+
+public class FailureRecorderTest extends UnitDsTestCase {
+
+    public void test_dedupAndFlush() {
+        final List<String> stored = new ArrayList<>();
+        final FailureRecorder recorder = new FailureRecorder(null, () -> new CapturingFailureUrlService(stored), 10, 2, 100, 0);
+
+        for (int i = 0; i < 5; i++) {
+            final boolean first = recorder.recordFailure("java.lang.IllegalStateException", "sql:" + i, newException());
+            assertEquals(i == 0, first);
+        }
+        assertTrue(stored.isEmpty());
+
+        recorder.flush();
+        assertEquals(2, stored.size());
+        assertEquals("java.lang.IllegalStateException sql:0", stored.get(0));
+        assertEquals("java.lang.IllegalStateException sql:1", stored.get(1));
+        assertEquals(5L, recorder.getFailureCount());
+        assertEquals(3L, recorder.getDroppedCount());
+        assertEquals(1, recorder.getFailureCounts().size());
+
+        recorder.flush();
+        assertEquals(2, stored.size());
+    }
+
+    public void test_flushOnBufferSize() {
+        final List<String> stored = new ArrayList<>();
+        final FailureRecorder recorder = new FailureRecorder(null, () -> new CapturingFailureUrlService(stored), 2, 1, 100, 0);
+
+        recorder.recordFailure("a", "sql:1", new IllegalStateException());
+        assertTrue(stored.isEmpty());
+        recorder.recordFailure("b", "sql:2", new IllegalArgumentException());
+        assertEquals(2, stored.size());
+        assertEquals(0L, recorder.getDroppedCount());
+    }
+
+    public void test_circuitBreaker() {
+        final FailureRecorder recorder = new FailureRecorder(null, () -> new CapturingFailureUrlService(new ArrayList<>()), 100, 1, 10, 50);
+
+        for (int i = 0; i < 9; i++) {
+            recorder.recordFailure("a", "sql:" + i, newException());
+        }
+        // the window is not full yet
+        assertFalse(recorder.isTripped());
+        recorder.recordFailure("a", "sql:9", newException());
+        assertTrue(recorder.isTripped());
+    }
+
+    public void test_circuitBreaker_slidingWindow() {
+        final FailureRecorder recorder = new FailureRecorder(null, () -> new CapturingFailureUrlService(new ArrayList<>()), 100, 1, 10, 50);
+
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 == 0) {
+                recorder.recordFailure("a", "sql:" + i, newException());
+            } else {
+                recorder.recordSuccess();
+            }
+        }
+        assertFalse(recorder.isTripped());
+        assertTrue(recorder.getWindowFailureRate() < 50);
+    }
+
+    public void test_disabledCircuitBreaker() {
+        final FailureRecorder recorder = new FailureRecorder(null, () -> new CapturingFailureUrlService(new ArrayList<>()), 100, 1, 10, 0);
+        for (int i = 0; i < 100; i++) {
+            recorder.recordFailure("a", "sql:" + i, newException());
+        }
+        assertFalse(recorder.isTripped());
+    }
+
+    private static Exception newException() {
+        return new IllegalStateException("row-specific message " + System.nanoTime());
+    }
+
+    private static class CapturingFailureUrlService extends FailureUrlService {
+        private final List<String> stored;
+
+        CapturingFailureUrlService(final List<String> stored) {
+            this.stored = stored;
+        }
+
+        @Override
+        public void store(final CrawlingConfig crawlingConfig, final String errorName, final String url, final Throwable e) {
+            stored.add(errorName + " " + url);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.concurrent.RejectedExecutionException;
+
+public class IngestMonitorTest extends UnitDsTestCase {
+
+    public void test_healthy() {
+        final IngestMonitor monitor = new IngestMonitor(10, 3.0, 5.0, 1000);
+        for (int i = 0; i < 100; i++) {
+            monitor.recordStore(1_000_000L, null);
+        }
+        assertEquals(Double.valueOf(1.0), Double.valueOf(monitor.getFactor()));
+        assertEquals(0L, monitor.getDelayNanos());
+        assertEquals(0L, monitor.getPauseNanos());
+        assertEquals(0L, monitor.getDecreaseCount());
+    }
+
+    public void test_latency() throws Exception {
+        final IngestMonitor monitor = new IngestMonitor(10, 3.0, 5.0, 1000);
+        for (int i = 0; i < 10; i++) {
+            monitor.recordStore(1_000_000L, null);
+        }
+        // a slow index halves the read rate per window
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(1);
+            monitor.recordStore(10_000_000L, null);
+        }
+        assertEquals(Double.valueOf(0.25), Double.valueOf(monitor.getFactor()));
+        assertEquals(2L, monitor.getDecreaseCount());
+        assertTrue(monitor.getDelayNanos() > 0);
+
+        // the rate goes up step by step when the index recovers
+        for (int i = 0; i < 10; i++) {
+            monitor.recordStore(1_000_000L, null);
+        }
+        assertTrue(Math.abs(monitor.getFactor() - 0.35) < 0.0001);
+        for (int i = 0; i < 100; i++) {
+            monitor.recordStore(1_000_000L, null);
+        }
+        assertEquals(Double.valueOf(1.0), Double.valueOf(monitor.getFactor()));
+        assertEquals(0L, monitor.getDelayNanos());
+    }
+
+    public void test_fastWindow() {
+        final IngestMonitor monitor = new IngestMonitor(10, 3.0, 5.0, 1000);
+        for (int i = 0; i < 50; i++) {
+            monitor.recordStore(10_000_000L, null);
+        }
+        // a window without a bulk request is much faster than usual
+        for (int i = 0; i < 10; i++) {
+            monitor.recordStore(100_000L, null);
+        }
+        for (int i = 0; i < 100; i++) {
+            monitor.recordStore(10_000_000L, null);
+        }
+        assertEquals(Double.valueOf(1.0), Double.valueOf(monitor.getFactor()));
+        assertEquals(0L, monitor.getDecreaseCount());
+    }
+
+    public void test_fastFirstWindow() {
+        final IngestMonitor monitor = new IngestMonitor(10, 3.0, 5.0, 1000);
+        for (int i = 0; i < 10; i++) {
+            monitor.recordStore(100_000L, null);
+        }
+        // the baseline drifts up to the usual latency and reading goes back to full speed
+        for (int i = 0; i < 300; i++) {
+            monitor.recordStore(10_000_000L, null);
+        }
+        assertEquals(Double.valueOf(1.0), Double.valueOf(monitor.getFactor()));
+        assertTrue(monitor.getDecreaseCount() < 10);
+    }
+
+    public void test_errorRate() {
+        final IngestMonitor monitor = new IngestMonitor(10, 3.0, 10.0, 1000);
+        for (int i = 0; i < 10; i++) {
+            monitor.recordStore(1_000_000L, i == 0 ? new IllegalStateException("failed") : null);
+        }
+        assertEquals(Double.valueOf(1.0), Double.valueOf(monitor.getFactor()));
+
+        for (int i = 0; i < 10; i++) {
+            monitor.recordStore(1_000_000L, i < 2 ? new IllegalStateException("failed") : null);
+        }
+        assertEquals(Double.valueOf(0.5), Double.valueOf(monitor.getFactor()));
+        assertEquals(0L, monitor.getPauseNanos());
+    }
+
+    public void test_pause() throws Exception {
+        final IngestMonitor monitor = new IngestMonitor(100, 3.0, 5.0, 200);
+        monitor.recordStore(1_000_000L, new RuntimeException("bulk failed", new IllegalStateException("rejected_execution_exception")));
+        assertEquals(1L, monitor.getPauseCount());
+        assertEquals(Double.valueOf(0.5), Double.valueOf(monitor.getFactor()));
+        assertTrue(monitor.getPauseNanos() > 0);
+
+        // failures of documents sent before the pause do not extend it as new pauses
+        monitor.recordStore(1_000_000L, new IllegalStateException("429 Too Many Requests"));
+        assertEquals(1L, monitor.getPauseCount());
+
+        final long waited = monitor.await(() -> true);
+        assertTrue(waited >= 150_000_000L);
+        assertEquals(0L, monitor.getPauseNanos());
+    }
+
+    public void test_await_stopped() throws Exception {
+        final IngestMonitor monitor = new IngestMonitor(100, 3.0, 5.0, 60000);
+        monitor.recordStore(1_000_000L, new IllegalStateException("circuit_breaking_exception"));
+        assertTrue(monitor.getPauseNanos() > 0);
+        assertTrue(monitor.await(() -> false) < 1_000_000_000L);
+    }
+
+    public void test_isOverload() {
+        assertTrue(IngestMonitor.isOverload(new IllegalStateException("OpenSearchStatusException[status=429]")));
+        assertTrue(IngestMonitor.isOverload(new RejectedExecutionException("queue is full")));
+        assertTrue(IngestMonitor.isOverload(new RuntimeException(new IllegalStateException("circuit_breaking_exception"))));
+        assertFalse(IngestMonitor.isOverload(new IllegalArgumentException("mapper_parsing_exception")));
+        assertFalse(IngestMonitor.isOverload(new IllegalStateException((String) null)));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MappingPlanTest extends UnitDsTestCase {
+
+    public void test_newDocument() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("title", "TITLE");
+        scriptMap.put("lang", "LANG");
+        final Map<String, Object> defaultDataMap = new HashMap<>();
+        defaultDataMap.put("lang", "en");
+        defaultDataMap.put("role", "guest");
+        final MappingPlan plan = new MappingPlan(scriptMap, defaultDataMap);
+        assertEquals(2, plan.size());
+        assertEquals(3, plan.getExpectedSize());
+
+        final Map<String, Object> dataMap = plan.newDocument();
+        assertEquals(defaultDataMap, dataMap);
+        dataMap.put("title", "Title");
+        assertEquals(2, defaultDataMap.size());
+        assertEquals(2, plan.newDocument().size());
+
+        plan.recordSize(10);
+        assertEquals(10, plan.getExpectedSize());
+        plan.recordSize(5);
+        assertEquals(10, plan.getExpectedSize());
+    }
+
+    public void test_order() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("summary", "doc.title + ' ' + doc['lang'] + doc.get(\"missing\")");
+        scriptMap.put("url", "'http://example.com/' + ID");
+        scriptMap.put("title", "TITLE + doc.title");
+        scriptMap.put("lang", "LANG");
+        final MappingPlan plan = new MappingPlan(scriptMap, null);
+        assertEquals(Arrays.asList("url", "title", "lang", "summary"), getFields(plan));
+        assertEquals("doc.title + ' ' + doc['lang'] + doc.get(\"missing\")", plan.getScript(3));
+        assertEquals(0, plan.newDocument().size());
+    }
+
+    public void test_order_circular() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("a", "doc.b");
+        scriptMap.put("b", "doc.a");
+        scriptMap.put("c", "doc.get('a')");
+        scriptMap.put("mydoc", "mydoc.c");
+        assertEquals(Arrays.asList("mydoc", "a", "b", "c"), MappingPlan.orderFields(scriptMap));
+    }
+
+    private static List<String> getFields(final MappingPlan plan) {
+        final List<String> fields = new ArrayList<>();
+        for (int i = 0; i < plan.size(); i++) {
+            fields.add(plan.getField(i));
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MappingProfileTest extends UnitDsTestCase {
+
+    public void test_noFanout() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("title", "TITLE");
+        final Map<String, Object> paramMap = new HashMap<>();
+        paramMap.put("sql", "SELECT * FROM doc");
+
+        final List<MappingProfile> profiles = MappingProfile.create(paramMap, scriptMap, true);
+        assertEquals(1, profiles.size());
+        assertTrue(profiles.get(0).isBase());
+        assertEquals(scriptMap, profiles.get(0).getScriptMap());
+
+        // the base profile is kept when no fan-out profile is defined
+        assertEquals(1, MappingProfile.create(paramMap, scriptMap, false).size());
+    }
+
+    public void test_fanout() {
+        final Map<String, String> scriptMap = new LinkedHashMap<>();
+        scriptMap.put("url", "\"http://example.com/\" + ID");
+        scriptMap.put("title", "TITLE");
+        scriptMap.put("content", "CONTENT");
+        final Map<String, Object> paramMap = new HashMap<>();
+        paramMap.put("fanout.public.script.url", "\"http://example.com/public/\" + ID");
+        paramMap.put("fanout.public.script.content", "");
+        paramMap.put("fanout.admin.script.role", "'admin'");
+        paramMap.put("fanout..script.ignored", "x");
+
+        final List<MappingProfile> profiles = MappingProfile.create(paramMap, scriptMap, true);
+        assertEquals(3, profiles.size());
+        assertTrue(profiles.get(0).isBase());
+
+        final MappingProfile admin = profiles.get(1);
+        assertEquals("admin", admin.getName());
+        assertEquals("'admin'", admin.getScriptMap().get("role"));
+        assertEquals("CONTENT", admin.getScriptMap().get("content"));
+
+        final MappingProfile publicProfile = profiles.get(2);
+        assertEquals("public", publicProfile.getName());
+        assertEquals("\"http://example.com/public/\" + ID", publicProfile.getScriptMap().get("url"));
+        assertEquals("TITLE", publicProfile.getScriptMap().get("title"));
+        assertFalse(publicProfile.getScriptMap().containsKey("content"));
+
+        assertEquals(3, scriptMap.size());
+        assertEquals(2, MappingProfile.create(paramMap, scriptMap, false).size());
+    }
+}
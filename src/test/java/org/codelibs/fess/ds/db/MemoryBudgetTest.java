@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MemoryBudgetTest extends UnitDsTestCase {
+
+    public void test_parseSize() {
+        assertEquals(1024L, MemoryBudget.parseSize("1024", 4096));
+        assertEquals(1024L, MemoryBudget.parseSize("25%", 4096));
+        assertEquals(0L, MemoryBudget.parseSize("abc", 4096));
+        assertEquals(0L, MemoryBudget.parseSize(null, 4096));
+    }
+
+    public void test_tryAcquireAndRelease() {
+        final MemoryBudget budget = new MemoryBudget(100);
+        assertTrue(budget.tryAcquire("a", 60));
+        assertFalse(budget.tryAcquire("b", 60));
+        assertTrue(budget.tryAcquire("b", 40));
+        assertEquals(100L, budget.getUsed());
+        assertEquals(60L, budget.getUsage("a"));
+        assertEquals(40L, budget.getUsage("b"));
+
+        budget.release("a", 60);
+        assertEquals(0L, budget.getUsage("a"));
+        assertFalse(budget.getUsages().containsKey("a"));
+        assertEquals(40L, budget.getUsed());
+    }
+
+    public void test_oversizedRequest() {
+        final MemoryBudget budget = new MemoryBudget(100);
+        assertTrue(budget.tryAcquire("a", 500));
+        assertFalse(budget.tryAcquire("a", 1));
+        budget.release("a", 500);
+        assertEquals(0L, budget.getUsed());
+    }
+
+    public void test_unlimited() {
+        final MemoryBudget budget = new MemoryBudget(0);
+        assertFalse(budget.isEnabled());
+        assertTrue(budget.tryAcquire("a", Long.MAX_VALUE / 2));
+        assertTrue(budget.tryAcquire("a", Long.MAX_VALUE / 2));
+    }
+
+    public void test_acquireHeld() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100);
+        assertTrue(budget.tryAcquire("a", 80));
+        // the caller holds all reserved memory, so it does not wait for itself
+        assertTrue(budget.acquire("a", 80, 80, () -> false));
+        assertEquals(160L, budget.getUsed());
+        // memory held by others is waited for
+        assertFalse(budget.acquire("a", 10, 80, () -> false));
+        budget.release("a", 160);
+        assertEquals(0L, budget.getUsed());
+    }
+
+    public void test_acquireBlocks() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100);
+        assertTrue(budget.tryAcquire("a", 100));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> {
+            try {
+                if (budget.acquire("b", 50, () -> true)) {
+                    acquired.countDown();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        budget.release("a", 100);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(50L, budget.getUsage("b"));
+        thread.join();
+    }
+
+    public void test_acquireStopped() throws Exception {
+        final MemoryBudget budget = new MemoryBudget(100);
+        assertTrue(budget.tryAcquire("a", 100));
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final Thread stopper = new Thread(() -> {
+            try {
+                Thread.sleep(100L);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.set(false);
+        });
+        stopper.start();
+        assertFalse(budget.acquire("b", 50, running::get));
+        assertEquals(0L, budget.getUsage("b"));
+        stopper.join();
+    }
+}
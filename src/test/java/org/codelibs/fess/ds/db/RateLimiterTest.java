@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+public class RateLimiterTest extends UnitDsTestCase {
+
+    public void test_disabled() {
+        final RateLimiter rateLimiter = new RateLimiter(0, 0, false, 2.0);
+        assertFalse(rateLimiter.isEnabled());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Long.valueOf(0), Long.valueOf(rateLimiter.reserve(1000)));
+        }
+    }
+
+    public void test_rowsPerSecond() {
+        final RateLimiter rateLimiter = new RateLimiter(10, 0, false, 2.0);
+        assertTrue(rateLimiter.isEnabled());
+        // the bucket starts full
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Long.valueOf(0), Long.valueOf(rateLimiter.reserve(0)));
+        }
+        final long waitNanos = rateLimiter.reserve(0);
+        assertTrue(waitNanos > 50_000_000L);
+        assertTrue(waitNanos <= 100_000_000L);
+    }
+
+    public void test_bytesPerSecond() {
+        final RateLimiter rateLimiter = new RateLimiter(0, 1000, false, 2.0);
+        assertEquals(Long.valueOf(0), Long.valueOf(rateLimiter.reserve(1000)));
+        // a row larger than the budget is delayed, not rejected
+        final long waitNanos = rateLimiter.reserve(2000);
+        assertTrue(waitNanos > 1_500_000_000L);
+        assertTrue(waitNanos <= 2_000_000_000L);
+    }
+
+    public void test_setRate() {
+        final RateLimiter rateLimiter = new RateLimiter(1, 0, false, 2.0);
+        rateLimiter.reserve(0);
+        assertTrue(rateLimiter.reserve(0) > 0);
+
+        rateLimiter.setRate(0, 0);
+        assertFalse(rateLimiter.isEnabled());
+        assertEquals(Long.valueOf(0), Long.valueOf(rateLimiter.reserve(0)));
+        assertEquals(Double.valueOf(0), Double.valueOf(rateLimiter.getRowsPerSecond()));
+    }
+
+    public void test_adaptive() {
+        final RateLimiter rateLimiter = new RateLimiter(100, 0, true, 2.0);
+        for (int i = 0; i < 200; i++) {
+            rateLimiter.recordLatency(1_000_000L);
+        }
+        assertEquals(Double.valueOf(1.0), Double.valueOf(rateLimiter.getFactor()));
+
+        for (int i = 0; i < 200; i++) {
+            rateLimiter.recordLatency(10_000_000L);
+        }
+        final double factor = rateLimiter.getFactor();
+        assertTrue(factor < 0.5);
+        assertTrue(factor >= 0.05);
+    }
+
+    public void test_adaptive_disabled() {
+        final RateLimiter rateLimiter = new RateLimiter(100, 0, false, 2.0);
+        for (int i = 0; i < 200; i++) {
+            rateLimiter.recordLatency(i * 1_000_000L);
+        }
+        assertEquals(Double.valueOf(1.0), Double.valueOf(rateLimiter.getFactor()));
+    }
+
+    public void test_acquireStopped() throws Exception {
+        final RateLimiter rateLimiter = new RateLimiter(0.1, 0, false, 2.0);
+        assertEquals(0L, rateLimiter.acquire(0));
+        final AtomicInteger checks = new AtomicInteger();
+        final long startTime = System.nanoTime();
+        // the second row waits for 10 seconds unless the crawl is stopped
+        rateLimiter.acquire(0, () -> checks.incrementAndGet() == 1);
+        final long elapsed = System.nanoTime() - startTime;
+        assertEquals(2, checks.get());
+        assertTrue("Waited " + elapsed + "ns", elapsed < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    public void test_create() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        RateLimiter rateLimiter = RateLimiter.create(paramMap);
+        assertFalse(rateLimiter.isEnabled());
+        assertEquals(Double.valueOf(0), Double.valueOf(rateLimiter.getRowsPerSecond()));
+        assertEquals(Long.valueOf(0), Long.valueOf(rateLimiter.getBytesPerSecond()));
+
+        paramMap.put("rows_per_second", "2500.5");
+        paramMap.put("bytes_per_second", "1048576");
+        rateLimiter = RateLimiter.create(paramMap);
+        assertTrue(rateLimiter.isEnabled());
+        assertEquals(Double.valueOf(2500.5), Double.valueOf(rateLimiter.getRowsPerSecond()));
+        assertEquals(Long.valueOf(1048576), Long.valueOf(rateLimiter.getBytesPerSecond()));
+
+        paramMap.put("rows_per_second", "fast");
+        assertEquals(Double.valueOf(0), Double.valueOf(RateLimiter.create(paramMap).getRowsPerSecond()));
+    }
+}
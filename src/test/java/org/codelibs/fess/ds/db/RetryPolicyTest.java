@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+public class RetryPolicyTest extends UnitDsTestCase {
+
+    public void test_isTransient() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        RetryPolicy retryPolicy = RetryPolicy.create(paramMap);
+        assertTrue(retryPolicy.isTransient(new SQLTransientConnectionException("timeout")));
+        assertTrue(retryPolicy.isTransient(new SQLException("connection reset", "08006")));
+        assertTrue(retryPolicy.isTransient(new SQLException("serialization failure", "40001")));
+        assertTrue(retryPolicy.isTransient(new SQLException("ORA-01555: snapshot too old", "72000", 1555)));
+        assertFalse(retryPolicy.isTransient(new SQLException("syntax error", "42601")));
+        assertFalse(retryPolicy.isTransient(new SQLException("unknown")));
+
+        final SQLException chained = new SQLException("batch failed", "HY000");
+        chained.setNextException(new SQLException("connection lost", "08003"));
+        assertTrue(retryPolicy.isTransient(chained));
+
+        assertTrue(retryPolicy.isTransient(new SQLException("wrapped", new SQLException("failover", "08S01"))));
+
+        paramMap.put("retry_sql_states", "HY000, 42");
+        paramMap.put("retry_error_codes", "99999");
+        retryPolicy = RetryPolicy.create(paramMap);
+        assertTrue(retryPolicy.isTransient(new SQLException("syntax error", "42601")));
+        assertTrue(retryPolicy.isTransient(new SQLException("custom", "S1000", 99999)));
+    }
+
+    public void test_getInterval() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        RetryPolicy retryPolicy = RetryPolicy.create(paramMap);
+        assertEquals(0, retryPolicy.getMaxRetries());
+        assertEquals(Long.valueOf(1000), Long.valueOf(retryPolicy.getInterval(1)));
+        assertEquals(Long.valueOf(2000), Long.valueOf(retryPolicy.getInterval(2)));
+        assertEquals(Long.valueOf(8000), Long.valueOf(retryPolicy.getInterval(4)));
+        assertEquals(Long.valueOf(60000), Long.valueOf(retryPolicy.getInterval(10)));
+        assertEquals(Long.valueOf(60000), Long.valueOf(retryPolicy.getInterval(100)));
+
+        paramMap.put("retry_count", "3");
+        paramMap.put("retry_interval", "100");
+        paramMap.put("retry_max_interval", "500");
+        retryPolicy = RetryPolicy.create(paramMap);
+        assertEquals(3, retryPolicy.getMaxRetries());
+        assertEquals(Long.valueOf(400), Long.valueOf(retryPolicy.getInterval(3)));
+        assertEquals(Long.valueOf(500), Long.valueOf(retryPolicy.getInterval(4)));
+    }
+
+    public void test_getResumeSql() {
+        final DataStoreParams paramMap = new DataStoreParams();
+        RetryPolicy retryPolicy = RetryPolicy.create(paramMap);
+        assertNull(retryPolicy.getResumeKey());
+        // the query of the session is resumed, not the configured one
+        assertEquals("SELECT * FROM (SELECT id, title FROM doc ORDER BY id) fess_resume WHERE id > ? ORDER BY id",
+                retryPolicy.getResumeSql("SELECT id, title FROM doc ORDER BY id", "id"));
+
+        paramMap.put("resume_key", " id ");
+        paramMap.put("resume_sql", "SELECT id, title FROM doc WHERE id > ? ORDER BY id");
+        retryPolicy = RetryPolicy.create(paramMap);
+        assertEquals("id", retryPolicy.getResumeKey());
+        assertEquals("SELECT id, title FROM doc WHERE id > ? ORDER BY id",
+                retryPolicy.getResumeSql("SELECT id, title FROM doc ORDER BY id", "id"));
+    }
+}
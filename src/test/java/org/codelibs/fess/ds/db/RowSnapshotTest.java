@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+
+import org.codelibs.fess.entity.DataStoreParams;
+
+public class RowSnapshotTest extends UnitDsTestCase {
+
+    public void test_capture() throws Exception {
+        final byte[] small = "small".getBytes(StandardCharsets.UTF_8);
+        final byte[] large = new byte[100];
+        Arrays.fill(large, (byte) 'x');
+        final ResultSet rs = DatabaseDataStoreTest.newResultSet(
+                new String[] { "id", "small", "large", "body", "stream", "reader", "tags", "bytes", "empty" },
+                new Object[] { 1, new SerialBlob(small), new SerialBlob(large), new SerialClob("text".toCharArray()),
+                        new ByteArrayInputStream(small), new StringReader("chars"),
+                        DatabaseDataStoreTest.newArray(new Object[] { "a", "b" }), new byte[] { 1, 2 }, null },
+                new int[] { Types.INTEGER, Types.BLOB, Types.BLOB, Types.CLOB, Types.LONGVARBINARY, Types.LONGVARCHAR, Types.ARRAY,
+                        Types.VARBINARY, Types.VARCHAR });
+
+        final RowSnapshot snapshot = RowSnapshot.capture(rs, 10);
+        try {
+            // 5 + 4 + 5 + 5 + 2 bytes and characters in memory, and the large BLOB in a temporary file
+            assertEquals(21L, snapshot.getDataSize());
+
+            final ResultSet view = snapshot.getResultSet();
+            assertEquals(9, view.getMetaData().getColumnCount());
+            assertEquals("large", view.getMetaData().getColumnLabel(3));
+            assertEquals(Types.CLOB, view.getMetaData().getColumnType(4));
+            assertEquals(1, view.getObject(1));
+            assertEquals("1", view.getString("ID"));
+            assertEquals(3, view.findColumn("large"));
+
+            final SpooledContent smallContent = (SpooledContent) view.getObject(2);
+            assertFalse(smallContent.isInFile());
+            final SpooledContent largeContent = (SpooledContent) view.getObject("large");
+            assertTrue(largeContent.isInFile());
+            assertEquals(100L, largeContent.getLength());
+            try (InputStream in = largeContent.open()) {
+                assertEquals(100, in.readAllBytes().length);
+            }
+            assertEquals("text", view.getObject(4));
+            assertTrue(view.getObject(5) instanceof SpooledContent);
+            assertEquals("chars", view.getObject(6));
+            final Array array = view.getArray(7);
+            assertTrue(Arrays.equals(new Object[] { "a", "b" }, (Object[]) array.getArray()));
+            assertTrue(Arrays.equals(new byte[] { 1, 2 }, (byte[]) view.getObject(8)));
+            assertNull(view.getObject(9));
+            assertNull(view.getString(9));
+
+            try {
+                view.getObject(10);
+                fail();
+            } catch (final SQLException e) {
+                // expected
+            }
+            try {
+                view.getObject("missing");
+                fail();
+            } catch (final SQLException e) {
+                // expected
+            }
+            try {
+                view.next();
+                fail();
+            } catch (final SQLException e) {
+                // expected
+            }
+
+            snapshot.close();
+            try {
+                largeContent.open();
+                fail();
+            } catch (final Exception e) {
+                // the temporary file is deleted
+            }
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    public void test_decode() throws Exception {
+        final ResultSet rs = DatabaseDataStoreTest.newResultSet(new String[] { "id", "body", "tags" },
+                new Object[] { 7, new SerialClob("clob text".toCharArray()), DatabaseDataStoreTest.newArray(new Object[] { "x", "y" }) },
+                new int[] { Types.INTEGER, Types.CLOB, Types.ARRAY });
+        try (RowSnapshot snapshot = RowSnapshot.capture(rs, 1024)) {
+            final DataStoreParams paramMap = new DataStoreParams();
+            paramMap.put("array_multivalued", "true");
+            final DatabaseDataStore.ResultSetParamMap params =
+                    new DatabaseDataStore.ResultSetParamMap(null, new HashMap<>(), snapshot.getResultSet(), paramMap);
+            assertEquals("7", params.get("id"));
+            assertEquals("clob text", params.get("body"));
+            assertEquals(Arrays.asList("x", "y"), params.get("tags"));
+        }
+    }
+}
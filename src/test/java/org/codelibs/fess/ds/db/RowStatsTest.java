@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codelibs.fess.helper.CrawlerStatsHelper;
+import org.codelibs.fess.helper.CrawlerStatsHelper.StatsAction;
+import org.codelibs.fess.helper.CrawlerStatsHelper.StatsKeyObject;
+
+public class RowStatsTest extends UnitDsTestCase {
+
+    public void test_sampling() {
+        final List<String> calls = new ArrayList<>();
+        final RowStats rowStats = new RowStats(newCrawlerStatsHelper(calls), "config", 3, 0L);
+        for (int i = 1; i <= 7; i++) {
+            final StatsKeyObject statsKey = rowStats.begin(i);
+            assertEquals(i % 3 == 1, statsKey != null);
+            rowStats.record(statsKey, StatsAction.FINISHED);
+            rowStats.done(statsKey, System.nanoTime(), "row" + i);
+        }
+        assertEquals(7L, rowStats.getRowCount());
+        assertEquals(3L, rowStats.getSampledCount());
+        assertEquals(9, calls.size());
+        assertEquals("begin", calls.get(0));
+        assertEquals("FINISHED", calls.get(1));
+        assertEquals("done", calls.get(2));
+    }
+
+    public void test_everyRow() {
+        final List<String> calls = new ArrayList<>();
+        final RowStats rowStats = new RowStats(newCrawlerStatsHelper(calls), "config", 0, 0L);
+        for (int i = 1; i <= 5; i++) {
+            assertNotNull(rowStats.begin(i));
+        }
+        assertEquals(5L, rowStats.getSampledCount());
+    }
+
+    public void test_withoutHelper() {
+        final RowStats rowStats = new RowStats(null, null, 1, 0L);
+        final StatsKeyObject statsKey = rowStats.begin(1);
+        assertNull(statsKey);
+        rowStats.record(statsKey, StatsAction.PARSED);
+        rowStats.done(statsKey, System.nanoTime(), "row1");
+        assertEquals(1L, rowStats.getRowCount());
+        assertEquals(0L, rowStats.getSampledCount());
+    }
+
+    public void test_outliers() {
+        final RowStats rowStats = new RowStats(null, "config", 100, 10L);
+        rowStats.begin(1);
+        rowStats.done(null, System.nanoTime(), "fast");
+        rowStats.begin(2);
+        rowStats.done(null, System.nanoTime() - 50_000_000L, "slow");
+        assertEquals(2L, rowStats.getRowCount());
+        assertEquals(1L, rowStats.getOutlierCount());
+        assertTrue(rowStats.toString().contains("outliers=1"));
+    }
+
+    public void test_documentKeys() {
+        final List<String> calls = new ArrayList<>();
+        final RowStats rowStats = new RowStats(newCrawlerStatsHelper(calls), "config", 2, 0L);
+        rowStats.recordDuplicate();
+        rowStats.recordDuplicate();
+        rowStats.recordMerged(rowStats.begin(1));
+        rowStats.recordMerged(rowStats.begin(2));
+        assertEquals(2L, rowStats.getDuplicateCount());
+        assertEquals(2L, rowStats.getMergedCount());
+        // only the sampled row records the action
+        assertEquals(2, calls.size());
+        assertEquals("merged", calls.get(1));
+        assertTrue(rowStats.toString().contains("duplicates=2, merged=2"));
+    }
+
+    private CrawlerStatsHelper newCrawlerStatsHelper(final List<String> calls) {
+        return new CrawlerStatsHelper() {
+            @Override
+            public void begin(final Object keyObj) {
+                calls.add("begin");
+            }
+
+            @Override
+            public void record(final Object keyObj, final StatsAction action) {
+                calls.add(action.name());
+            }
+
+            @Override
+            public void record(final Object keyObj, final String action) {
+                calls.add(action);
+            }
+
+            @Override
+            public void done(final Object keyObj) {
+                calls.add("done");
+            }
+        };
+    }
+}
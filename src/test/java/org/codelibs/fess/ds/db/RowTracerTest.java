@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class RowTracerTest extends UnitDsTestCase {
+
+    public void test_none() throws Exception {
+        assertFalse(RowTracer.NONE.isEnabled());
+        assertFalse(RowTracer.NONE.isTraced(1, null));
+    }
+
+    public void test_rowNumbers() throws Exception {
+        final RowTracer rowTracer = new RowTracer(new HashSet<>(Arrays.asList(3L, 5L)), null, Collections.emptySet(), 0, 0);
+        assertTrue(rowTracer.isEnabled());
+        assertFalse(rowTracer.isTraced(1, null));
+        assertTrue(rowTracer.isTraced(3, null));
+        assertFalse(rowTracer.isTraced(4, null));
+        assertTrue(rowTracer.isTraced(5, null));
+    }
+
+    public void test_sampleRate() throws Exception {
+        final RowTracer rowTracer = new RowTracer(Collections.emptySet(), null, Collections.emptySet(), 10, 0);
+        assertTrue(rowTracer.isTraced(1, null));
+        assertFalse(rowTracer.isTraced(2, null));
+        assertTrue(rowTracer.isTraced(11, null));
+    }
+
+    public void test_keyValues() throws Exception {
+        final Set<String> keyValues = new HashSet<>(Arrays.asList("42"));
+        final RowTracer rowTracer = new RowTracer(Collections.emptySet(), "id", keyValues, 0, 0);
+        assertTrue(rowTracer.isTraced(1, newResultSet("42")));
+        assertFalse(rowTracer.isTraced(2, newResultSet("43")));
+        assertFalse(rowTracer.isTraced(3, newResultSet(null)));
+    }
+
+    public void test_render() {
+        final RowTracer rowTracer = new RowTracer(Collections.emptySet(), null, Collections.emptySet(), 0, 5);
+        assertEquals("null", rowTracer.render(null));
+        assertEquals("abc", rowTracer.render("abc"));
+        assertEquals("abcde...(10 chars)", rowTracer.render("abcdefghij"));
+        assertEquals("byte[1024]", rowTracer.render(new byte[1024]));
+
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", 1);
+        map.put("content", "0123456789");
+        map.put("tags", Arrays.asList("a", "b"));
+        assertEquals("{id=1, content=01234...(10 chars), tags=[a, b]}", rowTracer.render(map));
+
+        final List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            list.add(i);
+        }
+        assertTrue(rowTracer.render(list).endsWith(", 49, ...(100 elements)]"));
+        assertTrue(rowTracer.render(new int[100]).endsWith(", 0, ...(100 elements)]"));
+    }
+
+    private ResultSet newResultSet(final String value) {
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+            if ("getString".equals(method.getName())) {
+                return value;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+}
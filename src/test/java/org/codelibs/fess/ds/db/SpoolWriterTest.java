@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.ds.db;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.TestInfo;
+
+public class SpoolWriterTest extends UnitDsTestCase {
+    private Path spoolDir;
+
+    @Override
+    public void setUp(final TestInfo testInfo) throws Exception {
+        super.setUp(testInfo);
+        spoolDir = Files.createTempDirectory("spool");
+    }
+
+    @Override
+    public void tearDown(final TestInfo testInfo) throws Exception {
+        try (Stream<Path> stream = Files.walk(spoolDir)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        super.tearDown(testInfo);
+    }
+
+    public void test_roundTrip() throws Exception {
+        final Map<String, Object> dataMap = new HashMap<>();
+        dataMap.put("title", "Test \"title\"\n");
+        dataMap.put("count", 10);
+        dataMap.put("score", 1.5);
+        dataMap.put("large", 12345678901L);
+        dataMap.put("flag", true);
+        dataMap.put("empty", null);
+        dataMap.put("date", new Date(1234567890123L));
+        dataMap.put("tags", Arrays.asList("a", "b"));
+        dataMap.put("roles", new String[] { "admin" });
+
+        final Path runDir;
+        try (SpoolWriter writer = new SpoolWriter(spoolDir, "config", 100)) {
+            runDir = writer.getRunDirectory();
+            writer.write(dataMap);
+            assertEquals(1L, writer.getDocumentCount());
+        }
+
+        final List<Path> chunkFiles = SpoolReader.listChunks(runDir);
+        assertEquals(1, chunkFiles.size());
+        final List<Map<String, Object>> documents = new ArrayList<>();
+        assertEquals(1L, SpoolReader.read(chunkFiles.get(0), documents::add));
+
+        final Map<String, Object> document = documents.get(0);
+        assertEquals("Test \"title\"\n", document.get("title"));
+        assertEquals(10, document.get("count"));
+        assertEquals(1.5, document.get("score"));
+        assertEquals(12345678901L, document.get("large"));
+        assertEquals(Boolean.TRUE, document.get("flag"));
+        assertTrue(document.containsKey("empty"));
+        assertNull(document.get("empty"));
+        assertEquals(new Date(1234567890123L), document.get("date"));
+        assertEquals(Arrays.asList("a", "b"), document.get("tags"));
+        assertEquals(Arrays.asList("admin"), document.get("roles"));
+    }
+
+    public void test_chunks() throws Exception {
+        final Path runDir;
+        try (SpoolWriter writer = new SpoolWriter(spoolDir, "config", 2)) {
+            runDir = writer.getRunDirectory();
+            for (int i = 0; i < 5; i++) {
+                final Map<String, Object> dataMap = new HashMap<>();
+                dataMap.put("id", i);
+                writer.write(dataMap);
+                if (i == 2) {
+                    // a partial chunk is not visible to readers
+                    assertEquals(1, SpoolReader.listChunks(runDir).size());
+                }
+            }
+        }
+
+        final List<Path> chunkFiles = SpoolReader.listChunks(runDir);
+        assertEquals(3, chunkFiles.size());
+        final List<Object> ids = new ArrayList<>();
+        for (final Path chunkFile : chunkFiles) {
+            SpoolReader.read(chunkFile, dataMap -> ids.add(dataMap.get("id")));
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), ids);
+    }
+
+    public void test_readStop() throws Exception {
+        final Path runDir;
+        try (SpoolWriter writer = new SpoolWriter(spoolDir, "config", 100)) {
+            runDir = writer.getRunDirectory();
+            for (int i = 0; i < 5; i++) {
+                final Map<String, Object> dataMap = new HashMap<>();
+                dataMap.put("id", i);
+                writer.write(dataMap);
+            }
+        }
+        final long count = SpoolReader.read(SpoolReader.listChunks(runDir).get(0), dataMap -> !dataMap.get("id").equals(1));
+        assertEquals(2L, count);
+    }
+
+    public void test_runs() throws Exception {
+        final Path otherRun = writeRun("other", 1, true);
+        final Path firstRun = writeRun("config", 2, true);
+        assertEquals(firstRun, SpoolReader.findLatestRun(spoolDir, "config"));
+        final Path incompleteRun = writeRun("config", 2, false);
+        assertFalse(SpoolReader.isComplete(incompleteRun));
+        // an incomplete run is not replayed
+        assertEquals(firstRun, SpoolReader.findLatestRun(spoolDir, "config"));
+
+        final Path secondRun = writeRun("config", 2, true);
+        assertEquals(secondRun, SpoolReader.findLatestRun(spoolDir, "config"));
+        assertEquals(Arrays.asList(firstRun, secondRun), SpoolReader.listRuns(spoolDir, "config"));
+
+        final Path thirdRun = writeRun("config", 2, true);
+        assertEquals(Arrays.asList(secondRun, thirdRun), SpoolReader.listRuns(spoolDir, "config"));
+        assertEquals(thirdRun, SpoolReader.findLatestRun(spoolDir, "config"));
+        assertEquals(otherRun, SpoolReader.findLatestRun(spoolDir, "other"));
+        assertNull(SpoolReader.findLatestRun(spoolDir, "none"));
+    }
+
+    private Path writeRun(final String prefix, final int keepRuns, final boolean complete) throws Exception {
+        try (SpoolWriter writer = new SpoolWriter(spoolDir, prefix, 100, keepRuns)) {
+            final Map<String, Object> dataMap = new HashMap<>();
+            dataMap.put("id", 1);
+            writer.write(dataMap);
+            if (complete) {
+                writer.complete();
+            }
+            return writer.getRunDirectory();
+        }
+    }
+}